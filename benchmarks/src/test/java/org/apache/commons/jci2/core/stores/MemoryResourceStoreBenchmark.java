@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class loading threads reading from a {@link MemoryResourceStore} while
+ * the FAM thread keeps writing to it. The "read" score should stay close
+ * to the one of the uncontended "readOnly" benchmark.
+ *
+ * @author tcurdt
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class MemoryResourceStoreBenchmark {
+
+    @Param({ "1000", "20000" })
+    public int resources;
+
+    private MemoryResourceStore store;
+    private String[] names;
+    private byte[] data;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            next = (int) Thread.currentThread().getId() * 7919;
+        }
+
+        int next( final int pBound ) {
+            next = (next + 1) % pBound;
+            return next;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = new MemoryResourceStore();
+        names = new String[resources];
+        data = new byte[2048];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "org/apache/commons/jci2/generated/Class" + i + ".class";
+            store.write(names[i], data);
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public byte[] read( final Cursor pCursor ) {
+        return store.read(names[pCursor.next(names.length)]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void write( final Cursor pCursor ) {
+        store.write(names[pCursor.next(names.length)], data);
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(3)
+    public byte[] readOnly( final Cursor pCursor ) {
+        return store.read(names[pCursor.next(names.length)]);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.fam.monitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of the scans of the {@link FilesystemAlterationObserverImpl}
+ * on synthetic trees.
+ *
+ * The trees are created below the directory given by the system property
+ * "jci.benchmark.dir", /dev/shm (if available) or the temp directory. Use a
+ * tmpfs to measure the observer rather than the disk. Creating the tree with
+ * a million entries takes a while.
+ *
+ *   mvn -Pbenchmark -pl benchmarks test -Dbenchmark=FilesystemAlterationObserverBenchmark
+ *
+ * Add the "-prof gc" JMH option (running org.openjdk.jmh.Main directly) to
+ * see the allocation per scan.
+ *
+ * @author tcurdt
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilesystemAlterationObserverBenchmark {
+
+    private static final int FILES_PER_DIRECTORY = 100;
+    private static final int DIRECTORIES_PER_DIRECTORY = 100;
+
+    private static final int DISPATCH_FILES = 10000;
+    private static final int DISPATCH_LISTENERS = 4;
+
+    private static final class CountingListener implements FilesystemAlterationListener {
+
+        private long events;
+
+        @Override
+        public void onStart( final FilesystemAlterationObserver pObserver ) {
+        }
+        @Override
+        public void onFileCreate( final File pFile ) {
+            events++;
+        }
+        @Override
+        public void onFileChange( final File pFile ) {
+            events++;
+        }
+        @Override
+        public void onFileDelete( final File pFile ) {
+            events++;
+        }
+        @Override
+        public void onDirectoryCreate( final File pDir ) {
+            events++;
+        }
+        @Override
+        public void onDirectoryChange( final File pDir ) {
+            events++;
+        }
+        @Override
+        public void onDirectoryDelete( final File pDir ) {
+            events++;
+        }
+        @Override
+        public void onStop( final FilesystemAlterationObserver pObserver ) {
+        }
+    }
+
+    static File createBaseDirectory() throws IOException {
+        final String dir = System.getProperty("jci.benchmark.dir");
+        if (dir != null) {
+            return Files.createTempDirectory(new File(dir).toPath(), "jci2").toFile();
+        }
+        final File shm = new File("/dev/shm");
+        if (shm.isDirectory() && shm.canWrite()) {
+            return Files.createTempDirectory(shm.toPath(), "jci2").toFile();
+        }
+        return Files.createTempDirectory("jci2").toFile();
+    }
+
+    static void deleteDirectory( final File pDirectory ) throws IOException {
+        Files.walkFileTree(pDirectory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile( final Path pFile, final BasicFileAttributes pAttributes ) throws IOException {
+                Files.delete(pFile);
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory( final Path pDir, final IOException pException ) throws IOException {
+                Files.delete(pDir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Creates the files spread over two levels of directories
+     * and lets the observer pick up the initial state.
+     */
+    static File[] createTree( final File pRoot, final int pFiles ) throws IOException {
+        try {
+            return createFiles(pRoot, pFiles);
+        } catch (final IOException e) {
+            // e.g. out of inodes - do not leave a half created tree behind
+            deleteDirectory(pRoot);
+            throw e;
+        }
+    }
+
+    private static File[] createFiles( final File pRoot, final int pFiles ) throws IOException {
+        final File[] files = new File[pFiles];
+        for (int i = 0; i < pFiles; i++) {
+            final int directory = i / FILES_PER_DIRECTORY;
+            final File parent = new File(pRoot, (directory / DIRECTORIES_PER_DIRECTORY) + File.separator + (directory % DIRECTORIES_PER_DIRECTORY));
+            if (i % FILES_PER_DIRECTORY == 0 && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("could not create " + parent);
+            }
+            files[i] = new File(parent, "file" + i);
+            if (!files[i].createNewFile()) {
+                throw new IOException("could not create " + files[i]);
+            }
+        }
+        return files;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+
+        @Param({ "10000", "100000", "1000000" })
+        public int entries;
+
+        File root;
+        File[] files;
+        FilesystemAlterationObserverImpl observer;
+        CountingListener listener;
+
+        private long modified = System.currentTimeMillis();
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            root = createBaseDirectory();
+            files = createTree(root, entries);
+
+            observer = new FilesystemAlterationObserverImpl(root);
+            listener = new CountingListener();
+            observer.addListener(listener);
+            observer.checkAndNotify();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            deleteDirectory(root);
+        }
+
+        void touch( final int pFiles ) {
+            modified += 1000;
+            final int step = Math.max(1, files.length / pFiles);
+            for (int i = 0; i < pFiles; i++) {
+                files[(i * step) % files.length].setLastModified(modified);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Changes {
+
+        @Param({ "1", "100", "1000" })
+        public int changes;
+
+        @Setup(Level.Invocation)
+        public void setUp( final Tree pTree ) {
+            pTree.touch(changes);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Dispatch {
+
+        File root;
+        File[] files;
+        FilesystemAlterationObserverImpl observer;
+        CountingListener[] listeners = new CountingListener[DISPATCH_LISTENERS];
+
+        private long modified = System.currentTimeMillis();
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            root = createBaseDirectory();
+            files = createTree(root, DISPATCH_FILES);
+
+            observer = new FilesystemAlterationObserverImpl(root);
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i] = new CountingListener();
+                observer.addListener(listeners[i]);
+            }
+            observer.checkAndNotify();
+        }
+
+        @Setup(Level.Invocation)
+        public void touch() {
+            modified += 1000;
+            for (final File file : files) {
+                file.setLastModified(modified);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            deleteDirectory(root);
+        }
+    }
+
+    /**
+     * A scan that does not find any change.
+     */
+    @Benchmark
+    public long idleScan( final Tree pTree ) {
+        pTree.observer.checkAndNotify();
+        return pTree.listener.events;
+    }
+
+    /**
+     * A scan that finds a number of changed files spread over the tree.
+     */
+    @Benchmark
+    public long scanWithChanges( final Tree pTree, final Changes pChanges ) {
+        pTree.observer.checkAndNotify();
+        return pTree.listener.events;
+    }
+
+    /**
+     * Every file changed and gets dispatched to a few listeners.
+     * The score is per event (and listener call) on the scanning thread.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(DISPATCH_FILES * DISPATCH_LISTENERS)
+    public long dispatch( final Dispatch pDispatch ) {
+        pDispatch.observer.checkAndNotify();
+        return pDispatch.listeners[0].events;
+    }
+}
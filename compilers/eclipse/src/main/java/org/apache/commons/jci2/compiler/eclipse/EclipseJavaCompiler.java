@@ -19,12 +19,18 @@ package org.apache.commons.jci2.compiler.eclipse;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.jci2.core.ReloadingClassLoader;
 import org.apache.commons.jci2.core.compiler.AbstractJavaCompiler;
 import org.apache.commons.jci2.core.compiler.JavaCompilerSettings;
 import org.apache.commons.jci2.core.problems.CompilationProblem;
@@ -108,14 +114,17 @@ public final class EclipseJavaCompiler extends AbstractJavaCompiler {
 
         @Override
         public char[] getContents() {
-            final byte[] content = reader.getBytes(fileName);
+            try (InputStream is = reader.openStream(fileName)) {
+                if (is == null) {
+                    return null;
+                    //throw new RuntimeException("resource " + fileName + " could not be found");
+                }
 
-            if (content == null) {
+                return IOUtils.toCharArray(is, Charset.defaultCharset());
+            } catch (final IOException e) {
+                log.error("could not read " + fileName, e);
                 return null;
-                //throw new RuntimeException("resource " + fileName + " could not be found");
             }
-
-            return new String(content).toCharArray();
         }
 
         @Override
@@ -317,6 +326,21 @@ public final class EclipseJavaCompiler extends AbstractJavaCompiler {
                     return false;
                 }
 
+                // the indexes of the store and reader answer without probing
+                final String resourcePath = pClazzName.replace('.', '/');
+                if (pStore.exists(resourcePath + ".class")) {
+                    log.debug("found the class for " + pClazzName + " in the store - no package");
+                    return false;
+                }
+                if (pStore.isPackage(resourcePath) || pReader.isPackage(resourcePath)) {
+                    log.debug("found the package " + pClazzName);
+                    return true;
+                }
+                if (pClassLoader instanceof ReloadingClassLoader && ((ReloadingClassLoader) pClassLoader).isPackage(pClazzName)) {
+                    log.debug("found the package " + pClazzName + " in the classloader");
+                    return true;
+                }
+
                 final InputStream is = pClassLoader.getResourceAsStream(ConversionUtils.convertClassToResourcePath(pClazzName));
                 if (is != null) {
                     log.debug("found the class for " + pClazzName + "- no package");
@@ -372,6 +396,10 @@ public final class EclipseJavaCompiler extends AbstractJavaCompiler {
             }
         };
 
+        // written to the store as one batch once the compiler is done
+        final Map<String, byte[]> output = new LinkedHashMap<>();
+        final Map<String, Collection<String>> outputsBySource = new LinkedHashMap<>();
+
         final ICompilerRequestor compilerRequestor = pResult -> {
             if (pResult.hasProblems()) {
                 for (final IProblem iproblem : pResult.getProblems()) {
@@ -384,6 +412,7 @@ public final class EclipseJavaCompiler extends AbstractJavaCompiler {
             }
             if (!pResult.hasErrors()) {
                 final ClassFile[] clazzFiles = pResult.getClassFiles();
+                final List<String> outputs = new ArrayList<>();
                 for (final ClassFile clazzFile : clazzFiles) {
                     final char[][] compoundName = clazzFile.getCompoundName();
                     final StringBuilder clazzName = new StringBuilder();
@@ -393,8 +422,13 @@ public final class EclipseJavaCompiler extends AbstractJavaCompiler {
                         }
                         clazzName.append(compoundName[j]);
                     }
-                    pStore.write(clazzName.toString().replace('.', '/') + ".class", clazzFile.getBytes());
+                    final String resourceName = clazzName.toString().replace('.', '/') + ".class";
+                    output.put(resourceName, clazzFile.getBytes());
+                    outputs.add(resourceName);
                 }
+                // the class files come in no particular order, the outer classes go first
+                outputs.sort(Comparator.comparing(name -> name.substring(0, name.length() - ".class".length())));
+                outputsBySource.put(new String(pResult.getFileName()), outputs);
             }
         };
 
@@ -402,9 +436,13 @@ public final class EclipseJavaCompiler extends AbstractJavaCompiler {
 
         compiler.compile(compilationUnits);
 
+        if (!output.isEmpty()) {
+            pStore.writeAll(output);
+        }
+
         final CompilationProblem[] result = new CompilationProblem[problems.size()];
         problems.toArray(result);
-        return new org.apache.commons.jci2.core.compiler.CompilationResult(result);
+        return new org.apache.commons.jci2.core.compiler.CompilationResult(result, outputsBySource);
     }
 
     @Override
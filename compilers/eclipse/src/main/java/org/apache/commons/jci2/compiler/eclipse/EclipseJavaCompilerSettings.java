@@ -19,6 +19,7 @@ package org.apache.commons.jci2.compiler.eclipse;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.commons.jci2.core.compiler.JavaCompilerSettings;
 import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
@@ -81,6 +82,16 @@ public final class EclipseJavaCompilerSettings extends JavaCompilerSettings {
         return map;
     }
 
+    @Override
+    public String getFingerprint() {
+        try {
+            return super.getFingerprint() + "\n" + new TreeMap<>(toNativeSettings());
+        } catch (final IllegalArgumentException e) {
+            // unknown version
+            return null;
+        }
+    }
+
     @Override
     public String toString() {
         return toNativeSettings().toString();
@@ -17,8 +17,18 @@
 
 package org.apache.commons.jci2.compiler.eclipse;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.jci2.core.compiler.CachingJavaCompiler;
+import org.apache.commons.jci2.core.compiler.CompilationCache;
+import org.apache.commons.jci2.core.compiler.CompilationResult;
 import org.apache.commons.jci2.core.compiler.JavaCompiler;
 import org.apache.commons.jci2.core.compilers.AbstractCompilerTestCase;
+import org.apache.commons.jci2.core.readers.MemoryResourceReader;
+import org.apache.commons.jci2.core.stores.MemoryResourceStore;
 
 import junit.framework.AssertionFailedError;
 
@@ -46,4 +56,97 @@ public final class EclipseJavaCompilerTestCase extends AbstractCompilerTestCase
             }
         }
     }
+
+    public void testOutputs() throws Exception {
+        final MemoryResourceReader reader = new MemoryResourceReader();
+        reader.add("jci2/Simple.java", (
+                "package jci2;\n" +
+                "public class Simple {\n" +
+                "  private class Sub {\n" +
+                "  }\n" +
+                "}").getBytes());
+        reader.add("jci2/Other.java", (
+                "package jci2;\n" +
+                "public class Other {\n" +
+                "}").getBytes());
+
+        final CompilationResult result = createJavaCompiler().compile(
+                new String[] {
+                        "jci2/Simple.java",
+                        "jci2/Other.java"
+                }, reader, new MemoryResourceStore());
+
+        assertEquals(toString(result.getErrors()), 0, result.getErrors().length);
+        assertEquals(2, result.getOutputs().size());
+        assertEquals(Arrays.asList("jci2/Simple.class", "jci2/Simple$Sub.class"), result.getOutputs().get("jci2/Simple.java"));
+        assertEquals(Arrays.asList("jci2/Other.class"), result.getOutputs().get("jci2/Other.java"));
+    }
+
+    public void testCachedDependencies() throws Exception {
+        final File cacheDirectory = Files.createTempDirectory("jci").toFile();
+        try {
+            final CachingJavaCompiler compiler = new CachingJavaCompiler(createJavaCompiler(), new CompilationCache(cacheDirectory));
+            final MemoryResourceReader reader = new MemoryResourceReader();
+            reader.add("jci2/Const.java", (
+                    "package jci2;\n" +
+                    "public class Const {\n" +
+                    "  public static final int VALUE = 1;\n" +
+                    "}").getBytes());
+            reader.add("jci2/Base.java", (
+                    "package jci2;\n" +
+                    "public class Base {\n" +
+                    "  public int value() {\n" +
+                    "    return 1;\n" +
+                    "  }\n" +
+                    "}").getBytes());
+            reader.add("jci2/Sub.java", (
+                    "package jci2;\n" +
+                    "public class Sub extends Base {\n" +
+                    "}").getBytes());
+            reader.add("jci2/User.java", (
+                    "package jci2;\n" +
+                    "public class User {\n" +
+                    "  public long get( final Sub sub ) {\n" +
+                    "    return Const.VALUE + sub.value();\n" +
+                    "  }\n" +
+                    "}").getBytes());
+
+            final MemoryResourceStore store = new MemoryResourceStore();
+            compile(compiler, reader, store, "jci2/Const.java", "jci2/Base.java", "jci2/Sub.java");
+            compile(compiler, reader, store, "jci2/User.java");
+            compile(compiler, reader, store, "jci2/User.java");
+            assertEquals(1, compiler.getCache().getHits());
+
+            // the constant gets inlined, User.class does not refer to Const
+            reader.add("jci2/Const.java", (
+                    "package jci2;\n" +
+                    "public class Const {\n" +
+                    "  public static final int VALUE = 2;\n" +
+                    "}").getBytes());
+            compile(compiler, reader, store, "jci2/Const.java");
+            byte[] previous = store.read("jci2/User.class");
+            compile(compiler, reader, store, "jci2/User.java");
+            assertFalse(Arrays.equals(previous, store.read("jci2/User.class")));
+
+            // the inherited method is called on Sub, User.class does not refer to Base
+            reader.add("jci2/Base.java", (
+                    "package jci2;\n" +
+                    "public class Base {\n" +
+                    "  public long value() {\n" +
+                    "    return 1;\n" +
+                    "  }\n" +
+                    "}").getBytes());
+            compile(compiler, reader, store, "jci2/Base.java");
+            previous = store.read("jci2/User.class");
+            compile(compiler, reader, store, "jci2/User.java");
+            assertFalse(Arrays.equals(previous, store.read("jci2/User.class")));
+        } finally {
+            FileUtils.deleteDirectory(cacheDirectory);
+        }
+    }
+
+    private void compile( final JavaCompiler pCompiler, final MemoryResourceReader pReader, final MemoryResourceStore pStore, final String... pSources ) {
+        final CompilationResult result = pCompiler.compile(pSources, pReader, pStore);
+        assertEquals(toString(result.getErrors()), 0, result.getErrors().length);
+    }
 }
@@ -19,7 +19,9 @@ package org.apache.commons.jci2.compiler.groovy;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.jci2.core.compiler.AbstractJavaCompiler;
 import org.apache.commons.jci2.core.compiler.CompilationResult;
@@ -91,10 +93,12 @@ public final class GroovyJavaCompiler extends AbstractJavaCompiler {
 
             @SuppressWarnings("unchecked") // Groovy library is not yet generic
             final List<GroovyClass> classes = unit.getClasses();
+            final Map<String, byte[]> output = new LinkedHashMap<>();
             for (final GroovyClass clazz : classes) {
                 final byte[] bytes = clazz.getBytes();
-                pStore.write(ConversionUtils.convertClassToResourcePath(clazz.getName()), bytes);
+                output.put(ConversionUtils.convertClassToResourcePath(clazz.getName()), bytes);
             }
+            pStore.writeAll(output);
         } catch (final MultipleCompilationErrorsException e) {
             final ErrorCollector col = e.getErrorCollector();
             @SuppressWarnings("unchecked") // Groovy library is not yet generic
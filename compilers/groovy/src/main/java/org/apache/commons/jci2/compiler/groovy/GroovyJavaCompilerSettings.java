@@ -17,8 +17,16 @@
 
 package org.apache.commons.jci2.compiler.groovy;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
 import org.apache.commons.jci2.core.compiler.JavaCompilerSettings;
 import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.ParserPluginFactory;
 
 /**
  * Native configuration for the Groovy compiler
@@ -37,4 +45,50 @@ public final class GroovyJavaCompilerSettings extends JavaCompilerSettings {
         return settings;
     }
 
+    /**
+     * Compilation customizers and bytecode post processors are code,
+     * configurations using them cannot be fingerprinted.
+     */
+    @Override
+    public String getFingerprint() {
+        if (!settings.getCompilationCustomizers().isEmpty() || settings.getBytecodePostprocessor() != null) {
+            return null;
+        }
+        final Map<String, String> jointCompilationOptions = new TreeMap<>();
+        if (settings.getJointCompilationOptions() != null) {
+            for (final Map.Entry<String, Object> option : settings.getJointCompilationOptions().entrySet()) {
+                final Object value = option.getValue();
+                if (value instanceof String[]) {
+                    jointCompilationOptions.put(option.getKey(), Arrays.toString((String[]) value));
+                } else if (value == null || value instanceof String || value instanceof Boolean || value instanceof Number || value instanceof File) {
+                    jointCompilationOptions.put(option.getKey(), String.valueOf(value));
+                } else {
+                    return null;
+                }
+            }
+        }
+        final ParserPluginFactory pluginFactory = settings.getPluginFactory();
+        return super.getFingerprint()
+            + "\ngroovy.targetBytecode=" + settings.getTargetBytecode()
+            + "\ngroovy.sourceEncoding=" + settings.getSourceEncoding()
+            + "\ngroovy.targetDirectory=" + settings.getTargetDirectory()
+            + "\ngroovy.classpath=" + settings.getClasspath()
+            + "\ngroovy.debug=" + settings.getDebug()
+            + "\ngroovy.parameters=" + settings.getParameters()
+            + "\ngroovy.warningLevel=" + settings.getWarningLevel()
+            + "\ngroovy.tolerance=" + settings.getTolerance()
+            + "\ngroovy.scriptBaseClass=" + settings.getScriptBaseClass()
+            + "\ngroovy.defaultScriptExtension=" + settings.getDefaultScriptExtension()
+            + "\ngroovy.scriptExtensions=" + sorted(settings.getScriptExtensions())
+            + "\ngroovy.previewFeatures=" + settings.isPreviewFeatures()
+            + "\ngroovy.pluginFactory=" + (pluginFactory != null ? pluginFactory.getClass().getName() : null)
+            + "\ngroovy.optimizationOptions=" + (settings.getOptimizationOptions() != null ? new TreeMap<>(settings.getOptimizationOptions()) : null)
+            + "\ngroovy.disabledGlobalASTTransformations=" + sorted(settings.getDisabledGlobalASTTransformations())
+            + "\ngroovy.jointCompilationOptions=" + jointCompilationOptions;
+    }
+
+    private static Set<String> sorted( final Set<String> pValues ) {
+        return pValues != null ? new TreeSet<>(pValues) : null;
+    }
+
 }
@@ -46,4 +46,9 @@ public final class GroovyJavaCompilerTestCase extends AbstractCompilerTestCase {
 		// FIXME: static imports not supported in groovy?
 	}
 
+    @Override
+    public void testCachedCompileDependencyThrows() throws Exception {
+        // NA: groovy has no checked exceptions
+    }
+
 }
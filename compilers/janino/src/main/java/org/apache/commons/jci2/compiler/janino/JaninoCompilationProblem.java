@@ -38,7 +38,7 @@ public final class JaninoCompilationProblem implements CompilationProblem {
     }
 
     public JaninoCompilationProblem(final Location pLocation, final String message, final boolean error) {
-      this(pLocation.getFileName(), pLocation, message, error);
+      this(pLocation != null ? pLocation.getFileName() : null, pLocation, message, error);
     }
 
     public JaninoCompilationProblem(final String fileName, final String message, final boolean error) {
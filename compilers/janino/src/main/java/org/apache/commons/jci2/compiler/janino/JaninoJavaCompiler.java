@@ -19,6 +19,7 @@ package org.apache.commons.jci2.compiler.janino;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -59,14 +60,18 @@ public final class JaninoJavaCompiler extends AbstractJavaCompiler {
     	defaultSettings = pSettings;
     }
 
+    private interface JciSource {
+    	InputStream open( final String pName ) throws IOException;
+    }
+
     private final static class JciResource implements Resource {
 
     	private final String name;
-    	private final byte[] bytes;
+    	private final JciSource source;
 
-    	public JciResource( final String pName, final byte[] pBytes ) {
+    	public JciResource( final String pName, final JciSource pSource ) {
     		name = pName;
-    		bytes = pBytes;
+    		source = pSource;
     	}
 
 		@Override
@@ -81,7 +86,12 @@ public final class JaninoJavaCompiler extends AbstractJavaCompiler {
 
 		@Override
         public InputStream open() throws IOException {
-			return new ByteArrayInputStream(bytes);
+			// streamed on demand instead of holding all the bytes
+			final InputStream is = source.open(name);
+			if (is == null) {
+				throw new FileNotFoundException(name);
+			}
+			return is;
 		}
     }
 
@@ -99,9 +109,7 @@ public final class JaninoJavaCompiler extends AbstractJavaCompiler {
         public void close() throws IOException {
 			super.close();
 
-			final byte[] bytes = toByteArray();
-
-			store.write(name, bytes);
+			store.write(name, new ByteArrayInputStream(buf, 0, count));
 		}
     }
 
@@ -116,32 +124,32 @@ public final class JaninoJavaCompiler extends AbstractJavaCompiler {
     			new ResourceFinder() {
 					@Override
                     public Resource findResource( final String pSourceName ) {
-						final byte[] bytes = pResourceReader.getBytes(pSourceName);
+						final long size = pResourceReader.size(pSourceName);
 
-						if (bytes == null) {
+						if (size < 0) {
 							log.debug("failed to find source " + pSourceName);
 							return null;
 						}
 
-						log.debug("reading " + pSourceName + " (" + bytes.length + ")");
+						log.debug("reading " + pSourceName + " (" + size + ")");
 
-						return new JciResource(pSourceName, bytes);
+						return new JciResource(pSourceName, pResourceReader::openStream);
 					}
     			},
     			new ClassLoaderIClassLoader(pClassLoader),
     			new ResourceFinder() {
 					@Override
                     public Resource findResource( final String pResourceName ) {
-						final byte[] bytes = pStore.read(pResourceName);
+						final long size = pStore.size(pResourceName);
 
-						if (bytes == null) {
+						if (size < 0) {
 							log.debug("failed to find " + pResourceName);
 							return null;
 						}
 
-						log.debug("reading " + pResourceName + " (" + bytes.length + ")");
+						log.debug("reading " + pResourceName + " (" + size + ")");
 
-						return new JciResource(pResourceName, bytes);
+						return new JciResource(pResourceName, pStore::openStream);
 					}
     			},
     			new ResourceCreator() {
@@ -183,8 +191,7 @@ public final class JaninoJavaCompiler extends AbstractJavaCompiler {
     	final Resource[] resources = new Resource[pSourceNames.length];
         for (int i = 0; i < pSourceNames.length; i++) {
             log.debug("compiling " + pSourceNames[i]);
-            final byte[] source = pResourceReader.getBytes(pSourceNames[i]);
-            resources[i] = new JciResource(pSourceNames[i], source);
+            resources[i] = new JciResource(pSourceNames[i], pResourceReader::openStream);
         }
 
         try {
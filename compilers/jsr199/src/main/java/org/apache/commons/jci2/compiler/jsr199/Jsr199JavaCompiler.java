@@ -16,6 +16,7 @@
  */
 package org.apache.commons.jci2.compiler.jsr199;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -97,7 +98,11 @@ public final class Jsr199JavaCompiler extends AbstractJavaCompiler {
         @Override
         public InputStream openInputStream() throws IOException {
             log.debug("openInputStream");
-            return super.openInputStream();
+            final InputStream is = reader.openStream(name);
+            if (is == null) {
+                throw new FileNotFoundException(name);
+            }
+            return is;
         }
 
         @Override
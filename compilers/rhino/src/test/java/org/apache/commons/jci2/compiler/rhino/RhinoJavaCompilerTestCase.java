@@ -140,4 +140,14 @@ public final class RhinoJavaCompilerTestCase extends AbstractCompilerTestCase {
         // NA
     }
 
+    @Override
+    public void testCachedCompile() throws Exception {
+        // NA
+    }
+
+    @Override
+    public void testCachedCompileDependencyThrows() throws Exception {
+        // NA
+    }
+
 }
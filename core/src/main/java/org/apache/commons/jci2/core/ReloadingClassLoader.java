@@ -46,7 +46,7 @@ public class ReloadingClassLoader extends ClassLoader implements ReloadNotificat
         super(pParent);
         parent = pParent;
 
-        delegate = new ResourceStoreClassLoader(parent, stores);
+        delegate = createDelegate();
     }
 
     public boolean addResourceStore( final ResourceStore pStore ) {
@@ -56,7 +56,7 @@ public class ReloadingClassLoader extends ClassLoader implements ReloadNotificat
             System.arraycopy(stores, 0, newStores, 1, n);
             newStores[0] = pStore;
             stores = newStores;
-            delegate = new ResourceStoreClassLoader(parent, stores);
+            delegate = createDelegate();
             return true;
         } catch ( final RuntimeException e ) {
             log.error("could not add resource store " + pStore);
@@ -90,14 +90,40 @@ public class ReloadingClassLoader extends ClassLoader implements ReloadNotificat
         }
 
         stores = newStores;
-        delegate = new ResourceStoreClassLoader(parent, stores);
+        delegate = createDelegate();
         return true;
     }
 
+    /**
+     * Every generation reads from its own snapshots of the stores, so
+     * classes resolved later on still see the bytes of their generation.
+     */
+    private ClassLoader createDelegate() {
+        final ResourceStore[] snapshots = new ResourceStore[stores.length];
+        for (int i = 0; i < stores.length; i++) {
+            snapshots[i] = stores[i].snapshot();
+        }
+        return new ResourceStoreClassLoader(parent, snapshots);
+    }
+
+    /**
+     * @param pPackageName e.g. "org.my"
+     * @return whether one of the stores has resources in the package
+     */
+    public boolean isPackage( final String pPackageName ) {
+        final String packagePath = pPackageName.replace('.', '/');
+        for (final ResourceStore store : stores) {
+            if (store.isPackage(packagePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void handleNotification() {
         log.debug("reloading");
-        delegate = new ResourceStoreClassLoader(parent, stores);
+        delegate = createDelegate();
     }
 
     @Override
@@ -0,0 +1,468 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.jci2.core.problems.CompilationProblem;
+import org.apache.commons.jci2.core.problems.CompilationProblemHandler;
+import org.apache.commons.jci2.core.readers.ResourceReader;
+import org.apache.commons.jci2.core.stores.RecordingResourceStore;
+import org.apache.commons.jci2.core.stores.ResourceStore;
+import org.apache.commons.jci2.core.utils.ConversionUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A JavaCompiler that remembers the output of another compiler in a
+ * CompilationCache. Each source gets a key made of the hash of its
+ * content, the compiler, the JVM and the fingerprint of the compiler
+ * settings (see {@link JavaCompilerSettings#getFingerprint()}). Settings
+ * without a fingerprint are compiled without the cache. If all the
+ * sources of a compilation are found in the cache and all the classes
+ * they were compiled against still have the same ABI the cached class
+ * files are written to the store and the compiler is not called at all.
+ * Otherwise the whole batch is compiled and the output of an error free
+ * compilation is added to the cache.
+ *
+ * The classes a source was compiled against are the ones its class files
+ * refer to plus all types the compiler looked up in the reader, the store
+ * or the classloader. The latter catch inlined constants, which leave no
+ * reference behind. The ABI of a class includes the ABI of its super
+ * types, so a change to an inherited member invalidates the users of the
+ * sub classes as well.
+ *
+ * The output is attributed to the sources as reported by the compiler
+ * (see {@link CompilationResult#getOutputs()}) or otherwise by name,
+ * "org/my/Class.java" produces "org/my/Class.class" and
+ * "org/my/Class$Inner.class". If any output cannot be attributed the
+ * compilation is not cached.
+ *
+ * @author tcurdt
+ */
+public final class CachingJavaCompiler extends AbstractJavaCompiler {
+
+    private static final String VERSION = "3";
+
+    private final Log log = LogFactory.getLog(CachingJavaCompiler.class);
+
+    private final JavaCompiler compiler;
+    private final CompilationCache cache;
+
+    public CachingJavaCompiler( final JavaCompiler pCompiler, final CompilationCache pCache ) {
+        compiler = pCompiler;
+        cache = pCache;
+    }
+
+    public JavaCompiler getCompiler() {
+        return compiler;
+    }
+
+    public CompilationCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void setCompilationProblemHandler( final CompilationProblemHandler pHandler ) {
+        super.setCompilationProblemHandler(pHandler);
+        compiler.setCompilationProblemHandler(pHandler);
+    }
+
+    @Override
+    public JavaCompilerSettings createDefaultSettings() {
+        return compiler.createDefaultSettings();
+    }
+
+    @Override
+    public CompilationResult compile( final String[] pResourcePaths, final ResourceReader pReader, final ResourceStore pStore, final ClassLoader pClassLoader, final JavaCompilerSettings pSettings ) {
+
+        final String fingerprint = getFingerprint(pSettings);
+        if (fingerprint == null) {
+            log.warn("settings " + pSettings.getClass().getName() + " cannot be fingerprinted, compiling without the cache");
+            return compiler.compile(pResourcePaths, pReader, pStore, pClassLoader, pSettings);
+        }
+
+        final String[] keys = new String[pResourcePaths.length];
+        final CompilationCache.Entry[] entries = new CompilationCache.Entry[pResourcePaths.length];
+        boolean hit = true;
+        for (int i = 0; i < pResourcePaths.length; i++) {
+            final byte[] source = pReader.getBytes(pResourcePaths[i]);
+            if (source == null) {
+                hit = false;
+                continue;
+            }
+            keys[i] = getKey(fingerprint, pResourcePaths[i], source);
+            if (hit) {
+                entries[i] = cache.get(keys[i]);
+                hit = entries[i] != null;
+            }
+        }
+
+        if (hit) {
+            final Map<String, byte[]> outputs = new LinkedHashMap<>();
+            final Map<String, Collection<String>> outputsBySource = new LinkedHashMap<>();
+            for (int i = 0; i < entries.length; i++) {
+                outputs.putAll(entries[i].getOutputs());
+                outputsBySource.put(pResourcePaths[i], new ArrayList<>(entries[i].getOutputs().keySet()));
+            }
+
+            final Map<String, byte[]> abis = new HashMap<>();
+            for (final CompilationCache.Entry entry : entries) {
+                for (final Map.Entry<String, byte[]> dependency : entry.getDependencies().entrySet()) {
+                    if (!Arrays.equals(dependency.getValue(), getAbiHash(dependency.getKey(), outputs, pStore, pClassLoader, abis))) {
+                        log.debug("ABI of " + dependency.getKey() + " changed");
+                        hit = false;
+                    }
+                }
+            }
+
+            if (hit) {
+                log.debug("using cached output for " + pResourcePaths.length + " sources");
+
+                pStore.writeAll(outputs);
+
+                final List<CompilationProblem> warnings = new ArrayList<>();
+                for (final CompilationCache.Entry entry : entries) {
+                    for (final CompilationProblem warning : entry.getWarnings()) {
+                        if (problemHandler != null) {
+                            problemHandler.handle(warning);
+                        }
+                        warnings.add(warning);
+                    }
+                }
+                return new CompilationResult(warnings.toArray(new CompilationProblem[warnings.size()]), outputsBySource);
+            }
+        }
+
+        final RecordingResourceReader reader = new RecordingResourceReader(pReader);
+        final RecordingResourceStore store = new RecordingResourceStore(pStore);
+        final RecordingClassLoader classLoader = pClassLoader != null ? new RecordingClassLoader(pClassLoader) : null;
+        final CompilationResult result = compiler.compile(pResourcePaths, reader, store, classLoader, pSettings);
+
+        if (result.getErrors().length == 0) {
+            final Set<String> resolved = new TreeSet<>();
+            for (final String resourceName : reader.getRequested()) {
+                resolved.add(ConversionUtils.stripExtension(resourceName));
+            }
+            addClasses(resolved, store.getRequested());
+            if (classLoader != null) {
+                addClasses(resolved, classLoader.getRequested());
+            }
+            put(pResourcePaths, keys, store.getWritten(), resolved, result, pStore, pClassLoader);
+        }
+
+        return result;
+    }
+
+    private static void addClasses( final Set<String> pClazzNames, final Collection<String> pResourceNames ) {
+        for (final String resourceName : pResourceNames) {
+            if (resourceName.endsWith(".class")) {
+                pClazzNames.add(ConversionUtils.stripExtension(resourceName));
+            }
+        }
+    }
+
+    private void put( final String[] pResourcePaths, final String[] pKeys, final Map<String, byte[]> pOutputs, final Set<String> pResolved, final CompilationResult pResult, final ResourceStore pStore, final ClassLoader pClassLoader ) {
+        final Map<String, Integer> sources = new HashMap<>();
+        for (int i = 0; i < pResourcePaths.length; i++) {
+            if (pKeys[i] == null) {
+                return;
+            }
+            sources.put(ConversionUtils.stripExtension(pResourcePaths[i]), i);
+        }
+
+        final List<Map<String, byte[]>> outputs = new ArrayList<>();
+        for (int i = 0; i < pResourcePaths.length; i++) {
+            outputs.add(new LinkedHashMap<>());
+        }
+
+        final Map<String, Integer> reported = new HashMap<>();
+        for (final Map.Entry<String, Collection<String>> source : pResult.getOutputs().entrySet()) {
+            for (final String output : source.getValue()) {
+                reported.put(output, sources.get(ConversionUtils.stripExtension(source.getKey())));
+            }
+        }
+
+        for (final Map.Entry<String, byte[]> output : pOutputs.entrySet()) {
+            final Integer source = reported.containsKey(output.getKey()) ? reported.get(output.getKey()) : sources.get(ConversionUtils.getOuterName(output.getKey()));
+            if (source == null || output.getValue() == null) {
+                log.debug("not caching, cannot attribute " + output.getKey() + " to a source");
+                return;
+            }
+            outputs.get(source).put(output.getKey(), output.getValue());
+        }
+
+        final Map<String, byte[]> abis = new HashMap<>();
+        for (int i = 0; i < pResourcePaths.length; i++) {
+            // the lookups of a batch cannot be told apart, every source gets all of them
+            final Set<String> references = new TreeSet<>(pResolved);
+            for (final byte[] clazz : outputs.get(i).values()) {
+                try {
+                    references.addAll(ClassAbi.getReferencedClasses(clazz));
+                } catch (final IOException e) {
+                    log.debug("not caching, cannot read class file of " + pResourcePaths[i], e);
+                    return;
+                }
+            }
+
+            final Map<String, byte[]> dependencies = new TreeMap<>();
+            for (final String reference : references) {
+                if (!reference.startsWith("java/") && !outputs.get(i).containsKey(reference + ".class")) {
+                    dependencies.put(reference, getAbiHash(reference, pOutputs, pStore, pClassLoader, abis));
+                }
+            }
+
+            final List<CompilationProblem> warnings = new ArrayList<>();
+            for (final CompilationProblem warning : pResult.getWarnings()) {
+                if (pResourcePaths[i].equals(warning.getFileName())) {
+                    warnings.add(warning);
+                }
+            }
+
+            cache.put(pKeys[i], new CompilationCache.Entry(outputs.get(i), dependencies, warnings.toArray(new CompilationProblem[warnings.size()])));
+        }
+    }
+
+    /**
+     * Looks up the class among the outputs, in the store and in the
+     * classloader, in that order.
+     *
+     * @return the ABI hash of the class and its super types or null if
+     *   it cannot be found
+     */
+    private static byte[] getAbiHash( final String pClazzName, final Map<String, byte[]> pOutputs, final ResourceStore pStore, final ClassLoader pClassLoader, final Map<String, byte[]> pAbis ) {
+        if (pAbis.containsKey(pClazzName)) {
+            return pAbis.get(pClazzName);
+        }
+
+        final String resourceName = pClazzName + ".class";
+        byte[] clazz = pOutputs.get(resourceName);
+        if (clazz == null) {
+            clazz = pStore.read(resourceName);
+        }
+        if (clazz == null && pClassLoader != null) {
+            try (InputStream is = pClassLoader.getResourceAsStream(resourceName)) {
+                if (is != null) {
+                    clazz = IOUtils.toByteArray(is);
+                }
+            } catch (final IOException e) {
+                clazz = null;
+            }
+        }
+
+        byte[] abi = null;
+        if (clazz != null) {
+            // guards against cyclic hierarchies
+            pAbis.put(pClazzName, null);
+            try {
+                abi = ClassAbi.getAbiHash(clazz);
+                final ByteArrayOutputStream hierarchy = new ByteArrayOutputStream();
+                for (final String supertype : ClassAbi.getSupertypes(clazz)) {
+                    if (supertype.startsWith("java/")) {
+                        continue;
+                    }
+                    final byte[] name = (supertype + '\n').getBytes(StandardCharsets.UTF_8);
+                    hierarchy.write(name, 0, name.length);
+                    final byte[] supertypeAbi = getAbiHash(supertype, pOutputs, pStore, pClassLoader, pAbis);
+                    if (supertypeAbi != null) {
+                        hierarchy.write(supertypeAbi, 0, supertypeAbi.length);
+                    }
+                }
+                if (hierarchy.size() > 0) {
+                    hierarchy.write(abi, 0, abi.length);
+                    abi = sha256(hierarchy.toByteArray());
+                }
+            } catch (final IOException e) {
+                // unknown format, fall back to the exact bytes
+                abi = sha256(clazz);
+            }
+        }
+
+        pAbis.put(pClazzName, abi);
+        return abi;
+    }
+
+    /**
+     * Passes everything on to the reader and remembers the names of
+     * the resources looked up.
+     */
+    private static final class RecordingResourceReader implements ResourceReader {
+
+        private final ResourceReader reader;
+        private final Set<String> requested = new LinkedHashSet<>();
+
+        private RecordingResourceReader( final ResourceReader pReader ) {
+            reader = pReader;
+        }
+
+        @Override
+        public boolean isAvailable( final String pResourceName ) {
+            request(pResourceName);
+            return reader.isAvailable(pResourceName);
+        }
+
+        @Override
+        public byte[] getBytes( final String pResourceName ) {
+            request(pResourceName);
+            return reader.getBytes(pResourceName);
+        }
+
+        @Override
+        public boolean exists( final String pResourceName ) {
+            request(pResourceName);
+            return reader.exists(pResourceName);
+        }
+
+        @Override
+        public boolean isPackage( final String pPackageName ) {
+            return reader.isPackage(pPackageName);
+        }
+
+        @Override
+        public Collection<String> listPackage( final String pPackageName ) {
+            return reader.listPackage(pPackageName);
+        }
+
+        @Override
+        public ByteBuffer getBuffer( final String pResourceName ) {
+            request(pResourceName);
+            return reader.getBuffer(pResourceName);
+        }
+
+        @Override
+        public InputStream openStream( final String pResourceName ) throws IOException {
+            request(pResourceName);
+            return reader.openStream(pResourceName);
+        }
+
+        @Override
+        public ReadableByteChannel openChannel( final String pResourceName ) throws IOException {
+            request(pResourceName);
+            return reader.openChannel(pResourceName);
+        }
+
+        @Override
+        public long size( final String pResourceName ) {
+            request(pResourceName);
+            return reader.size(pResourceName);
+        }
+
+        private synchronized void request( final String pResourceName ) {
+            requested.add(pResourceName);
+        }
+
+        private synchronized Set<String> getRequested() {
+            return new LinkedHashSet<>(requested);
+        }
+    }
+
+    /**
+     * Delegates to the classloader and remembers the names of the
+     * classes and resources looked up.
+     */
+    private static final class RecordingClassLoader extends ClassLoader {
+
+        private final Set<String> requested = new LinkedHashSet<>();
+
+        private RecordingClassLoader( final ClassLoader pParent ) {
+            super(pParent);
+        }
+
+        @Override
+        protected Class<?> loadClass( final String pName, final boolean pResolve ) throws ClassNotFoundException {
+            request(ConversionUtils.convertClassToResourcePath(pName));
+            return super.loadClass(pName, pResolve);
+        }
+
+        @Override
+        public URL getResource( final String pName ) {
+            request(pName);
+            return super.getResource(pName);
+        }
+
+        private synchronized void request( final String pResourceName ) {
+            requested.add(pResourceName);
+        }
+
+        private synchronized Set<String> getRequested() {
+            return new LinkedHashSet<>(requested);
+        }
+    }
+
+    /**
+     * @return null if the settings cannot be fingerprinted
+     */
+    private String getFingerprint( final JavaCompilerSettings pSettings ) {
+        final StringBuilder sb = new StringBuilder(VERSION)
+            .append('\n').append(compiler.getClass().getName())
+            .append('\n').append(System.getProperty("java.vendor"))
+            .append('\n').append(System.getProperty("java.version"));
+
+        if (pSettings != null) {
+            final String fingerprint = pSettings.getFingerprint();
+            if (fingerprint == null) {
+                return null;
+            }
+            sb.append('\n').append(fingerprint);
+        }
+
+        return sb.toString();
+    }
+
+    private static String getKey( final String pFingerprint, final String pResourcePath, final byte[] pSource ) {
+        final byte[] header = (pFingerprint + '\n' + pResourcePath + '\n').getBytes(StandardCharsets.UTF_8);
+        final byte[] data = new byte[header.length + pSource.length];
+        System.arraycopy(header, 0, data, 0, header.length);
+        System.arraycopy(pSource, 0, data, header.length, pSource.length);
+
+        final StringBuilder sb = new StringBuilder();
+        for (final byte b : sha256(data)) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] sha256( final byte[] pData ) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(pData);
+        } catch (final NoSuchAlgorithmException e) {
+            // every JRE has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Minimal class file reader for the compilation cache. It extracts the
+ * classes a class file refers to and hashes the part of a class that
+ * dependent classes can see: its name, super class, interfaces, generic
+ * signature and the signatures of all non private members including
+ * constant values, generic signatures and declared exceptions.
+ * Changes to method bodies or private members do not change that hash.
+ * The hash does not cover the super types, their ABI has to be taken
+ * into account separately (see {@link #getSupertypes(byte[])}).
+ *
+ * NOT FOR USE OUTSIDE OF JCI
+ *
+ * @author tcurdt
+ */
+final class ClassAbi {
+
+    private static final int ACC_PRIVATE = 0x0002;
+
+    private final Object[] pool;
+    private final Set<String> references = new TreeSet<>();
+    private final List<String> members = new ArrayList<>();
+    private final List<String> supertypes = new ArrayList<>();
+
+    private ClassAbi( final byte[] pClazzBytes ) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(pClazzBytes));
+
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("not a class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+
+        pool = new Object[in.readUnsignedShort()];
+        final List<Integer> classes = new ArrayList<>();
+        final List<Integer> descriptors = new ArrayList<>();
+        for (int i = 1; i < pool.length; i++) {
+            final int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: pool[i] = in.readUTF(); break;
+                case 3: pool[i] = in.readInt(); break;
+                case 4: pool[i] = in.readFloat(); break;
+                case 5: pool[i++] = in.readLong(); break;
+                case 6: pool[i++] = in.readDouble(); break;
+                case 7: pool[i] = in.readUnsignedShort(); classes.add(i); break;
+                case 8: pool[i] = in.readUnsignedShort(); break;
+                case 16: descriptors.add(in.readUnsignedShort()); break;
+                case 12: in.readUnsignedShort(); descriptors.add(in.readUnsignedShort()); break;
+                case 9: case 10: case 11: case 17: case 18: in.readInt(); break;
+                case 15: in.readUnsignedByte(); in.readUnsignedShort(); break;
+                case 19: case 20: in.readUnsignedShort(); break;
+                default: throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+
+        for (final int clazz : classes) {
+            addReference(utf((Integer) pool[clazz]));
+        }
+        for (final int descriptor : descriptors) {
+            addDescriptor(utf(descriptor));
+        }
+
+        final int access = in.readUnsignedShort();
+        final String name = className(in.readUnsignedShort());
+        final String superName = className(in.readUnsignedShort());
+        members.add("class " + access + " " + name + " " + superName);
+        if (!superName.isEmpty()) {
+            supertypes.add(superName);
+        }
+        final int interfaces = in.readUnsignedShort();
+        for (int i = 0; i < interfaces; i++) {
+            final String interfaceName = className(in.readUnsignedShort());
+            members.add("implements " + interfaceName);
+            supertypes.add(interfaceName);
+        }
+
+        readMembers(in, "field ");
+        readMembers(in, "method ");
+
+        final int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            final String attribute = utf(in.readUnsignedShort());
+            final int length = in.readInt();
+            if ("Signature".equals(attribute)) {
+                members.add("signature " + utf(in.readUnsignedShort()));
+            } else {
+                in.skipBytes(length);
+            }
+        }
+
+        // the order of the members is not part of the ABI
+        Collections.sort(members);
+    }
+
+    private void readMembers( final DataInputStream pIn, final String pKind ) throws IOException {
+        final int count = pIn.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            final int access = pIn.readUnsignedShort();
+            final String name = utf(pIn.readUnsignedShort());
+            final String descriptor = utf(pIn.readUnsignedShort());
+            addDescriptor(descriptor);
+
+            final StringBuilder member = new StringBuilder(pKind).append(access).append(' ').append(name).append(' ').append(descriptor);
+            final int attributes = pIn.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                final String attribute = utf(pIn.readUnsignedShort());
+                final int length = pIn.readInt();
+                if ("ConstantValue".equals(attribute)) {
+                    // constants get inlined into the classes using them
+                    final Object value = pool[pIn.readUnsignedShort()];
+                    member.append(" = ").append("Ljava/lang/String;".equals(descriptor) ? utf((Integer) value) : value);
+                } else if ("Signature".equals(attribute)) {
+                    // generics are checked by the compiler of the users
+                    member.append(" signature ").append(utf(pIn.readUnsignedShort()));
+                } else if ("Exceptions".equals(attribute)) {
+                    // the users have to handle the checked exceptions
+                    final Set<String> exceptions = new TreeSet<>();
+                    final int exceptionCount = pIn.readUnsignedShort();
+                    for (int k = 0; k < exceptionCount; k++) {
+                        exceptions.add(className(pIn.readUnsignedShort()));
+                    }
+                    member.append(" throws ").append(exceptions);
+                } else {
+                    pIn.skipBytes(length);
+                }
+            }
+
+            if ((access & ACC_PRIVATE) == 0) {
+                members.add(member.toString());
+            }
+        }
+    }
+
+    private String utf( final int pIndex ) {
+        return (String) pool[pIndex];
+    }
+
+    private String className( final int pIndex ) {
+        return pIndex == 0 ? "" : utf((Integer) pool[pIndex]);
+    }
+
+    private void addReference( final String pName ) {
+        if (pName.startsWith("[")) {
+            addDescriptor(pName);
+        } else {
+            references.add(pName);
+        }
+    }
+
+    private void addDescriptor( final String pDescriptor ) {
+        int i = pDescriptor.indexOf('L');
+        while (i >= 0) {
+            final int end = pDescriptor.indexOf(';', i);
+            if (end < 0) {
+                return;
+            }
+            references.add(pDescriptor.substring(i + 1, end));
+            i = pDescriptor.indexOf('L', end);
+        }
+    }
+
+    /**
+     * @return the internal names ("org/my/Class") of all classes
+     *   the class file refers to
+     */
+    static Set<String> getReferencedClasses( final byte[] pClazzBytes ) throws IOException {
+        return new ClassAbi(pClazzBytes).references;
+    }
+
+    /**
+     * @return the internal names of the super class and the interfaces
+     */
+    static List<String> getSupertypes( final byte[] pClazzBytes ) throws IOException {
+        return new ClassAbi(pClazzBytes).supertypes;
+    }
+
+    /**
+     * @return the SHA-256 hash of the visible signature of the class
+     */
+    static byte[] getAbiHash( final byte[] pClazzBytes ) throws IOException {
+        final ClassAbi abi = new ClassAbi(pClazzBytes);
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (final String member : abi.members) {
+                digest.update(member.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            return digest.digest();
+        } catch (final NoSuchAlgorithmException e) {
+            // every JRE has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
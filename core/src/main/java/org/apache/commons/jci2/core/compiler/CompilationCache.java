@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.jci2.core.problems.CompilationProblem;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * On disk cache of compiler output used by the CachingJavaCompiler.
+ * Every entry holds the class files compiled from one source, the ABI
+ * hashes of the classes they were compiled against and the warnings
+ * the compiler reported for the source.
+ *
+ * Entries are stored one file per key below the cache directory and
+ * are replaced atomically, so the cache can be shared by restarts and
+ * survives crashes. The cache is best effort: entries that cannot be
+ * read are treated as misses and failing writes are only logged.
+ *
+ * @author tcurdt
+ */
+public final class CompilationCache {
+
+    private static final int MAGIC = 0x4A434931;
+
+    private final Log log = LogFactory.getLog(CompilationCache.class);
+
+    private final File directory;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The cached result of compiling one source.
+     */
+    public static final class Entry {
+
+        private final Map<String, byte[]> outputs;
+        private final Map<String, byte[]> dependencies;
+        private final CompilationProblem[] warnings;
+
+        /**
+         * @param pOutputs the class files by resource name
+         * @param pDependencies the ABI hashes by class name ("org/my/Class")
+         *   of the classes the outputs refer to, null for missing classes
+         * @param pWarnings the warnings reported for the source
+         */
+        public Entry( final Map<String, byte[]> pOutputs, final Map<String, byte[]> pDependencies, final CompilationProblem[] pWarnings ) {
+            outputs = pOutputs;
+            dependencies = pDependencies;
+            warnings = pWarnings;
+        }
+
+        public Map<String, byte[]> getOutputs() {
+            return outputs;
+        }
+
+        public Map<String, byte[]> getDependencies() {
+            return dependencies;
+        }
+
+        public CompilationProblem[] getWarnings() {
+            final CompilationProblem[] res = new CompilationProblem[warnings.length];
+            System.arraycopy(warnings, 0, res, 0, res.length);
+            return res;
+        }
+    }
+
+    private static final class CachedProblem implements CompilationProblem {
+
+        private final boolean error;
+        private final String fileName;
+        private final int startLine;
+        private final int startColumn;
+        private final int endLine;
+        private final int endColumn;
+        private final String message;
+
+        CachedProblem( final boolean pError, final String pFileName, final int pStartLine, final int pStartColumn, final int pEndLine, final int pEndColumn, final String pMessage ) {
+            error = pError;
+            fileName = pFileName;
+            startLine = pStartLine;
+            startColumn = pStartColumn;
+            endLine = pEndLine;
+            endColumn = pEndColumn;
+            message = pMessage;
+        }
+
+        @Override
+        public boolean isError() {
+            return error;
+        }
+
+        @Override
+        public String getFileName() {
+            return fileName;
+        }
+
+        @Override
+        public int getStartLine() {
+            return startLine;
+        }
+
+        @Override
+        public int getStartColumn() {
+            return startColumn;
+        }
+
+        @Override
+        public int getEndLine() {
+            return endLine;
+        }
+
+        @Override
+        public int getEndColumn() {
+            return endColumn;
+        }
+
+        @Override
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return fileName + " (" + startLine + ":" + startColumn + ") : " + message;
+        }
+    }
+
+    public CompilationCache( final File pDirectory ) {
+        directory = pDirectory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param pKey the hex encoded key
+     * @return the entry or null if there is no readable entry for the key
+     */
+    public Entry get( final String pKey ) {
+        final File file = getFile(pKey);
+        if (!file.isFile()) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a cache entry");
+            }
+
+            final Map<String, byte[]> outputs = readMap(in);
+            final Map<String, byte[]> dependencies = readMap(in);
+
+            final Collection<CompilationProblem> warnings = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                warnings.add(new CachedProblem(in.readBoolean(), in.readUTF(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readUTF()));
+            }
+
+            hits.incrementAndGet();
+            return new Entry(outputs, dependencies, warnings.toArray(new CompilationProblem[warnings.size()]));
+        } catch (final IOException e) {
+            log.warn("ignoring unreadable cache entry " + file, e);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the entry replacing any previous entry for the key.
+     */
+    public void put( final String pKey, final Entry pEntry ) {
+        final File file = getFile(pKey);
+        final File parent = file.getParentFile();
+
+        try {
+            if (!parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("could not create " + parent);
+            }
+
+            final File tmp = File.createTempFile("." + pKey + ".", ".tmp", parent);
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    out.writeInt(MAGIC);
+                    writeMap(out, pEntry.outputs);
+                    writeMap(out, pEntry.dependencies);
+                    out.writeInt(pEntry.warnings.length);
+                    for (final CompilationProblem warning : pEntry.warnings) {
+                        out.writeBoolean(warning.isError());
+                        out.writeUTF(String.valueOf(warning.getFileName()));
+                        out.writeInt(warning.getStartLine());
+                        out.writeInt(warning.getStartColumn());
+                        out.writeInt(warning.getEndLine());
+                        out.writeInt(warning.getEndColumn());
+                        out.writeUTF(String.valueOf(warning.getMessage()));
+                    }
+                }
+                try {
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (final AtomicMoveNotSupportedException e) {
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                tmp.delete();
+            }
+        } catch (final IOException e) {
+            log.warn("could not write cache entry " + file, e);
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() throws IOException {
+        if (directory.isDirectory()) {
+            FileUtils.cleanDirectory(directory);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private File getFile( final String pKey ) {
+        return new File(new File(directory, pKey.substring(0, 2)), pKey);
+    }
+
+    private static Map<String, byte[]> readMap( final DataInputStream pIn ) throws IOException {
+        final Map<String, byte[]> map = new LinkedHashMap<>();
+        for (int i = pIn.readInt(); i > 0; i--) {
+            final String name = pIn.readUTF();
+            final int length = pIn.readInt();
+            if (length < 0) {
+                map.put(name, null);
+            } else {
+                final byte[] data = new byte[length];
+                pIn.readFully(data);
+                map.put(name, data);
+            }
+        }
+        return map;
+    }
+
+    private static void writeMap( final DataOutputStream pOut, final Map<String, byte[]> pMap ) throws IOException {
+        pOut.writeInt(pMap.size());
+        for (final Map.Entry<String, byte[]> entry : pMap.entrySet()) {
+            pOut.writeUTF(entry.getKey());
+            if (entry.getValue() == null) {
+                pOut.writeInt(-1);
+            } else {
+                pOut.writeInt(entry.getValue().length);
+                pOut.write(entry.getValue());
+            }
+        }
+    }
+}
@@ -19,6 +19,9 @@ package org.apache.commons.jci2.core.compiler;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.commons.jci2.core.problems.CompilationProblem;
 
@@ -28,14 +31,22 @@ import org.apache.commons.jci2.core.problems.CompilationProblem;
  * (that can be ignored and do not affect the creation of the
  * class files)
  *
+ * Compilers that know which class files came from which source
+ * also report that mapping, see {@link #getOutputs()}.
+ *
  * @author tcurdt
  */
 public final class CompilationResult {
 
     private final CompilationProblem[] errors;
     private final CompilationProblem[] warnings;
+    private final Map<String, Collection<String>> outputs;
 
     public CompilationResult( final CompilationProblem[] pProblems ) {
+        this(pProblems, Collections.<String, Collection<String>>emptyMap());
+    }
+
+    public CompilationResult( final CompilationProblem[] pProblems, final Map<String, Collection<String>> pOutputs ) {
         final Collection<CompilationProblem> errorsColl = new ArrayList<>();
         final Collection<CompilationProblem> warningsColl = new ArrayList<>();
 
@@ -52,6 +63,12 @@ public final class CompilationResult {
 
         warnings = new CompilationProblem[warningsColl.size()];
         warningsColl.toArray(warnings);
+
+        final Map<String, Collection<String>> outputsMap = new LinkedHashMap<>();
+        for (final Map.Entry<String, Collection<String>> entry : pOutputs.entrySet()) {
+            outputsMap.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+        outputs = Collections.unmodifiableMap(outputsMap);
     }
 
     public CompilationProblem[] getErrors() {
@@ -65,4 +82,14 @@ public final class CompilationResult {
     	System.arraycopy(warnings, 0, res, 0, res.length);
         return res;
     }
+
+    /**
+     * The resource names of the class files by the source they were
+     * compiled from ("org/my/Class.java" -&gt; "org/my/Class.class",
+     * "org/my/Class$Inner.class"). Empty if the compiler does not
+     * report them.
+     */
+    public Map<String, Collection<String>> getOutputs() {
+        return outputs;
+    }
 }
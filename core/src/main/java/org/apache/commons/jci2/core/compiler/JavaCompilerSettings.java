@@ -113,4 +113,21 @@ public class JavaCompilerSettings {
         return verbose;
     }
 
+    /**
+     * Describes the settings that influence the compiler output, e.g. to
+     * key cached output. It must not change between runs of the JVM.
+     * Subclasses with settings of their own have to add them.
+     *
+     * @return the fingerprint or null if the settings cannot be described
+     */
+    public String getFingerprint() {
+        return getClass().getName()
+            + "\ntargetVersion=" + targetVersion
+            + "\nsourceVersion=" + sourceVersion
+            + "\nsourceEncoding=" + sourceEncoding
+            + "\nwarnings=" + warnings
+            + "\ndeprecations=" + deprecations
+            + "\ndebug=" + debug;
+    }
+
 }
@@ -17,9 +17,16 @@
 
 package org.apache.commons.jci2.core.listeners;
 
+import java.io.Closeable;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.jci2.core.compiler.CompilationResult;
 import org.apache.commons.jci2.core.compiler.JavaCompiler;
@@ -28,9 +35,12 @@ import org.apache.commons.jci2.core.problems.CompilationProblem;
 import org.apache.commons.jci2.core.readers.FileResourceReader;
 import org.apache.commons.jci2.core.readers.ResourceReader;
 import org.apache.commons.jci2.core.stores.MemoryResourceStore;
+import org.apache.commons.jci2.core.stores.RecordingResourceStore;
 import org.apache.commons.jci2.core.stores.ResourceStore;
 import org.apache.commons.jci2.core.stores.TransactionalResourceStore;
+import org.apache.commons.jci2.core.stores.WriteBehindResourceStore;
 import org.apache.commons.jci2.core.utils.ConversionUtils;
+import org.apache.commons.jci2.core.utils.ResourceIndex;
 import org.apache.commons.jci2.fam.monitor.FilesystemAlterationObserver;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -39,16 +49,30 @@ import org.apache.commons.logging.LogFactory;
  * A CompilingListener is an improved version of the ReloadingListener.
  * It even compiles the classes from source before doing the reloading.
  *
+ * The listener remembers which classes each source produced. When a
+ * source gets deleted or recompiled its previous classes that are no
+ * longer produced are removed from the store in one batch. The output
+ * is taken from {@link CompilationResult#getOutputs()} if the compiler
+ * reports it and otherwise attributed by name ("org/my/Class.java"
+ * produces "org/my/Class.class" and "org/my/Class$Inner.class").
+ *
+ * With a slow (e.g. file based) store the compiled classes can be handed
+ * to it in the background by a {@link WriteBehindResourceStore}. The
+ * classes are visible right away, {@link #close()} writes the remaining
+ * ones to the store.
+ *
  * @author tcurdt
  */
-public class CompilingListener extends ReloadingListener {
+public class CompilingListener extends ReloadingListener implements Closeable {
 
     private final Log log = LogFactory.getLog(CompilingListener.class);
 
     private final JavaCompiler compiler;
     private final TransactionalResourceStore transactionalStore;
+    private final WriteBehindResourceStore writeBehindStore;
     private ResourceReader reader;
     private CompilationResult lastResult;
+    private final Map<String, Collection<String>> outputs = new ConcurrentHashMap<>();
 
     public CompilingListener() {
         this(new JavaCompilerFactory().createCompiler("eclipse"));
@@ -59,9 +83,26 @@ public class CompilingListener extends ReloadingListener {
     }
 
     public CompilingListener( final JavaCompiler pCompiler, final TransactionalResourceStore pTransactionalStore ) {
+        this(pCompiler, pTransactionalStore, null);
+    }
+
+    /**
+     * @param pStore the store for the compiled classes
+     * @param pWriteBehind whether the classes are written to the store in the background
+     */
+    public CompilingListener( final JavaCompiler pCompiler, final ResourceStore pStore, final boolean pWriteBehind ) {
+        this(pCompiler, pWriteBehind ? new WriteBehindResourceStore(pStore) : null, pStore);
+    }
+
+    private CompilingListener( final JavaCompiler pCompiler, final WriteBehindResourceStore pWriteBehindStore, final ResourceStore pStore ) {
+        this(pCompiler, new TransactionalResourceStore(pWriteBehindStore != null ? pWriteBehindStore : pStore), pWriteBehindStore);
+    }
+
+    private CompilingListener( final JavaCompiler pCompiler, final TransactionalResourceStore pTransactionalStore, final WriteBehindResourceStore pWriteBehindStore ) {
         super(pTransactionalStore);
         compiler = pCompiler;
         transactionalStore = pTransactionalStore;
+        writeBehindStore = pWriteBehindStore;
         lastResult = null;
     }
 
@@ -90,6 +131,17 @@ public class CompilingListener extends ReloadingListener {
         return lastResult;
     }
 
+    /**
+     * Writes the classes still pending to the store and stops the
+     * background writer. Does nothing without write behind.
+     */
+    @Override
+    public void close() {
+        if (writeBehindStore != null) {
+            writeBehindStore.close();
+        }
+    }
+
     @Override
     public void onStart( final FilesystemAlterationObserver pObserver ) {
         super.onStart(pObserver);
@@ -132,21 +184,21 @@ public class CompilingListener extends ReloadingListener {
 
         log.debug("created:" + created.size() + " changed:" + changed.size() + " deleted:" + deleted.size() + " resources");
 
+        final Collection<String> removed = new ArrayList<>();
+
         if (deleted.size() > 0) {
             for (final File deletedFile : deleted) {
                 final String resourceName = ConversionUtils.getResourceNameFromFileName(ConversionUtils.relative(pObserver.getRootDirectory(), deletedFile));
 
                 if (resourceName.endsWith(getSourceFileExtension())) {
-                    // if source resource got removed delete the corresponding class
-                    transactionalStore.remove(ConversionUtils.stripExtension(resourceName) + ".class");
+                    // if source resource got removed delete all the classes compiled from it
+                    removed.addAll(removeOutputs(resourceName));
                 } else {
                     // ordinary resource to be removed
-                    transactionalStore.remove(resourceName);
+                    removed.add(resourceName);
                 }
-
-                // FIXME: does not remove nested classes
-
             }
+            transactionalStore.removeAll(removed);
             reload = true;
         }
 
@@ -156,7 +208,8 @@ public class CompilingListener extends ReloadingListener {
 
             log.debug(resourcesToCompile.length + " classes to compile");
 
-            final CompilationResult result = compiler.compile(resourcesToCompile, reader, transactionalStore);
+            final RecordingResourceStore store = new RecordingResourceStore(transactionalStore);
+            final CompilationResult result = compiler.compile(resourcesToCompile, reader, store);
 
             synchronized(this) {
                 lastResult = result;
@@ -170,8 +223,20 @@ public class CompilingListener extends ReloadingListener {
             if (errors.length > 0) {
                 // FIXME: they need to be marked for re-compilation
                 // and then added as compileables again
-                for (final String element : resourcesToCompile) {
-                    transactionalStore.remove(element);
+                if (transactionalStore.rollback()) {
+                    // drop the output of the failed compilation but keep the removals
+                    transactionalStore.onStart();
+                    transactionalStore.removeAll(removed);
+                } else {
+                    for (final String element : resourcesToCompile) {
+                        transactionalStore.remove(element);
+                    }
+                }
+            } else {
+                final Collection<String> stale = updateOutputs(resourcesToCompile, result, store.getWritten().keySet());
+                if (!stale.isEmpty()) {
+                    log.debug("removing " + stale.size() + " classes no longer produced");
+                    transactionalStore.removeAll(stale);
                 }
             }
 
@@ -180,4 +245,74 @@ public class CompilingListener extends ReloadingListener {
 
         return reload;
     }
+
+    /**
+     * Forgets the classes compiled from a deleted source.
+     *
+     * @return the classes to remove from the store
+     */
+    private Collection<String> removeOutputs( final String pSourceName ) {
+        final Collection<String> previous = outputs.remove(pSourceName);
+        if (previous != null) {
+            return previous;
+        }
+
+        // not compiled by this listener, go by the names in the store
+        final String clazzName = ConversionUtils.stripExtension(pSourceName);
+        final Collection<String> classes = new ArrayList<>();
+        classes.add(clazzName + ".class");
+        for (final String resourceName : transactionalStore.listPackage(ResourceIndex.getPackage(pSourceName))) {
+            if (resourceName.endsWith(".class") && !classes.contains(resourceName) && clazzName.equals(ConversionUtils.getOuterName(resourceName))) {
+                classes.add(resourceName);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Remembers the classes produced by an error free compilation.
+     *
+     * @return the classes the sources produced before but not anymore
+     */
+    private Collection<String> updateOutputs( final String[] pSourceNames, final CompilationResult pResult, final Collection<String> pWritten ) {
+        final Map<String, Collection<String>> compiled = new HashMap<>();
+        final Set<String> attributed = new HashSet<>();
+        for (final Map.Entry<String, Collection<String>> entry : pResult.getOutputs().entrySet()) {
+            compiled.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            attributed.addAll(entry.getValue());
+        }
+
+        final Map<String, String> sourcesByName = new HashMap<>();
+        for (final String sourceName : pSourceNames) {
+            sourcesByName.put(ConversionUtils.stripExtension(sourceName), sourceName);
+        }
+
+        for (final String resourceName : pWritten) {
+            if (attributed.contains(resourceName)) {
+                continue;
+            }
+            String sourceName = sourcesByName.get(ConversionUtils.getOuterName(resourceName));
+            if (sourceName == null && pSourceNames.length == 1) {
+                // e.g. an additional top level class
+                sourceName = pSourceNames[0];
+            }
+            if (sourceName != null) {
+                compiled.computeIfAbsent(sourceName, k -> new ArrayList<>()).add(resourceName);
+            }
+        }
+
+        final Collection<String> stale = new ArrayList<>();
+        for (final String sourceName : pSourceNames) {
+            final Collection<String> current = compiled.getOrDefault(sourceName, Collections.<String>emptyList());
+            final Collection<String> previous = outputs.put(sourceName, current);
+            if (previous != null) {
+                for (final String resourceName : previous) {
+                    if (!pWritten.contains(resourceName)) {
+                        stale.add(resourceName);
+                    }
+                }
+            }
+        }
+        return stale;
+    }
 }
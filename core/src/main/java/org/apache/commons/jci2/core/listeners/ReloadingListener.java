@@ -19,10 +19,18 @@ package org.apache.commons.jci2.core.listeners;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.jci2.core.ReloadingClassLoader;
 import org.apache.commons.jci2.core.stores.MemoryResourceStore;
@@ -30,6 +38,7 @@ import org.apache.commons.jci2.core.stores.ResourceStore;
 import org.apache.commons.jci2.core.stores.Transactional;
 import org.apache.commons.jci2.core.utils.ConversionUtils;
 import org.apache.commons.jci2.fam.listeners.AbstractFilesystemAlterationListener;
+import org.apache.commons.jci2.fam.monitor.FilesystemAlterationArchiveListener;
 import org.apache.commons.jci2.fam.monitor.FilesystemAlterationObserver;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -38,15 +47,27 @@ import org.apache.commons.logging.LogFactory;
  * This Listener waits for FAM events to trigger a reload of classes
  * or resources.
  *
+ * If the observer is archive aware the entries of jar and zip files
+ * are put into the store individually. So only the classes that really
+ * changed inside an archive are updated. An entry provided by more than
+ * one archive is only removed once the last of them no longer has it.
+ *
  * @author tcurdt
  */
-public class ReloadingListener extends AbstractFilesystemAlterationListener {
+public class ReloadingListener extends AbstractFilesystemAlterationListener implements FilesystemAlterationArchiveListener {
+
+    private static final long MAX_BATCHED_FILE_SIZE = 1024 * 1024;
 
     private final Log log = LogFactory.getLog(ReloadingListener.class);
 
     private final Set<ReloadNotificationListener> notificationListeners = new HashSet<>();
     private final ResourceStore store;
 
+    private final Map<String, File> createdEntries = new HashMap<>();
+    private final Map<String, File> changedEntries = new HashMap<>();
+    private final Collection<String> deletedEntries = new ArrayList<>();
+    private final Map<String, Set<File>> entryArchives = new HashMap<>();
+
     public ReloadingListener() {
         this(new MemoryResourceStore());
     }
@@ -78,47 +99,122 @@ public class ReloadingListener extends AbstractFilesystemAlterationListener {
         log.debug("created:" + created.size() + " changed:" + changed.size() + " deleted:" + deleted.size() + " resources");
 
         if (deleted.size() > 0) {
+            final Collection<String> resourceNames = new ArrayList<>(deleted.size());
             for (final File file : deleted) {
-                final String resourceName = ConversionUtils.getResourceNameFromFileName(ConversionUtils.relative(pObserver.getRootDirectory(), file));
-                store.remove(resourceName);
+                resourceNames.add(ConversionUtils.getResourceNameFromFileName(ConversionUtils.relative(pObserver.getRootDirectory(), file)));
             }
+            removeResources(resourceNames);
             reload = true;
         }
 
         if (created.size() > 0) {
-            for (final File file : created) {
-                FileInputStream is = null;
-                try {
+            writeFiles(pObserver, created);
+        }
+
+        if (changed.size() > 0) {
+            writeFiles(pObserver, changed);
+            reload = true;
+        }
+
+        if (deletedEntries.size() > 0) {
+            removeResources(deletedEntries);
+            reload = true;
+        }
+
+        if (createdEntries.size() > 0) {
+            writeArchiveEntries(createdEntries);
+        }
+
+        if (changedEntries.size() > 0) {
+            writeArchiveEntries(changedEntries);
+            reload = true;
+        }
+
+        return reload;
+    }
+
+    /**
+     * Small files are written to the store as one batch,
+     * large ones are streamed individually.
+     */
+    private void writeFiles( final FilesystemAlterationObserver pObserver, final Collection<File> pFiles ) {
+        final Map<String, byte[]> batch = new HashMap<>();
+        for (final File file : pFiles) {
+            final String resourceName = ConversionUtils.getResourceNameFromFileName(ConversionUtils.relative(pObserver.getRootDirectory(), file));
+            FileInputStream is = null;
+            try {
+                if (file.length() <= MAX_BATCHED_FILE_SIZE) {
+                    batch.put(resourceName, FileUtils.readFileToByteArray(file));
+                } else {
                     is = new FileInputStream(file);
-                    final byte[] bytes = IOUtils.toByteArray(is);
-                    final String resourceName = ConversionUtils.getResourceNameFromFileName(ConversionUtils.relative(pObserver.getRootDirectory(), file));
-                    store.write(resourceName, bytes);
-                } catch (final Exception e) {
-                    log.error("could not load " + file, e);
-                } finally {
-                    IOUtils.closeQuietly(is);
+                    store.write(resourceName, is);
                 }
+            } catch (final Exception e) {
+                log.error("could not load " + file, e);
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        }
+        if (!batch.isEmpty()) {
+            try {
+                store.writeAll(batch);
+            } catch (final RuntimeException e) {
+                log.error("could not write " + batch.size() + " resources to " + store, e);
             }
         }
+    }
 
-        if (changed.size() > 0) {
-            for (final File file : changed) {
-                FileInputStream is = null;
+    private void removeResources( final Collection<String> pResourceNames ) {
+        try {
+            store.removeAll(pResourceNames);
+        } catch (final RuntimeException e) {
+            log.error("could not remove " + pResourceNames.size() + " resources from " + store, e);
+        }
+    }
+
+    private void writeArchiveEntries( final Map<String, File> pEntries ) {
+        final Map<File, ZipFile> archives = new HashMap<>();
+        try {
+            for (final Map.Entry<String, File> entry : pEntries.entrySet()) {
+                final File file = entry.getValue();
+                InputStream is = null;
                 try {
-                    is = new FileInputStream(file);
-                    final byte[] bytes = IOUtils.toByteArray(is);
-                    final String resourceName = ConversionUtils.getResourceNameFromFileName(ConversionUtils.relative(pObserver.getRootDirectory(), file));
-                    store.write(resourceName, bytes);
+                    ZipFile archive = archives.get(file);
+                    if (archive == null) {
+                        archive = new ZipFile(file);
+                        archives.put(file, archive);
+                    }
+                    final ZipEntry zipEntry = archive.getEntry(entry.getKey());
+                    if (zipEntry == null) {
+                        // gone again already
+                        continue;
+                    }
+                    is = archive.getInputStream(zipEntry);
+                    store.write(entry.getKey(), is);
                 } catch (final Exception e) {
-                    log.error("could not load " + file, e);
+                    log.error("could not load " + entry.getKey() + " from " + file, e);
                 } finally {
                     IOUtils.closeQuietly(is);
                 }
             }
-            reload = true;
+        } finally {
+            for (final ZipFile archive : archives.values()) {
+                try {
+                    archive.close();
+                } catch (final IOException e) {
+                    log.error("could not close " + archive.getName(), e);
+                }
+            }
         }
+    }
 
-        return reload;
+    @Override
+    public void onStart( final FilesystemAlterationObserver pObserver ) {
+        super.onStart(pObserver);
+
+        createdEntries.clear();
+        changedEntries.clear();
+        deletedEntries.clear();
     }
 
     @Override
@@ -131,7 +227,12 @@ public class ReloadingListener extends AbstractFilesystemAlterationListener {
         final boolean reload = isReloadRequired(pObserver);
 
         if (store instanceof Transactional) {
-            ((Transactional)store).onStop();
+            try {
+                ((Transactional)store).onStop();
+            } catch (final RuntimeException e) {
+                // keep the monitor thread alive
+                log.error("could not commit the changes to " + store, e);
+            }
         }
 
         if (reload) {
@@ -149,6 +250,31 @@ public class ReloadingListener extends AbstractFilesystemAlterationListener {
         }
     }
 
+    @Override
+    public void onArchiveEntryCreate( final File pArchive, final String pEntryName ) {
+        entryArchives.computeIfAbsent(pEntryName, k -> new HashSet<>()).add(pArchive);
+        createdEntries.put(pEntryName, pArchive);
+    }
+    @Override
+    public void onArchiveEntryChange( final File pArchive, final String pEntryName ) {
+        entryArchives.computeIfAbsent(pEntryName, k -> new HashSet<>()).add(pArchive);
+        changedEntries.put(pEntryName, pArchive);
+    }
+    @Override
+    public void onArchiveEntryDelete( final File pArchive, final String pEntryName ) {
+        final Set<File> archives = entryArchives.get(pEntryName);
+        if (archives != null) {
+            archives.remove(pArchive);
+            if (!archives.isEmpty()) {
+                // still provided by another archive, the store might hold the deleted version
+                changedEntries.put(pEntryName, archives.iterator().next());
+                return;
+            }
+            entryArchives.remove(pEntryName);
+        }
+        deletedEntries.add(pEntryName);
+    }
+
     @Override
     public void onDirectoryCreate( final File pDir ) {
     }
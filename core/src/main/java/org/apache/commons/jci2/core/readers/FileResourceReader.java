@@ -18,8 +18,19 @@
 package org.apache.commons.jci2.core.readers;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
@@ -51,6 +62,69 @@ public final class FileResourceReader implements ResourceReader {
         }
     }
 
+    /**
+     * The directories are the index.
+     */
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return new File(root, pPackageName).isDirectory();
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        final File[] files = new File(root, pPackageName).listFiles(File::isFile);
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        final List<String> resourceNames = new ArrayList<>(files.length);
+        for (final File file : files) {
+            resourceNames.add(pPackageName.isEmpty() ? file.getName() : pPackageName + '/' + file.getName());
+        }
+        return resourceNames;
+    }
+
+    @Override
+    public ByteBuffer getBuffer( final String pResourceName ) {
+        try (FileChannel channel = FileChannel.open(new File(root, pResourceName).toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // fill the buffer
+            }
+            buffer.flip();
+            return buffer;
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream openStream( final String pResourceName ) throws IOException {
+        try {
+            return new FileInputStream(new File(root, pResourceName));
+        } catch (final FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public ReadableByteChannel openChannel( final String pResourceName ) throws IOException {
+        try {
+            return FileChannel.open(new File(root, pResourceName).toPath(), StandardOpenOption.READ);
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        final File file = new File(root, pResourceName);
+        return file.isFile() ? file.length() : -1;
+    }
+
     /**
      * @deprecated
      */
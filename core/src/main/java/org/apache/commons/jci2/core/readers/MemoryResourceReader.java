@@ -17,9 +17,14 @@
 
 package org.apache.commons.jci2.core.readers;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.commons.jci2.core.utils.ResourceIndex;
+
 /**
  * A memory based reader to compile from memory
  *
@@ -28,6 +33,7 @@ import java.util.Map;
 public class MemoryResourceReader implements ResourceReader {
 
     private Map<String, byte[]> resources;
+    private final ResourceIndex index = new ResourceIndex();
 
     @Override
     public boolean isAvailable( final String pResourceName ) {
@@ -44,19 +50,48 @@ public class MemoryResourceReader implements ResourceReader {
         }
 
         resources.put(pResourceName, pContent);
+        index.add(pResourceName);
     }
 
     public void remove( final String pResourceName ) {
         if (resources != null) {
             resources.remove(pResourceName);
+            if (pResourceName != null) {
+                index.remove(pResourceName);
+            }
         }
     }
 
     @Override
     public byte[] getBytes( final String pResourceName ) {
+        if (resources == null) {
+            return null;
+        }
         return resources.get(pResourceName);
     }
 
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return index.isPackage(pPackageName);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return index.list(pPackageName);
+    }
+
+    @Override
+    public InputStream openStream( final String pResourceName ) {
+        final byte[] content = getBytes(pResourceName);
+        return content != null ? new ByteArrayInputStream(content) : null;
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        final byte[] content = getBytes(pResourceName);
+        return content != null ? content.length : -1;
+    }
+
     /**
      * @deprecated
      */
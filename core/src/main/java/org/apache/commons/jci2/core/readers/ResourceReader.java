@@ -17,6 +17,15 @@
 
 package org.apache.commons.jci2.core.readers;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.Collections;
+
 /**
  * A ResourceReader provide acces to resource like e.g. source code
  *
@@ -27,4 +36,84 @@ public interface ResourceReader {
     boolean isAvailable( final String pResourceName );
     byte[] getBytes( final String pResourceName );
 
+    /**
+     * @param pResourceName the name of the resource
+     * @return whether the resource exists
+     */
+    default boolean exists( final String pResourceName ) {
+        return isAvailable(pResourceName);
+    }
+
+    /**
+     * Readers without an index of their resources do not know about
+     * packages and always answer false.
+     *
+     * @param pPackageName the package as path, e.g. "org/my"
+     * @return whether the package or one of its sub packages has resources
+     */
+    default boolean isPackage( final String pPackageName ) {
+        return false;
+    }
+
+    /**
+     * Readers without an index of their resources do not know about
+     * packages and always answer with an empty list.
+     *
+     * @param pPackageName the package as path, e.g. "org/my"
+     * @return the names of the resources directly in the package
+     */
+    default Collection<String> listPackage( final String pPackageName ) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param pResourceName the name of the resource
+     * @return the content as buffer or null if the resource is not available
+     */
+    default ByteBuffer getBuffer( final String pResourceName ) {
+        final byte[] content = getBytes(pResourceName);
+        if (content == null) {
+            return null;
+        }
+        return ByteBuffer.wrap(content);
+    }
+
+    /**
+     * Readers that can stream their content (e.g. from disk) override
+     * this to avoid loading the whole resource.
+     *
+     * @param pResourceName the name of the resource
+     * @return a stream of the content or null if the resource is not available
+     */
+    default InputStream openStream( final String pResourceName ) throws IOException {
+        final byte[] content = getBytes(pResourceName);
+        if (content == null) {
+            return null;
+        }
+        return new ByteArrayInputStream(content);
+    }
+
+    /**
+     * @param pResourceName the name of the resource
+     * @return a channel of the content or null if the resource is not available
+     */
+    default ReadableByteChannel openChannel( final String pResourceName ) throws IOException {
+        final InputStream is = openStream(pResourceName);
+        if (is == null) {
+            return null;
+        }
+        return Channels.newChannel(is);
+    }
+
+    /**
+     * @param pResourceName the name of the resource
+     * @return the size of the content in bytes or -1 if the resource is not available
+     */
+    default long size( final String pResourceName ) {
+        final byte[] content = getBytes(pResourceName);
+        if (content == null) {
+            return -1;
+        }
+        return content.length;
+    }
 }
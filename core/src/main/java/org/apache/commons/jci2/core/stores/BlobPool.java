@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reference counted pool of resource data keyed by the SHA-256 of the content
+ *
+ * All {@link ContentAddressedResourceStore}s share the default pool,
+ * so identical class files are kept only once per JVM no matter how
+ * many stores or generations refer to them.
+ *
+ * The pool keeps its own copy of the data, callers only ever get copies
+ * or read-only views of it. Stores dropped without being cleared have
+ * their references released once the garbage collector noticed, the
+ * next time the pool is used.
+ *
+ * @author tcurdt
+ */
+public final class BlobPool {
+
+    private static final BlobPool DEFAULT = new BlobPool();
+
+    static final class Blob {
+        private final Digest digest;
+        final byte[] data;
+        // guarded by the pool
+        private int references;
+
+        private Blob( final Digest pDigest, final byte[] pData ) {
+            digest = pDigest;
+            data = pData;
+        }
+    }
+
+    private static final class Digest {
+        private final byte[] hash;
+        private final int hashCode;
+
+        private Digest( final byte[] pHash ) {
+            hash = pHash;
+            hashCode = Arrays.hashCode(pHash);
+        }
+
+        @Override
+        public boolean equals( final Object pObject ) {
+            return pObject instanceof Digest && Arrays.equals(hash, ((Digest) pObject).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Holds the blobs of an owner without keeping the owner alive.
+     */
+    private static final class Holder extends PhantomReference<Object> {
+        private final Map<String, Blob> blobs;
+
+        private Holder( final Object pOwner, final Map<String, Blob> pBlobs, final ReferenceQueue<Object> pQueue ) {
+            super(pOwner, pQueue);
+            blobs = pBlobs;
+        }
+    }
+
+    private final Map<Digest, Blob> blobs = new HashMap<>();
+    private long bytes;
+    private long referencedBytes;
+
+    private final ReferenceQueue<Object> dropped = new ReferenceQueue<>();
+    // guarded by blobs, keeps the references themselves reachable
+    private final Set<Holder> holders = new HashSet<>();
+
+    public static BlobPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * The blobs left in the map are released once the owner is no longer
+     * reachable.
+     */
+    void register( final Object pOwner, final Map<String, Blob> pBlobs ) {
+        synchronized (blobs) {
+            expunge();
+            holders.add(new Holder(pOwner, pBlobs, dropped));
+        }
+    }
+
+    // guarded by blobs
+    private void expunge() {
+        Reference<?> reference;
+        while ((reference = dropped.poll()) != null) {
+            final Holder holder = (Holder) reference;
+            holders.remove(holder);
+            for (final Blob blob : holder.blobs.values()) {
+                release(blob);
+            }
+            holder.blobs.clear();
+        }
+    }
+
+    Blob acquire( final byte[] pData ) {
+        final Digest digest = new Digest(sha256(pData));
+        synchronized (blobs) {
+            expunge();
+            Blob blob = blobs.get(digest);
+            if (blob == null) {
+                // the caller might still change its array
+                blob = new Blob(digest, pData.clone());
+                blobs.put(digest, blob);
+                bytes += pData.length;
+            }
+            blob.references++;
+            referencedBytes += pData.length;
+            return blob;
+        }
+    }
+
+    void release( final Blob pBlob ) {
+        synchronized (blobs) {
+            referencedBytes -= pBlob.data.length;
+            if (--pBlob.references == 0) {
+                blobs.remove(pBlob.digest);
+                bytes -= pBlob.data.length;
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct contents in the pool
+     */
+    public int size() {
+        synchronized (blobs) {
+            expunge();
+            return blobs.size();
+        }
+    }
+
+    /**
+     * @return the bytes actually kept by the pool
+     */
+    public long getBytes() {
+        synchronized (blobs) {
+            expunge();
+            return bytes;
+        }
+    }
+
+    /**
+     * @return the bytes all the references would need without sharing
+     */
+    public long getReferencedBytes() {
+        synchronized (blobs) {
+            expunge();
+            return referencedBytes;
+        }
+    }
+
+    private static byte[] sha256( final byte[] pData ) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(pData);
+        } catch (final NoSuchAlgorithmException e) {
+            // every JRE has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.io.Closeable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.jci2.core.utils.ResourceIndex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A CachingResourceStore keeps the recently used resources of a
+ * (usually durable) store in memory
+ *
+ * The cache is a LRU bounded by the number of bytes. In write-through
+ * mode every write goes to the wrapped store right away. In write-behind
+ * mode writes only go to the cache and are written to the wrapped store
+ * when they get evicted or on {@link #flush()} and {@link #close()}.
+ * Removes always go straight through. Queries that do not need the
+ * data (exists, size, packages) go to the wrapped store and only take
+ * the resources not written back yet into account on top.
+ *
+ * Reads only lock the cache for the lookup, never while the wrapped
+ * store is accessed.
+ *
+ * @author tcurdt
+ */
+public final class CachingResourceStore implements ResourceStore, Closeable {
+
+    private final Log log = LogFactory.getLog(CachingResourceStore.class);
+
+    private static final class Cached {
+        private final byte[] data;
+        private boolean dirty;
+
+        private Cached( final byte[] pData, final boolean pDirty ) {
+            data = pData;
+            dirty = pDirty;
+        }
+    }
+
+    private final ResourceStore store;
+    private final long maxBytes;
+    private final boolean writeBehind;
+
+    // guards the changes of the wrapped store, always taken before the cache
+    private final Object storeLock = new Object();
+    private final LinkedHashMap<String, Cached> cache = new LinkedHashMap<>(16, 0.75f, true);
+    // dirty resources on their way to the wrapped store
+    private final Map<String, byte[]> flushing = new ConcurrentHashMap<>();
+
+    // guarded by cache
+    private long bytes;
+    private long modifications;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public CachingResourceStore( final ResourceStore pStore, final long pMaxBytes ) {
+        this(pStore, pMaxBytes, false);
+    }
+
+    /**
+     * @param pStore the wrapped store
+     * @param pMaxBytes upper bound for the size of the cached resources
+     * @param pWriteBehind whether writes are delayed until eviction or flush
+     */
+    public CachingResourceStore( final ResourceStore pStore, final long pMaxBytes, final boolean pWriteBehind ) {
+        store = pStore;
+        maxBytes = pMaxBytes;
+        writeBehind = pWriteBehind;
+    }
+
+    @Override
+    public byte[] read( final String pResourceName ) {
+        final long modification;
+        synchronized (cache) {
+            final Cached cached = cache.get(pResourceName);
+            if (cached != null) {
+                hits++;
+                return cached.data;
+            }
+            misses++;
+            modification = modifications;
+        }
+
+        byte[] data = flushing.get(pResourceName);
+        if (data == null) {
+            data = store.read(pResourceName);
+        }
+        if (data != null && data.length <= maxBytes) {
+            final List<Map.Entry<String, byte[]>> evicted;
+            synchronized (cache) {
+                if (modification != modifications) {
+                    // changed in the meantime
+                    return data;
+                }
+                evicted = insert(pResourceName, new Cached(data, false));
+            }
+            writeBack(evicted);
+        }
+        return data;
+    }
+
+    @Override
+    public void write( final String pResourceName, final byte[] pResourceData ) {
+        if (log.isDebugEnabled()) {
+            log.debug("writing resource " + pResourceName + "(" + pResourceData.length + ")");
+        }
+        if (!writeBehind || pResourceData.length > maxBytes) {
+            synchronized (storeLock) {
+                store.write(pResourceName, pResourceData);
+                flushing.remove(pResourceName);
+                synchronized (cache) {
+                    if (pResourceData.length > maxBytes) {
+                        invalidate(pResourceName);
+                    } else {
+                        insert(pResourceName, new Cached(pResourceData, false));
+                    }
+                }
+            }
+            return;
+        }
+
+        final List<Map.Entry<String, byte[]>> evicted;
+        synchronized (cache) {
+            evicted = insert(pResourceName, new Cached(pResourceData, true));
+        }
+        writeBack(evicted);
+    }
+
+    @Override
+    public void remove( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("removing resource " + pResourceName);
+        }
+        synchronized (storeLock) {
+            synchronized (cache) {
+                invalidate(pResourceName);
+            }
+            flushing.remove(pResourceName);
+            store.remove(pResourceName);
+        }
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        synchronized (cache) {
+            if (cache.containsKey(pResourceName)) {
+                return true;
+            }
+        }
+        return flushing.containsKey(pResourceName) || store.exists(pResourceName);
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        synchronized (cache) {
+            final Cached cached = cache.get(pResourceName);
+            if (cached != null) {
+                return cached.data.length;
+            }
+        }
+        final byte[] data = flushing.get(pResourceName);
+        if (data != null) {
+            return data.length;
+        }
+        return store.size(pResourceName);
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        if (store.isPackage(pPackageName)) {
+            return true;
+        }
+        final String prefix = pPackageName.isEmpty() ? "" : pPackageName + '/';
+        for (final String resourceName : getUnflushed()) {
+            if (resourceName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        if (!writeBehind) {
+            return store.listPackage(pPackageName);
+        }
+        final Set<String> resourceNames = new LinkedHashSet<>(store.listPackage(pPackageName));
+        for (final String resourceName : getUnflushed()) {
+            if (pPackageName.equals(ResourceIndex.getPackage(resourceName))) {
+                resourceNames.add(resourceName);
+            }
+        }
+        return resourceNames;
+    }
+
+    /**
+     * @return the names of the resources not written to the wrapped store yet
+     */
+    private Collection<String> getUnflushed() {
+        if (!writeBehind) {
+            return flushing.keySet();
+        }
+        final Collection<String> resourceNames = new ArrayList<>(flushing.keySet());
+        synchronized (cache) {
+            for (final Map.Entry<String, Cached> entry : cache.entrySet()) {
+                if (entry.getValue().dirty) {
+                    resourceNames.add(entry.getKey());
+                }
+            }
+        }
+        return resourceNames;
+    }
+
+    /**
+     * Writes the dirty resources to the wrapped store. The wrapped
+     * store itself is not closed.
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+
+    /**
+     * Writes all dirty resources to the wrapped store.
+     */
+    public void flush() {
+        final List<Map.Entry<String, byte[]>> dirty = new ArrayList<>();
+        synchronized (cache) {
+            for (final Map.Entry<String, Cached> entry : cache.entrySet()) {
+                final Cached cached = entry.getValue();
+                if (cached.dirty) {
+                    cached.dirty = false;
+                    flushing.put(entry.getKey(), cached.data);
+                    dirty.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), cached.data));
+                }
+            }
+        }
+        writeBack(dirty);
+    }
+
+    private void invalidate( final String pResourceName ) {
+        final Cached previous = cache.remove(pResourceName);
+        if (previous != null) {
+            bytes -= previous.data.length;
+        }
+        modifications++;
+    }
+
+    private List<Map.Entry<String, byte[]>> insert( final String pResourceName, final Cached pCached ) {
+        invalidate(pResourceName);
+        cache.put(pResourceName, pCached);
+        bytes += pCached.data.length;
+
+        List<Map.Entry<String, byte[]>> evicted = null;
+        final Iterator<Map.Entry<String, Cached>> it = cache.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            final Map.Entry<String, Cached> eldest = it.next();
+            final Cached cached = eldest.getValue();
+            it.remove();
+            bytes -= cached.data.length;
+            evictions++;
+            if (cached.dirty) {
+                if (evicted == null) {
+                    evicted = new ArrayList<>();
+                }
+                flushing.put(eldest.getKey(), cached.data);
+                evicted.add(new AbstractMap.SimpleImmutableEntry<>(eldest.getKey(), cached.data));
+            }
+        }
+        return evicted;
+    }
+
+    private void writeBack( final List<Map.Entry<String, byte[]>> pDirty ) {
+        if (pDirty == null || pDirty.isEmpty()) {
+            return;
+        }
+        synchronized (storeLock) {
+            for (final Map.Entry<String, byte[]> entry : pDirty) {
+                // skip what got removed or written again in the meantime
+                if (flushing.get(entry.getKey()) == entry.getValue()) {
+                    store.write(entry.getKey(), entry.getValue());
+                    flushing.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * @return the size of the cached resources in bytes
+     */
+    public long getCachedBytes() {
+        synchronized (cache) {
+            return bytes;
+        }
+    }
+
+    public long getHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    public long getEvictions() {
+        synchronized (cache) {
+            return evictions;
+        }
+    }
+
+    /**
+     * @return hits divided by all reads or 0 if nothing was read yet
+     */
+    public double getHitRatio() {
+        synchronized (cache) {
+            final long reads = hits + misses;
+            return reads == 0 ? 0.0 : (double) hits / reads;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return store.toString();
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Read-only store serving a bundle file written by the ClassBundleWriter
+ *
+ * The whole bundle is mapped into memory once. Lookups are a binary
+ * search over the sorted index and {@link #readBuffer(String)} hands out
+ * read-only views of the mapping so classes get defined without copying.
+ * Package queries use the sort order of the index as well.
+ *
+ * @author tcurdt
+ */
+public final class ClassBundleResourceStore implements ResourceStore {
+
+    private final Log log = LogFactory.getLog(ClassBundleResourceStore.class);
+
+    private final File file;
+    private final ByteBuffer bundle;
+    private final int count;
+
+    public ClassBundleResourceStore( final File pFile ) throws IOException {
+        file = pFile;
+
+        try (FileChannel channel = FileChannel.open(pFile.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("bundle exceeds 2GB: " + pFile);
+            }
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            bundle = mapped.asReadOnlyBuffer();
+        }
+
+        if (bundle.capacity() < ClassBundleWriter.HEADER_SIZE
+            || bundle.getInt(0) != ClassBundleWriter.MAGIC
+            || bundle.getInt(4) != ClassBundleWriter.VERSION) {
+            throw new IOException("no class bundle: " + pFile);
+        }
+        count = bundle.getInt(8);
+        final long names = bundle.getInt(12);
+        if (count < 0 || names < 0 || ClassBundleWriter.HEADER_SIZE + (long) count * ClassBundleWriter.ENTRY_SIZE + names > bundle.capacity()) {
+            throw new IOException("corrupt class bundle: " + pFile);
+        }
+        for (int i = 0; i < count; i++) {
+            final int entry = entry(i);
+            final long dataEnd = bundle.getLong(entry + 8) + bundle.getInt(entry + 16);
+            final long nameEnd = (long) bundle.getInt(entry) + bundle.getInt(entry + 4);
+            if (dataEnd > bundle.capacity() || nameEnd > bundle.capacity() || bundle.getInt(entry + 16) < 0) {
+                throw new IOException("corrupt class bundle: " + pFile);
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of resources in the bundle
+     */
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public byte[] read( final String pResourceName ) {
+        final ByteBuffer data = readBuffer(pResourceName);
+        if (data == null) {
+            return null;
+        }
+        final byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public ByteBuffer readBuffer( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("reading resource " + pResourceName);
+        }
+        final int i = find(pResourceName.getBytes(StandardCharsets.UTF_8));
+        if (i < 0) {
+            return null;
+        }
+        final int entry = entry(i);
+        final int offset = (int) bundle.getLong(entry + 8);
+        final ByteBuffer view = bundle.duplicate();
+        view.limit(offset + bundle.getInt(entry + 16));
+        view.position(offset);
+        return view.slice();
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        final int i = find(pResourceName.getBytes(StandardCharsets.UTF_8));
+        return i >= 0 ? bundle.getInt(entry(i) + 16) : -1;
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        return find(pResourceName.getBytes(StandardCharsets.UTF_8)) >= 0;
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        final byte[] prefix = prefix(pPackageName);
+        final int i = lowerBound(prefix);
+        return i < count && startsWith(i, prefix);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        final byte[] prefix = prefix(pPackageName);
+        final int start = pPackageName.length() == 0 ? 0 : pPackageName.length() + 1;
+        final List<String> resources = new ArrayList<>();
+        for (int i = lowerBound(prefix); i < count && startsWith(i, prefix); i++) {
+            final String name = name(i);
+            if (name.indexOf('/', start) < 0) {
+                resources.add(name);
+            }
+        }
+        return resources;
+    }
+
+    @Override
+    public void write( final String pResourceName, final byte[] pResourceData ) {
+        throw new UnsupportedOperationException(file + " is read-only");
+    }
+
+    @Override
+    public void remove( final String pResourceName ) {
+        throw new UnsupportedOperationException(file + " is read-only");
+    }
+
+    private static int entry( final int pIndex ) {
+        return ClassBundleWriter.HEADER_SIZE + pIndex * ClassBundleWriter.ENTRY_SIZE;
+    }
+
+    private static byte[] prefix( final String pPackageName ) {
+        return (pPackageName.length() == 0 ? "" : pPackageName + "/").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String name( final int pIndex ) {
+        final int entry = entry(pIndex);
+        final byte[] name = new byte[bundle.getInt(entry + 4)];
+        final ByteBuffer view = bundle.duplicate();
+        view.position(bundle.getInt(entry));
+        view.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private int find( final byte[] pName ) {
+        final int i = lowerBound(pName);
+        return i < count && compare(i, pName) == 0 ? i : -1;
+    }
+
+    /**
+     * @return the first index whose name is not smaller than the key
+     */
+    private int lowerBound( final byte[] pKey ) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(mid, pKey) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare( final int pIndex, final byte[] pKey ) {
+        final int entry = entry(pIndex);
+        final int offset = bundle.getInt(entry);
+        final int length = bundle.getInt(entry + 4);
+        final int common = Math.min(length, pKey.length);
+        for (int i = 0; i < common; i++) {
+            final int diff = (bundle.get(offset + i) & 0xFF) - (pKey[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - pKey.length;
+    }
+
+    private boolean startsWith( final int pIndex, final byte[] pPrefix ) {
+        final int entry = entry(pIndex);
+        final int offset = bundle.getInt(entry);
+        if (bundle.getInt(entry + 4) < pPrefix.length) {
+            return false;
+        }
+        for (int i = 0; i < pPrefix.length; i++) {
+            if (bundle.get(offset + i) != pPrefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + "[" + file + "]";
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the read-only bundle files served by the ClassBundleResourceStore.
+ *
+ * A bundle starts with a header (magic, version, number of resources,
+ * size of the names), followed by one fixed size index entry per
+ * resource sorted by the UTF-8 bytes of the name, the names and finally
+ * the resources aligned to 8 bytes. The file is written in one pass to
+ * a temporary file which is then moved into place.
+ *
+ * @author tcurdt
+ */
+public final class ClassBundleWriter {
+
+    static final int MAGIC = 0x4A434942;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    // name offset, name length, data offset, data length
+    static final int ENTRY_SIZE = 20;
+    static final int ALIGNMENT = 8;
+
+    private ClassBundleWriter() {
+    }
+
+    /**
+     * Bundles the named resources of the store, e.g. all classes of a
+     * compiled generation.
+     */
+    public static void write( final File pFile, final ResourceStore pStore, final Collection<String> pResourceNames ) throws IOException {
+        final Map<String, byte[]> resources = pStore.readAll(pResourceNames);
+        if (resources.size() != pResourceNames.size()) {
+            throw new IOException("missing resources in " + pStore);
+        }
+        write(pFile, resources);
+    }
+
+    public static void write( final File pFile, final Map<String, byte[]> pResources ) throws IOException {
+        final List<byte[]> names = new ArrayList<>();
+        for (final String name : pResources.keySet()) {
+            names.add(name.getBytes(StandardCharsets.UTF_8));
+        }
+        names.sort(ClassBundleWriter::compare);
+
+        long namesSize = 0;
+        for (final byte[] name : names) {
+            namesSize += name.length;
+        }
+
+        long dataOffset = align(HEADER_SIZE + (long) names.size() * ENTRY_SIZE + namesSize);
+        long size = dataOffset;
+        for (final byte[] data : pResources.values()) {
+            size = align(size + data.length);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("bundle exceeds 2GB");
+        }
+
+        final File parent = pFile.getAbsoluteFile().getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("could not create" + parent);
+        }
+
+        final File tmp = File.createTempFile("." + pFile.getName() + ".", ".tmp", parent);
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(names.size());
+                out.writeInt((int) namesSize);
+
+                int nameOffset = HEADER_SIZE + names.size() * ENTRY_SIZE;
+                for (final byte[] name : names) {
+                    final byte[] data = pResources.get(new String(name, StandardCharsets.UTF_8));
+                    out.writeInt(nameOffset);
+                    out.writeInt(name.length);
+                    out.writeLong(dataOffset);
+                    out.writeInt(data.length);
+                    nameOffset += name.length;
+                    dataOffset = align(dataOffset + data.length);
+                }
+
+                for (final byte[] name : names) {
+                    out.write(name);
+                }
+
+                for (final byte[] name : names) {
+                    pad(out);
+                    out.write(pResources.get(new String(name, StandardCharsets.UTF_8)));
+                }
+                pad(out);
+
+                out.flush();
+                fos.getFD().sync();
+            }
+            try {
+                Files.move(tmp.toPath(), pFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), pFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Unsigned lexicographic order of the UTF-8 bytes, the order of the index.
+     */
+    static int compare( final byte[] pLeft, final byte[] pRight ) {
+        final int length = Math.min(pLeft.length, pRight.length);
+        for (int i = 0; i < length; i++) {
+            final int diff = (pLeft[i] & 0xFF) - (pRight[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return pLeft.length - pRight.length;
+    }
+
+    private static long align( final long pOffset ) {
+        return (pOffset + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    private static void pad( final DataOutputStream pOut ) throws IOException {
+        while (pOut.size() % ALIGNMENT != 0) {
+            pOut.write(0);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A CompressingResourceStore keeps the resources deflated in the wrapped store.
+ *
+ * Most class files are read exactly once when the class gets defined,
+ * so they are only inflated on read. A small LRU of recently inflated
+ * resources takes care of the ones read over and over again.
+ * Resources that do not get smaller are stored as they are.
+ *
+ * The store holds native zlib memory, call {@link #close()} once it is
+ * no longer used. The wrapped store is not closed.
+ *
+ * @author tcurdt
+ */
+public class CompressingResourceStore implements ResourceStore, Closeable {
+
+    public static final int DEFAULT_CACHE_SIZE = 32;
+
+    private static final int HEADER_SIZE = 4;
+    private static final int STORED = -1;
+
+    private final Log log = LogFactory.getLog(CompressingResourceStore.class);
+
+    private final ResourceStore store;
+    private final Deflater deflater;
+    private final Map<String, byte[]> inflated;
+    // guarded by inflated, protects the cache from stale inflated data
+    private long modifications;
+    // guarded by this, uncompressed and compressed size of every resource written
+    private final Map<String, long[]> sizes = new HashMap<>();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    public CompressingResourceStore( final ResourceStore pStore ) {
+        this(pStore, Deflater.DEFAULT_COMPRESSION, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param pStore the store holding the deflated resources
+     * @param pLevel the compression level, see {@link Deflater}
+     * @param pCacheSize how many inflated resources to keep around
+     */
+    public CompressingResourceStore( final ResourceStore pStore, final int pLevel, final int pCacheSize ) {
+        store = pStore;
+        deflater = new Deflater(pLevel);
+        inflated = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( final Map.Entry<String, byte[]> pEldest ) {
+                return size() > pCacheSize;
+            }
+        };
+    }
+
+    @Override
+    public byte[] read( final String pResourceName ) {
+        final long modification;
+        synchronized (inflated) {
+            final byte[] data = inflated.get(pResourceName);
+            if (data != null) {
+                return data;
+            }
+            modification = modifications;
+        }
+
+        final byte[] compressed = store.read(pResourceName);
+        if (compressed == null) {
+            return null;
+        }
+
+        final byte[] data = inflate(pResourceName, compressed);
+        synchronized (inflated) {
+            if (modification == modifications) {
+                inflated.put(pResourceName, data);
+            }
+        }
+        return data;
+    }
+
+    @Override
+    public synchronized void write( final String pResourceName, final byte[] pResourceData ) {
+        final byte[] compressed = deflate(pResourceData);
+        if (log.isDebugEnabled()) {
+            log.debug("writing resource " + pResourceName + "(" + pResourceData.length + "/" + compressed.length + ")");
+        }
+        store.write(pResourceName, compressed);
+        invalidate(pResourceName);
+        forget(sizes.put(pResourceName, new long[] { pResourceData.length, compressed.length }));
+        uncompressedBytes.addAndGet(pResourceData.length);
+        compressedBytes.addAndGet(compressed.length);
+    }
+
+    @Override
+    public synchronized void remove( final String pResourceName ) {
+        store.remove(pResourceName);
+        invalidate(pResourceName);
+        forget(sizes.remove(pResourceName));
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        return store.exists(pResourceName);
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        synchronized (this) {
+            final long[] known = sizes.get(pResourceName);
+            if (known != null) {
+                return known[0];
+            }
+        }
+        final byte[] compressed = store.read(pResourceName);
+        if (compressed == null) {
+            return -1;
+        }
+        final int length = readLength(compressed);
+        return length == STORED ? compressed.length - HEADER_SIZE : length;
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return store.isPackage(pPackageName);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return store.listPackage(pPackageName);
+    }
+
+    /**
+     * Frees the native memory of the compressor. Writing afterwards fails.
+     */
+    @Override
+    public synchronized void close() {
+        deflater.end();
+    }
+
+    /**
+     * @return uncompressed size divided by the compressed size of all resources written through this store
+     */
+    public double getCompressionRatio() {
+        final long compressed = compressedBytes.get();
+        if (compressed == 0) {
+            return 1.0;
+        }
+        return (double) uncompressedBytes.get() / compressed;
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    private void invalidate( final String pResourceName ) {
+        synchronized (inflated) {
+            inflated.remove(pResourceName);
+            modifications++;
+        }
+    }
+
+    private void forget( final long[] pSizes ) {
+        if (pSizes != null) {
+            uncompressedBytes.addAndGet(-pSizes[0]);
+            compressedBytes.addAndGet(-pSizes[1]);
+        }
+    }
+
+    private byte[] deflate( final byte[] pData ) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(pData.length / 2 + HEADER_SIZE);
+        writeLength(out, pData.length);
+
+        deflater.reset();
+        deflater.setInput(pData);
+        deflater.finish();
+        final byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            final int count = deflater.deflate(buffer);
+            out.write(buffer, 0, count);
+            if (out.size() >= pData.length + HEADER_SIZE) {
+                // does not compress, store it as it is
+                final ByteArrayOutputStream stored = new ByteArrayOutputStream(pData.length + HEADER_SIZE);
+                writeLength(stored, STORED);
+                stored.write(pData, 0, pData.length);
+                return stored.toByteArray();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate( final String pResourceName, final byte[] pCompressed ) {
+        final int length = readLength(pCompressed);
+        if (length == STORED) {
+            final byte[] data = new byte[pCompressed.length - HEADER_SIZE];
+            System.arraycopy(pCompressed, HEADER_SIZE, data, 0, data.length);
+            return data;
+        }
+
+        final byte[] data = new byte[length];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(pCompressed, HEADER_SIZE, pCompressed.length - HEADER_SIZE);
+            int offset = 0;
+            while (offset < length) {
+                final int count = inflater.inflate(data, offset, length - offset);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += count;
+            }
+            if (offset != length) {
+                throw new IllegalStateException("truncated resource " + pResourceName);
+            }
+            return data;
+        } catch (final DataFormatException e) {
+            throw new IllegalStateException("corrupt resource " + pResourceName, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeLength( final ByteArrayOutputStream pOut, final int pLength ) {
+        pOut.write(pLength >>> 24);
+        pOut.write(pLength >>> 16);
+        pOut.write(pLength >>> 8);
+        pOut.write(pLength);
+    }
+
+    private static int readLength( final byte[] pData ) {
+        return (pData[0] & 0xff) << 24
+             | (pData[1] & 0xff) << 16
+             | (pData[2] & 0xff) << 8
+             | pData[3] & 0xff;
+    }
+
+    @Override
+    public String toString() {
+        return store.toString();
+    }
+}
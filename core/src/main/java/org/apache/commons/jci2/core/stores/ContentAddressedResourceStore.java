@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.jci2.core.utils.ResourceIndex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Store in memory that keeps the data in a shared {@link BlobPool}
+ *
+ * The store itself only maps the names to the pooled content. Class files
+ * that did not change from one reload to the next, or that are the same
+ * for many stores, are kept once. Reads hand out copies (or read-only
+ * views) so no store can change the data shared with the others. Calling
+ * {@link #clear()} before dropping a store releases its references right
+ * away, otherwise the pool releases them after garbage collection.
+ * Reads never lock, changes are serialized so the names and the package
+ * index stay in sync.
+ *
+ * @author tcurdt
+ */
+public final class ContentAddressedResourceStore implements ResourceStore {
+
+    private final Log log = LogFactory.getLog(ContentAddressedResourceStore.class);
+
+    private final BlobPool pool;
+    private final Map<String, BlobPool.Blob> store = new ConcurrentHashMap<>();
+    private final ResourceIndex index = new ResourceIndex();
+    // serializes the changes of the names and the index
+    private final Object lock = new Object();
+
+    public ContentAddressedResourceStore() {
+        this(BlobPool.getDefault());
+    }
+
+    public ContentAddressedResourceStore( final BlobPool pPool ) {
+        pool = pPool;
+        pool.register(this, store);
+    }
+
+    @Override
+    public byte[] read( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("reading resource " + pResourceName);
+        }
+        final BlobPool.Blob blob = store.get(pResourceName);
+        return blob != null ? blob.data.clone() : null;
+    }
+
+    @Override
+    public ByteBuffer readBuffer( final String pResourceName ) {
+        final BlobPool.Blob blob = store.get(pResourceName);
+        return blob != null ? ByteBuffer.wrap(blob.data).asReadOnlyBuffer() : null;
+    }
+
+    @Override
+    public void write( final String pResourceName, final byte[] pData ) {
+        if (log.isDebugEnabled()) {
+            log.debug("writing resource " + pResourceName + "(" + pData.length + ")");
+        }
+        final BlobPool.Blob blob = pool.acquire(pData);
+        final BlobPool.Blob previous;
+        synchronized (lock) {
+            previous = store.put(pResourceName, blob);
+            index.add(pResourceName);
+        }
+        if (previous != null) {
+            pool.release(previous);
+        }
+    }
+
+    @Override
+    public void remove( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("removing resource " + pResourceName);
+        }
+        final BlobPool.Blob previous;
+        synchronized (lock) {
+            previous = store.remove(pResourceName);
+            index.remove(pResourceName);
+        }
+        if (previous != null) {
+            pool.release(previous);
+        }
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        return store.containsKey(pResourceName);
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        final BlobPool.Blob blob = store.get(pResourceName);
+        return blob != null ? blob.data.length : -1;
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return index.isPackage(pPackageName);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return index.list(pPackageName);
+    }
+
+    /**
+     * Removes all resources and releases them in the pool.
+     */
+    public void clear() {
+        for (final String resourceName : store.keySet()) {
+            remove(resourceName);
+        }
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + store.keySet().toString();
+    }
+}
@@ -17,32 +17,262 @@
 
 package org.apache.commons.jci2.core.stores;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
  * Stores the results on disk
  *
+ * In mapped mode the files are memory mapped on first read and
+ * {@link #readBuffer(String)} hands out views of the cached mappings,
+ * so classes get defined straight from the page cache. Writes then go
+ * to a temporary file that gets renamed into place, so existing mappings
+ * keep pointing to the old content instead of a truncated file. Failed
+ * writes are thrown as {@link UncheckedIOException}. The files
+ * should only be changed through the store. Only the most recently read
+ * mappings are cached (see {@link #DEFAULT_MAX_MAPPINGS}), the others are
+ * released by the garbage collector like any other buffer, so a large
+ * number of resources does not exhaust the mappings of the process.
+ *
+ * Batches (see {@link #writeAll(Map)}) are always written to temporary
+ * files that are renamed into place, so concurrent readers never see a
+ * truncated resource.
+ *
+ * In durable mode every write goes to a temporary file that is forced to
+ * disk and then atomically renamed into place, so readers and crashes
+ * never see a partially written resource. Batches are forced in groups
+ * and renamed afterwards, the directories are synced once per batch.
+ * Failures are thrown as {@link UncheckedIOException} instead of being
+ * ignored.
+ *
  * @author tcurdt
  */
 public final class FileResourceStore implements ResourceStore {
 
+    public static final int DEFAULT_MAX_MAPPINGS = 1024;
+
+    private final Log log = LogFactory.getLog(FileResourceStore.class);
+
+    // bounds the open files while writing a batch
+    private static final int MAX_UNSYNCED = 64;
+
     private final File root;
+    private final Map<String, ByteBuffer> mappings;
+    // guarded by mappings, protects the cache from stale mappings
+    private long modifications;
+    private final boolean durable;
 
     public FileResourceStore( final File pFile ) {
+        this(pFile, false);
+    }
+
+    /**
+     * @param pFile the root directory
+     * @param pMapped whether to memory map the files on read
+     */
+    public FileResourceStore( final File pFile, final boolean pMapped ) {
+        this(pFile, pMapped, false);
+    }
+
+    /**
+     * @param pFile the root directory
+     * @param pMapped whether to memory map the files on read
+     * @param pDurable whether to replace files atomically and force them to disk
+     */
+    public FileResourceStore( final File pFile, final boolean pMapped, final boolean pDurable ) {
+        this(pFile, pMapped, pDurable, DEFAULT_MAX_MAPPINGS);
+    }
+
+    /**
+     * @param pFile the root directory
+     * @param pMapped whether to memory map the files on read
+     * @param pDurable whether to replace files atomically and force them to disk
+     * @param pMaxMappings how many mappings to keep cached in mapped mode
+     */
+    public FileResourceStore( final File pFile, final boolean pMapped, final boolean pDurable, final int pMaxMappings ) {
         root = pFile;
+        mappings = pMapped ? new LinkedHashMap<String, ByteBuffer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( final Map.Entry<String, ByteBuffer> pEldest ) {
+                return size() > pMaxMappings;
+            }
+        } : null;
+        durable = pDurable;
+    }
+
+    public boolean isMapped() {
+        return mappings != null;
+    }
+
+    public boolean isDurable() {
+        return durable;
+    }
+
+    @Override
+    public ByteBuffer readBuffer( final String pResourceName ) {
+        if (mappings == null) {
+            final byte[] data = read(pResourceName);
+            return data != null ? ByteBuffer.wrap(data) : null;
+        }
+        final long modification;
+        synchronized (mappings) {
+            final ByteBuffer mapping = mappings.get(pResourceName);
+            if (mapping != null) {
+                return mapping.duplicate();
+            }
+            modification = modifications;
+        }
+
+        final ByteBuffer mapping;
+        try {
+            mapping = map(pResourceName);
+        } catch (final UncheckedIOException e) {
+            log.error("could not map " + pResourceName, e);
+            return null;
+        }
+        if (mapping == null) {
+            return null;
+        }
+
+        synchronized (mappings) {
+            if (modification == modifications) {
+                mappings.put(pResourceName, mapping);
+            }
+        }
+        return mapping.duplicate();
+    }
+
+    private void invalidate( final String pResourceName ) {
+        if (mappings != null) {
+            synchronized (mappings) {
+                mappings.remove(pResourceName);
+                modifications++;
+            }
+        }
+    }
+
+    private void invalidate( final Collection<String> pResourceNames ) {
+        if (mappings != null) {
+            synchronized (mappings) {
+                mappings.keySet().removeAll(pResourceNames);
+                modifications++;
+            }
+        }
+    }
+
+    private ByteBuffer map( final String pResourceName ) {
+        final File file = getFile(pResourceName);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel got closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream openStream( final String pResourceName ) throws IOException {
+        if (mappings != null) {
+            return ResourceStore.super.openStream(pResourceName);
+        }
+        try {
+            return new FileInputStream(getFile(pResourceName));
+        } catch (final FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public ReadableByteChannel openChannel( final String pResourceName ) throws IOException {
+        if (mappings != null) {
+            return ResourceStore.super.openChannel(pResourceName);
+        }
+        try {
+            return FileChannel.open(getFile(pResourceName).toPath(), StandardOpenOption.READ);
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        final File file = getFile(pResourceName);
+        return file.isFile() ? file.length() : -1;
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        return getFile(pResourceName).isFile();
+    }
+
+    /**
+     * The directories are the index.
+     */
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return getFile(pPackageName).isDirectory();
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        final File[] files = getFile(pPackageName).listFiles(File::isFile);
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        final List<String> resourceNames = new ArrayList<>(files.length);
+        for (final File file : files) {
+            if (file.getName().startsWith(".") && file.getName().endsWith(".tmp")) {
+                // on its way into place
+                continue;
+            }
+            resourceNames.add(pPackageName.isEmpty() ? file.getName() : pPackageName + '/' + file.getName());
+        }
+        return resourceNames;
     }
 
     @Override
     public byte[] read( final String pResourceName ) {
+        if (mappings != null) {
+            final ByteBuffer buffer = readBuffer(pResourceName);
+            if (buffer == null) {
+                return null;
+            }
+            final byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            return data;
+        }
         InputStream is = null;
         try {
             is = new FileInputStream(getFile(pResourceName));
@@ -57,6 +287,16 @@ public final class FileResourceStore implements ResourceStore {
 
     @Override
     public void write( final String pResourceName, final byte[] pData ) {
+        if (mappings != null || durable) {
+            try {
+                replace(getFile(pResourceName), new ByteArrayInputStream(pData), durable);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                invalidate(pResourceName);
+            }
+            return;
+        }
         OutputStream os = null;
         try {
             final File file = getFile(pResourceName);
@@ -73,9 +313,206 @@ public final class FileResourceStore implements ResourceStore {
         }
     }
 
+    /**
+     * Streams the data to disk without buffering the whole resource.
+     */
+    @Override
+    public void write( final String pResourceName, final InputStream pData ) throws IOException {
+        final File file = getFile(pResourceName);
+        if (mappings != null || durable) {
+            try {
+                replace(file, pData, durable);
+            } finally {
+                invalidate(pResourceName);
+            }
+            return;
+        }
+        final File parent = file.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("could not create" + parent);
+        }
+        try (OutputStream os = new FileOutputStream(file)) {
+            IOUtils.copy(pData, os);
+        }
+    }
+
+    /**
+     * Writes the batch to temporary files that are then renamed into
+     * place, so concurrent readers never see a truncated resource. Only
+     * durable mode forces the files and directories to disk. Failures
+     * are reported like those of {@link #write(String, byte[])}, thrown
+     * as {@link UncheckedIOException} in mapped or durable mode and only
+     * logged otherwise.
+     */
+    @Override
+    public void writeAll( final Map<String, byte[]> pResources ) {
+        try {
+            replaceAll(pResources, durable);
+        } catch (final IOException e) {
+            if (mappings != null || durable) {
+                throw new UncheckedIOException(e);
+            }
+            log.error("could not write " + pResources.size() + " resources to " + root, e);
+        } finally {
+            invalidate(pResources.keySet());
+        }
+    }
+
+    private static void syncDirectory( final File pDirectory ) {
+        try (FileChannel channel = FileChannel.open(pDirectory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final IOException e) {
+            // not every platform allows to sync a directory
+        }
+    }
+
+    private static void replace( final File pFile, final InputStream pData, final boolean pForce ) throws IOException {
+        final File parent = pFile.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("could not create" + parent);
+        }
+        final File tmp = File.createTempFile("." + pFile.getName() + ".", ".tmp", parent);
+        try {
+            try (FileOutputStream os = new FileOutputStream(tmp)) {
+                IOUtils.copy(pData, os);
+                if (pForce) {
+                    os.getFD().sync();
+                }
+            }
+            move(tmp, pFile);
+        } finally {
+            tmp.delete();
+        }
+        if (pForce) {
+            syncDirectory(parent);
+        }
+    }
+
+    /**
+     * Writes all temporary files first, forces them in groups (if asked
+     * to) and only then renames them into place.
+     */
+    private void replaceAll( final Map<String, byte[]> pResources, final boolean pForce ) throws IOException {
+        final Map<File, File> renames = new LinkedHashMap<>();
+        final Set<File> directories = new LinkedHashSet<>();
+        final List<FileChannel> unsynced = new ArrayList<>();
+        try {
+            for (final Map.Entry<String, byte[]> entry : pResources.entrySet()) {
+                final File file = getFile(entry.getKey());
+                final File parent = file.getParentFile();
+                if (directories.add(parent) && !parent.mkdirs() && !parent.isDirectory()) {
+                    throw new IOException("could not create" + parent);
+                }
+                final File tmp = File.createTempFile("." + file.getName() + ".", ".tmp", parent);
+                renames.put(tmp, file);
+
+                if (!pForce) {
+                    try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                        write(channel, entry.getValue());
+                    }
+                    continue;
+                }
+
+                final FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE);
+                unsynced.add(channel);
+                write(channel, entry.getValue());
+                if (unsynced.size() >= MAX_UNSYNCED) {
+                    force(unsynced);
+                }
+            }
+            force(unsynced);
+
+            for (final Map.Entry<File, File> rename : renames.entrySet()) {
+                move(rename.getKey(), rename.getValue());
+            }
+        } finally {
+            for (final FileChannel channel : unsynced) {
+                IOUtils.closeQuietly(channel);
+            }
+            for (final File tmp : renames.keySet()) {
+                tmp.delete();
+            }
+        }
+        if (pForce) {
+            for (final File directory : directories) {
+                syncDirectory(directory);
+            }
+        }
+    }
+
+    private static void write( final FileChannel pChannel, final byte[] pData ) throws IOException {
+        final ByteBuffer data = ByteBuffer.wrap(pData);
+        while (data.hasRemaining()) {
+            pChannel.write(data);
+        }
+    }
+
+    private static void force( final List<FileChannel> pChannels ) throws IOException {
+        try {
+            for (final FileChannel channel : pChannels) {
+                channel.force(false);
+            }
+        } finally {
+            for (final FileChannel channel : pChannels) {
+                IOUtils.closeQuietly(channel);
+            }
+            pChannels.clear();
+        }
+    }
+
+    private static void move( final File pSource, final File pTarget ) throws IOException {
+        try {
+            Files.move(pSource.toPath(), pTarget.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(pSource.toPath(), pTarget.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     @Override
     public void remove( final String pResourceName ) {
-        getFile(pResourceName).delete();
+        final File file = getFile(pResourceName);
+        if (durable) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                invalidate(pResourceName);
+            }
+            syncDirectory(file.getParentFile());
+            return;
+        }
+        file.delete();
+        invalidate(pResourceName);
+    }
+
+    /**
+     * In durable mode the directories are synced once for the batch.
+     */
+    @Override
+    public void removeAll( final Collection<String> pResourceNames ) {
+        if (!durable) {
+            ResourceStore.super.removeAll(pResourceNames);
+            return;
+        }
+        final Set<File> directories = new LinkedHashSet<>();
+        try {
+            for (final String resourceName : pResourceNames) {
+                final File file = getFile(resourceName);
+                try {
+                    Files.deleteIfExists(file.toPath());
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    invalidate(resourceName);
+                }
+                directories.add(file.getParentFile());
+            }
+        } finally {
+            for (final File directory : directories) {
+                syncDirectory(directory);
+            }
+        }
     }
 
     private File getFile( final String pResourceName ) {
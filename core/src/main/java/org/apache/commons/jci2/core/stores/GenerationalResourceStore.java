@@ -0,0 +1,429 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.util.Collection;
+
+import org.apache.commons.jci2.core.utils.ResourceIndex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Multi-version store based on a persistent hash array mapped trie
+ *
+ * Every write creates a new version of the trie that shares all
+ * untouched nodes with the previous one. {@link #snapshot()} hands out
+ * an immutable view of the current version. The ReloadingClassLoader
+ * gives every classloader generation its own snapshot, so a loader
+ * resolving classes lazily never sees the bytes of the next generation.
+ * Snapshots are plain objects and get garbage collected together with
+ * their loader.
+ *
+ * Reads never lock, writes are serialized. The package queries of a
+ * snapshot index its version on first use.
+ *
+ * @author tcurdt
+ */
+public final class GenerationalResourceStore implements ResourceStore {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Log log = LogFactory.getLog(GenerationalResourceStore.class);
+
+    private abstract static class Node {
+        abstract byte[] get( final String pKey, final int pHash, final int pShift );
+        abstract Node put( final String pKey, final int pHash, final byte[] pValue, final int pShift );
+        // returns null once the node is empty
+        abstract Node remove( final String pKey, final int pHash, final int pShift );
+        abstract int hash();
+        abstract void collect( final ResourceIndex pIndex );
+    }
+
+    private static final class Leaf extends Node {
+        private final String key;
+        private final int hash;
+        private final byte[] value;
+
+        private Leaf( final String pKey, final int pHash, final byte[] pValue ) {
+            key = pKey;
+            hash = pHash;
+            value = pValue;
+        }
+
+        @Override
+        byte[] get( final String pKey, final int pHash, final int pShift ) {
+            return hash == pHash && key.equals(pKey) ? value : null;
+        }
+
+        @Override
+        Node put( final String pKey, final int pHash, final byte[] pValue, final int pShift ) {
+            final Leaf leaf = new Leaf(pKey, pHash, pValue);
+            if (hash != pHash) {
+                return merge(this, leaf, pShift);
+            }
+            if (key.equals(pKey)) {
+                return leaf;
+            }
+            return new Collision(hash, new Leaf[] { this, leaf });
+        }
+
+        @Override
+        Node remove( final String pKey, final int pHash, final int pShift ) {
+            return hash == pHash && key.equals(pKey) ? null : this;
+        }
+
+        @Override
+        int hash() {
+            return hash;
+        }
+
+        @Override
+        void collect( final ResourceIndex pIndex ) {
+            pIndex.add(key);
+        }
+    }
+
+    private static final class Collision extends Node {
+        private final int hash;
+        private final Leaf[] leaves;
+
+        private Collision( final int pHash, final Leaf[] pLeaves ) {
+            hash = pHash;
+            leaves = pLeaves;
+        }
+
+        private int indexOf( final String pKey ) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].key.equals(pKey)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        byte[] get( final String pKey, final int pHash, final int pShift ) {
+            if (hash != pHash) {
+                return null;
+            }
+            final int i = indexOf(pKey);
+            return i < 0 ? null : leaves[i].value;
+        }
+
+        @Override
+        Node put( final String pKey, final int pHash, final byte[] pValue, final int pShift ) {
+            final Leaf leaf = new Leaf(pKey, pHash, pValue);
+            if (hash != pHash) {
+                return merge(this, leaf, pShift);
+            }
+            final int i = indexOf(pKey);
+            final Leaf[] copy;
+            if (i < 0) {
+                copy = new Leaf[leaves.length + 1];
+                System.arraycopy(leaves, 0, copy, 0, leaves.length);
+                copy[leaves.length] = leaf;
+            } else {
+                copy = leaves.clone();
+                copy[i] = leaf;
+            }
+            return new Collision(hash, copy);
+        }
+
+        @Override
+        Node remove( final String pKey, final int pHash, final int pShift ) {
+            final int i = hash == pHash ? indexOf(pKey) : -1;
+            if (i < 0) {
+                return this;
+            }
+            if (leaves.length == 2) {
+                return leaves[1 - i];
+            }
+            final Leaf[] copy = new Leaf[leaves.length - 1];
+            System.arraycopy(leaves, 0, copy, 0, i);
+            System.arraycopy(leaves, i + 1, copy, i, copy.length - i);
+            return new Collision(hash, copy);
+        }
+
+        @Override
+        int hash() {
+            return hash;
+        }
+
+        @Override
+        void collect( final ResourceIndex pIndex ) {
+            for (final Leaf leaf : leaves) {
+                pIndex.add(leaf.key);
+            }
+        }
+    }
+
+    private static final class Branch extends Node {
+        private final int bitmap;
+        private final Node[] children;
+
+        private Branch( final int pBitmap, final Node[] pChildren ) {
+            bitmap = pBitmap;
+            children = pChildren;
+        }
+
+        @Override
+        byte[] get( final String pKey, final int pHash, final int pShift ) {
+            final int bit = 1 << ((pHash >>> pShift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            return children[Integer.bitCount(bitmap & (bit - 1))].get(pKey, pHash, pShift + BITS);
+        }
+
+        @Override
+        Node put( final String pKey, final int pHash, final byte[] pValue, final int pShift ) {
+            final int bit = 1 << ((pHash >>> pShift) & MASK);
+            final int i = Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                final Node[] copy = new Node[children.length + 1];
+                System.arraycopy(children, 0, copy, 0, i);
+                copy[i] = new Leaf(pKey, pHash, pValue);
+                System.arraycopy(children, i, copy, i + 1, children.length - i);
+                return new Branch(bitmap | bit, copy);
+            }
+            final Node[] copy = children.clone();
+            copy[i] = children[i].put(pKey, pHash, pValue, pShift + BITS);
+            return new Branch(bitmap, copy);
+        }
+
+        @Override
+        Node remove( final String pKey, final int pHash, final int pShift ) {
+            final int bit = 1 << ((pHash >>> pShift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            final int i = Integer.bitCount(bitmap & (bit - 1));
+            final Node child = children[i].remove(pKey, pHash, pShift + BITS);
+            if (child == children[i]) {
+                return this;
+            }
+            if (child != null) {
+                if (children.length == 1 && !(child instanceof Branch)) {
+                    return child;
+                }
+                final Node[] copy = children.clone();
+                copy[i] = child;
+                return new Branch(bitmap, copy);
+            }
+            if (children.length == 1) {
+                return null;
+            }
+            if (children.length == 2 && !(children[1 - i] instanceof Branch)) {
+                // leaves and collisions do not depend on the level
+                return children[1 - i];
+            }
+            final Node[] copy = new Node[children.length - 1];
+            System.arraycopy(children, 0, copy, 0, i);
+            System.arraycopy(children, i + 1, copy, i, copy.length - i);
+            return new Branch(bitmap & ~bit, copy);
+        }
+
+        @Override
+        int hash() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        void collect( final ResourceIndex pIndex ) {
+            for (final Node child : children) {
+                child.collect(pIndex);
+            }
+        }
+    }
+
+    private static Node merge( final Node pFirst, final Node pSecond, final int pShift ) {
+        final int first = (pFirst.hash() >>> pShift) & MASK;
+        final int second = (pSecond.hash() >>> pShift) & MASK;
+        if (first == second) {
+            return new Branch(1 << first, new Node[] { merge(pFirst, pSecond, pShift + BITS) });
+        }
+        return new Branch((1 << first) | (1 << second), first < second
+                ? new Node[] { pFirst, pSecond }
+                : new Node[] { pSecond, pFirst });
+    }
+
+    private static byte[] get( final Node pRoot, final String pKey ) {
+        return pRoot == null ? null : pRoot.get(pKey, pKey.hashCode(), 0);
+    }
+
+    private static final class Snapshot implements ResourceStore {
+        private final Node root;
+        private final long generation;
+        private volatile ResourceIndex index;
+
+        private Snapshot( final Node pRoot, final long pGeneration ) {
+            root = pRoot;
+            generation = pGeneration;
+        }
+
+        @Override
+        public byte[] read( final String pResourceName ) {
+            return get(root, pResourceName);
+        }
+
+        @Override
+        public boolean exists( final String pResourceName ) {
+            return get(root, pResourceName) != null;
+        }
+
+        @Override
+        public long size( final String pResourceName ) {
+            final byte[] data = get(root, pResourceName);
+            return data != null ? data.length : -1;
+        }
+
+        @Override
+        public boolean isPackage( final String pPackageName ) {
+            return getIndex().isPackage(pPackageName);
+        }
+
+        @Override
+        public Collection<String> listPackage( final String pPackageName ) {
+            return getIndex().list(pPackageName);
+        }
+
+        private ResourceIndex getIndex() {
+            ResourceIndex result = index;
+            if (result == null) {
+                result = new ResourceIndex();
+                if (root != null) {
+                    root.collect(result);
+                }
+                index = result;
+            }
+            return result;
+        }
+
+        @Override
+        public void write( final String pResourceName, final byte[] pResourceData ) {
+            throw new UnsupportedOperationException("snapshots are read-only");
+        }
+
+        @Override
+        public void remove( final String pResourceName ) {
+            throw new UnsupportedOperationException("snapshots are read-only");
+        }
+
+        @Override
+        public ResourceStore snapshot() {
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return GenerationalResourceStore.class.getName() + "@" + generation;
+        }
+    }
+
+    private volatile Node root;
+    private volatile long generation;
+    private int size;
+    private final ResourceIndex index = new ResourceIndex();
+
+    @Override
+    public byte[] read( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("reading resource " + pResourceName);
+        }
+        return get(root, pResourceName);
+    }
+
+    @Override
+    public synchronized void write( final String pResourceName, final byte[] pData ) {
+        if (log.isDebugEnabled()) {
+            log.debug("writing resource " + pResourceName + "(" + pData.length + ")");
+        }
+        if (get(root, pResourceName) == null) {
+            size++;
+        }
+        final int hash = pResourceName.hashCode();
+        root = root == null ? new Leaf(pResourceName, hash, pData) : root.put(pResourceName, hash, pData, 0);
+        index.add(pResourceName);
+        generation++;
+    }
+
+    @Override
+    public synchronized void remove( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("removing resource " + pResourceName);
+        }
+        if (root == null) {
+            return;
+        }
+        final Node newRoot = root.remove(pResourceName, pResourceName.hashCode(), 0);
+        if (newRoot != root) {
+            root = newRoot;
+            index.remove(pResourceName);
+            size--;
+            generation++;
+        }
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        return get(root, pResourceName) != null;
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        final byte[] data = get(root, pResourceName);
+        return data != null ? data.length : -1;
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return index.isPackage(pPackageName);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return index.list(pPackageName);
+    }
+
+    /**
+     * @return an immutable view of the current version
+     */
+    @Override
+    public ResourceStore snapshot() {
+        synchronized (this) {
+            return new Snapshot(root, generation);
+        }
+    }
+
+    /**
+     * @return the number of changes so far
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + "@" + generation;
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An InstrumentedResourceStore counts and times the calls to another
+ * store, e.g. to see how often a ResourceStoreClassLoader probes a store
+ * in vain or how slow the reads of a FileResourceStore are.
+ *
+ * All counters are striped (see {@link LongAdder}) so concurrent class
+ * loading does not contend on them. The hot resources are tracked for
+ * the first {@link #MAX_TRACKED_RESOURCES} distinct names that were hit.
+ * See {@link #register(String)} for publishing the metrics via JMX.
+ *
+ * @author tcurdt
+ */
+public final class InstrumentedResourceStore implements ResourceStore, InstrumentedResourceStoreMXBean {
+
+    public static final int MAX_TRACKED_RESOURCES = 10000;
+
+    private static final long[] BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 50000, 100000 };
+
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private final Log log = LogFactory.getLog(InstrumentedResourceStore.class);
+
+    private static final class Metrics {
+        private final int topResources;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder writes = new LongAdder();
+        private final LongAdder removes = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final LongAdder readNanos = new LongAdder();
+        private final LongAdder writeNanos = new LongAdder();
+        private final LongAccumulator maxReadNanos = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator maxWriteNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] readHistogram = histogram();
+        private final LongAdder[] writeHistogram = histogram();
+        private final Map<String, LongAdder> resources = new ConcurrentHashMap<>();
+
+        private Metrics( final int pTopResources ) {
+            topResources = pTopResources;
+        }
+
+        private static LongAdder[] histogram() {
+            final LongAdder[] histogram = new LongAdder[BUCKETS.length + 1];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+            return histogram;
+        }
+    }
+
+    private final ResourceStore store;
+    private final Metrics metrics;
+    private ObjectName objectName;
+
+    public InstrumentedResourceStore( final ResourceStore pStore ) {
+        this(pStore, 10);
+    }
+
+    /**
+     * @param pStore the store to instrument
+     * @param pTopResources how many hot resources to report
+     */
+    public InstrumentedResourceStore( final ResourceStore pStore, final int pTopResources ) {
+        this(pStore, new Metrics(pTopResources));
+    }
+
+    private InstrumentedResourceStore( final ResourceStore pStore, final Metrics pMetrics ) {
+        store = pStore;
+        metrics = pMetrics;
+    }
+
+    public ResourceStore getWrappedStore() {
+        return store;
+    }
+
+    @Override
+    public byte[] read( final String pResourceName ) {
+        final long start = System.nanoTime();
+        final byte[] data = store.read(pResourceName);
+        recordRead(pResourceName, data != null ? data.length : -1, System.nanoTime() - start);
+        return data;
+    }
+
+    @Override
+    public ByteBuffer readBuffer( final String pResourceName ) {
+        final long start = System.nanoTime();
+        final ByteBuffer data = store.readBuffer(pResourceName);
+        recordRead(pResourceName, data != null ? data.remaining() : -1, System.nanoTime() - start);
+        return data;
+    }
+
+    @Override
+    public InputStream openStream( final String pResourceName ) throws IOException {
+        final long start = System.nanoTime();
+        final InputStream is = store.openStream(pResourceName);
+        recordRead(pResourceName, is != null ? 0 : -1, System.nanoTime() - start);
+        return is;
+    }
+
+    @Override
+    public Map<String, byte[]> readAll( final Collection<String> pResourceNames ) {
+        final long start = System.nanoTime();
+        final Map<String, byte[]> resources = store.readAll(pResourceNames);
+        final long nanos = (System.nanoTime() - start) / Math.max(1, pResourceNames.size());
+        for (final String resourceName : pResourceNames) {
+            final byte[] data = resources.get(resourceName);
+            recordRead(resourceName, data != null ? data.length : -1, nanos);
+        }
+        return resources;
+    }
+
+    @Override
+    public ReadableByteChannel openChannel( final String pResourceName ) throws IOException {
+        return store.openChannel(pResourceName);
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        return store.size(pResourceName);
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        return store.exists(pResourceName);
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return store.isPackage(pPackageName);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return store.listPackage(pPackageName);
+    }
+
+    @Override
+    public void write( final String pResourceName, final byte[] pResourceData ) {
+        final long start = System.nanoTime();
+        store.write(pResourceName, pResourceData);
+        recordWrite(1, pResourceData.length, System.nanoTime() - start);
+    }
+
+    @Override
+    public void write( final String pResourceName, final InputStream pData ) throws IOException {
+        final long start = System.nanoTime();
+        final BoundedInputStream counting = BoundedInputStream.builder().setInputStream(pData).get();
+        store.write(pResourceName, counting);
+        recordWrite(1, counting.getCount(), System.nanoTime() - start);
+    }
+
+    @Override
+    public void writeAll( final Map<String, byte[]> pResources ) {
+        final long start = System.nanoTime();
+        store.writeAll(pResources);
+        long bytes = 0;
+        for (final byte[] data : pResources.values()) {
+            bytes += data.length;
+        }
+        recordWrite(pResources.size(), bytes, System.nanoTime() - start);
+    }
+
+    @Override
+    public void remove( final String pResourceName ) {
+        final long start = System.nanoTime();
+        store.remove(pResourceName);
+        recordRemove(1, System.nanoTime() - start);
+    }
+
+    @Override
+    public void removeAll( final Collection<String> pResourceNames ) {
+        final long start = System.nanoTime();
+        store.removeAll(pResourceNames);
+        recordRemove(pResourceNames.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * The snapshot reports to the same metrics.
+     */
+    @Override
+    public ResourceStore snapshot() {
+        final ResourceStore snapshot = store.snapshot();
+        return snapshot != store ? new InstrumentedResourceStore(snapshot, metrics) : this;
+    }
+
+    private void recordRead( final String pResourceName, final long pBytes, final long pNanos ) {
+        if (pBytes < 0) {
+            metrics.misses.increment();
+        } else {
+            metrics.hits.increment();
+            metrics.bytesRead.add(pBytes);
+
+            LongAdder count = metrics.resources.get(pResourceName);
+            if (count == null && metrics.resources.size() < MAX_TRACKED_RESOURCES) {
+                count = metrics.resources.computeIfAbsent(pResourceName, k -> new LongAdder());
+            }
+            if (count != null) {
+                count.increment();
+            }
+        }
+        metrics.readNanos.add(pNanos);
+        metrics.maxReadNanos.accumulate(pNanos);
+        metrics.readHistogram[bucket(pNanos)].increment();
+    }
+
+    private void recordWrite( final int pCount, final long pBytes, final long pNanos ) {
+        metrics.writes.add(pCount);
+        metrics.bytesWritten.add(pBytes);
+        recordWriteNanos(pNanos);
+    }
+
+    private void recordRemove( final int pCount, final long pNanos ) {
+        metrics.removes.add(pCount);
+        recordWriteNanos(pNanos);
+    }
+
+    private void recordWriteNanos( final long pNanos ) {
+        metrics.writeNanos.add(pNanos);
+        metrics.maxWriteNanos.accumulate(pNanos);
+        metrics.writeHistogram[bucket(pNanos)].increment();
+    }
+
+    private static int bucket( final long pNanos ) {
+        final long micros = pNanos / NANOS_PER_MICRO;
+        int bucket = 0;
+        while (bucket < BUCKETS.length && micros > BUCKETS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static long[] sum( final LongAdder[] pHistogram ) {
+        final long[] result = new long[pHistogram.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = pHistogram[i].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public String getStoreName() {
+        return store.toString();
+    }
+
+    @Override
+    public long getReads() {
+        return metrics.hits.sum() + metrics.misses.sum();
+    }
+
+    @Override
+    public long getHits() {
+        return metrics.hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return metrics.misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hits = metrics.hits.sum();
+        final long reads = hits + metrics.misses.sum();
+        return reads > 0 ? (double) hits / reads : 0;
+    }
+
+    @Override
+    public long getWrites() {
+        return metrics.writes.sum();
+    }
+
+    @Override
+    public long getRemoves() {
+        return metrics.removes.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return metrics.bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return metrics.bytesWritten.sum();
+    }
+
+    @Override
+    public long[] getLatencyBuckets() {
+        return BUCKETS.clone();
+    }
+
+    @Override
+    public long[] getReadLatencyHistogram() {
+        return sum(metrics.readHistogram);
+    }
+
+    @Override
+    public long[] getWriteLatencyHistogram() {
+        return sum(metrics.writeHistogram);
+    }
+
+    @Override
+    public long getTotalReadMicros() {
+        return metrics.readNanos.sum() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getMaxReadMicros() {
+        return metrics.maxReadNanos.get() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getTotalWriteMicros() {
+        return metrics.writeNanos.sum() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getMaxWriteMicros() {
+        return metrics.maxWriteNanos.get() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public Map<String, Long> getHotResources() {
+        final List<Map.Entry<String, Long>> counts = new ArrayList<>();
+        for (final Map.Entry<String, LongAdder> entry : metrics.resources.entrySet()) {
+            counts.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().sum()));
+        }
+        counts.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (final Map.Entry<String, Long> entry : counts.subList(0, Math.min(metrics.topResources, counts.size()))) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        metrics.hits.reset();
+        metrics.misses.reset();
+        metrics.writes.reset();
+        metrics.removes.reset();
+        metrics.bytesRead.reset();
+        metrics.bytesWritten.reset();
+        metrics.readNanos.reset();
+        metrics.writeNanos.reset();
+        metrics.maxReadNanos.reset();
+        metrics.maxWriteNanos.reset();
+        for (final LongAdder bucket : metrics.readHistogram) {
+            bucket.reset();
+        }
+        for (final LongAdder bucket : metrics.writeHistogram) {
+            bucket.reset();
+        }
+        metrics.resources.clear();
+    }
+
+    public static ObjectName getObjectName( final String pName ) throws MalformedObjectNameException {
+        return new ObjectName("org.apache.commons.jci2:type=ResourceStore,name=" + ObjectName.quote(pName));
+    }
+
+    /**
+     * Publishes the metrics as {@link InstrumentedResourceStoreMXBean}
+     * on the platform MBeanServer (see {@link #getObjectName(String)}).
+     */
+    public synchronized void register( final String pName ) {
+        unregister();
+        try {
+            final ObjectName name = getObjectName(pName);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (final JMException e) {
+            log.warn("could not publish metrics for " + store, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+        } catch (final JMException e) {
+            log.warn("could not unpublish metrics for " + store, e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + "[" + store + "]";
+    }
+}
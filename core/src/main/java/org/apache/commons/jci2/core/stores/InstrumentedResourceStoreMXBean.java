@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing how a store is used and how fast
+ * it answers.
+ *
+ * @author tcurdt
+ */
+public interface InstrumentedResourceStoreMXBean {
+
+    String getStoreName();
+
+    /**
+     * @return number of lookups (read, readBuffer, openStream and every resource of readAll)
+     */
+    long getReads();
+    long getHits();
+    long getMisses();
+    double getHitRatio();
+
+    long getWrites();
+    long getRemoves();
+
+    /**
+     * @return bytes handed out by read, readBuffer and readAll
+     */
+    long getBytesRead();
+
+    /**
+     * @return bytes passed to write and writeAll
+     */
+    long getBytesWritten();
+
+    /**
+     * @return the upper bounds (inclusive, in microseconds) of the histogram buckets,
+     *         the last bucket of the histograms counts everything above
+     */
+    long[] getLatencyBuckets();
+    long[] getReadLatencyHistogram();
+    long[] getWriteLatencyHistogram();
+
+    long getTotalReadMicros();
+    long getMaxReadMicros();
+    long getTotalWriteMicros();
+    long getMaxWriteMicros();
+
+    /**
+     * @return the most read resources with their number of hits
+     */
+    Map<String, Long> getHotResources();
+
+    void reset();
+}
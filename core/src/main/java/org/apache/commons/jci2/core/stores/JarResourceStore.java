@@ -0,0 +1,452 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.commons.jci2.core.utils.ResourceIndex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Read-only store serving the entries of a jar or zip file
+ *
+ * The central directory gets parsed once into a hash index of the
+ * entry names. Entries are then read with positional reads through
+ * a single FileChannel shared by all threads, interrupting a reader
+ * does not close it for the others. Calling {@link #reload()}
+ * after the archive was replaced swaps in a fresh index and channel
+ * atomically, lookups in flight just retry on the new archive.
+ *
+ * Together with the ReloadingClassLoader this allows to mount and
+ * unmount library jars as stores.
+ *
+ * @author tcurdt
+ */
+public final class JarResourceStore implements ResourceStore, Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_HEADER_SIZE = 56;
+    private static final int MAX_COMMENT = 0xffff;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final Log log = LogFactory.getLog(JarResourceStore.class);
+
+    private static final class Entry {
+        private final int method;
+        private final long localHeaderOffset;
+        private final long compressedSize;
+        private final long size;
+        // resolved from the local header on first read
+        private volatile long dataOffset = -1;
+
+        private Entry( final int pMethod, final long pLocalHeaderOffset, final long pCompressedSize, final long pSize ) {
+            method = pMethod;
+            localHeaderOffset = pLocalHeaderOffset;
+            compressedSize = pCompressedSize;
+            size = pSize;
+        }
+    }
+
+    private static final class Archive {
+        private final FileChannel channel;
+        private final Map<String, Entry> entries;
+        private final ResourceIndex packages;
+        // identifies the file the index was read from
+        private final String stamp;
+
+        private Archive( final FileChannel pChannel, final Map<String, Entry> pEntries, final ResourceIndex pPackages, final String pStamp ) {
+            channel = pChannel;
+            entries = pEntries;
+            packages = pPackages;
+            stamp = pStamp;
+        }
+    }
+
+    private final File file;
+    private volatile Archive archive;
+    private volatile boolean closed;
+
+    public JarResourceStore( final File pFile ) throws IOException {
+        file = pFile;
+        archive = open();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of file entries in the archive
+     */
+    public int size() {
+        return archive.entries.size();
+    }
+
+    /**
+     * The interrupt status is cleared during the read and restored
+     * afterwards, so an interrupted thread neither closes the channel
+     * shared with the other readers nor fails to read itself.
+     */
+    @Override
+    public byte[] read( final String pResourceName ) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            for (int attempt = 0; attempt < 3; attempt++) {
+                if (closed) {
+                    return null;
+                }
+                final Archive current = archive;
+                final Entry entry = current.entries.get(pResourceName);
+                if (entry == null) {
+                    return null;
+                }
+                try {
+                    return read(current.channel, entry);
+                } catch (final ClosedByInterruptException e) {
+                    // interrupted while reading, retry on a new channel
+                    interrupted |= Thread.interrupted();
+                    reopen(current);
+                } catch (final ClosedChannelException e) {
+                    // replaced by a reload or closed by an interrupt of another reader
+                    reopen(current);
+                } catch (final IOException e) {
+                    log.error("could not read " + pResourceName + " from " + file, e);
+                    return null;
+                }
+            }
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Read already returns the one array holding the entry, the buffer
+     * just wraps it.
+     */
+    @Override
+    public ByteBuffer readBuffer( final String pResourceName ) {
+        final byte[] data = read(pResourceName);
+        return data != null ? ByteBuffer.wrap(data) : null;
+    }
+
+    /**
+     * Answered from the central directory without inflating the entry.
+     */
+    @Override
+    public long size( final String pResourceName ) {
+        final Entry entry = archive.entries.get(pResourceName);
+        return entry != null ? entry.size : -1;
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        return archive.entries.containsKey(pResourceName);
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return archive.packages.isPackage(pPackageName);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return archive.packages.list(pPackageName);
+    }
+
+    /**
+     * Indexes the archive again and atomically replaces the current index,
+     * e.g. after a new version of the archive was copied into place.
+     */
+    public void reload() throws IOException {
+        final Archive replacement = open();
+        final Archive previous;
+        synchronized (this) {
+            if (closed) {
+                replacement.channel.close();
+                throw new IOException(file + " is closed");
+            }
+            previous = archive;
+            archive = replacement;
+        }
+        previous.channel.close();
+        if (log.isDebugEnabled()) {
+            log.debug("reloaded " + file + " (" + replacement.entries.size() + " entries)");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        final Archive current;
+        synchronized (this) {
+            closed = true;
+            current = archive;
+        }
+        current.channel.close();
+    }
+
+    @Override
+    public void write( final String pResourceName, final byte[] pResourceData ) {
+        throw new UnsupportedOperationException(file + " is read-only");
+    }
+
+    @Override
+    public void remove( final String pResourceName ) {
+        throw new UnsupportedOperationException(file + " is read-only");
+    }
+
+    /**
+     * The index is only reused if the archive was not replaced in the
+     * meantime, otherwise the central directory is read again.
+     */
+    private synchronized void reopen( final Archive pArchive ) {
+        if (archive != pArchive || closed) {
+            return;
+        }
+        try {
+            final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                final String stamp = stamp(channel);
+                if (stamp.equals(pArchive.stamp)) {
+                    archive = new Archive(channel, pArchive.entries, pArchive.packages, stamp);
+                } else {
+                    log.debug(file + " changed, indexing it again");
+                    archive = open(channel, stamp);
+                }
+            } catch (final IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (final IOException e) {
+            log.error("could not reopen " + file, e);
+        }
+    }
+
+    private Archive open() throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return open(channel, stamp(channel));
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private Archive open( final FileChannel pChannel, final String pStamp ) throws IOException {
+        final Map<String, Entry> entries = index(pChannel);
+        final ResourceIndex packages = new ResourceIndex();
+        for (final String name : entries.keySet()) {
+            packages.add(name);
+        }
+        return new Archive(pChannel, entries, packages, pStamp);
+    }
+
+    private String stamp( final FileChannel pChannel ) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return attributes.fileKey() + ":" + pChannel.size() + ":" + attributes.lastModifiedTime().toMillis();
+    }
+
+    private Map<String, Entry> index( final FileChannel pChannel ) throws IOException {
+        final long length = pChannel.size();
+        final int tailLength = (int) Math.min(length, END_HEADER_SIZE + MAX_COMMENT);
+        final ByteBuffer tail = readFully(pChannel, length - tailLength, tailLength);
+
+        int end = tailLength - END_HEADER_SIZE;
+        while (end >= 0 && tail.getInt(end) != END_HEADER) {
+            end--;
+        }
+        if (end < 0) {
+            throw new IOException("no zip archive: " + file);
+        }
+
+        long count = tail.getShort(end + 10) & 0xffff;
+        long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+        long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+
+        final long endOffset = length - tailLength + end;
+        if (endOffset >= ZIP64_LOCATOR_SIZE) {
+            final ByteBuffer locator = readFully(pChannel, endOffset - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_LOCATOR) {
+                final ByteBuffer end64 = readFully(pChannel, locator.getLong(8), ZIP64_END_HEADER_SIZE);
+                if (end64.getInt(0) != ZIP64_END_HEADER) {
+                    throw new IOException("corrupt zip64 end header: " + file);
+                }
+                count = end64.getLong(32);
+                directorySize = end64.getLong(40);
+                directoryOffset = end64.getLong(48);
+            }
+        }
+
+        if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > endOffset) {
+            throw new IOException("corrupt central directory: " + file);
+        }
+
+        final ByteBuffer directory = readFully(pChannel, directoryOffset, (int) directorySize);
+        final Map<String, Entry> entries = new HashMap<>((int) Math.min(count, directorySize / CENTRAL_HEADER_SIZE) * 4 / 3 + 1);
+
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (position + CENTRAL_HEADER_SIZE > directorySize || directory.getInt(position) != CENTRAL_HEADER) {
+                throw new IOException("corrupt central directory: " + file);
+            }
+            final int flags = directory.getShort(position + 8) & 0xffff;
+            final int method = directory.getShort(position + 10) & 0xffff;
+            long compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+            long size = directory.getInt(position + 24) & 0xffffffffL;
+            final int nameLength = directory.getShort(position + 28) & 0xffff;
+            final int extraLength = directory.getShort(position + 30) & 0xffff;
+            final int commentLength = directory.getShort(position + 32) & 0xffff;
+            long localHeaderOffset = directory.getInt(position + 42) & 0xffffffffL;
+
+            final int nameOffset = position + CENTRAL_HEADER_SIZE;
+            final String name = new String(directory.array(), nameOffset, nameLength, StandardCharsets.UTF_8);
+
+            // the zip64 extra field only holds the values that overflowed
+            int extra = nameOffset + nameLength;
+            final int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                final int id = directory.getShort(extra) & 0xffff;
+                final int dataSize = directory.getShort(extra + 2) & 0xffff;
+                if (id == 0x0001) {
+                    int field = extra + 4;
+                    if (size == 0xffffffffL) {
+                        size = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xffffffffL) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == 0xffffffffL) {
+                        localHeaderOffset = directory.getLong(field);
+                    }
+                    break;
+                }
+                extra += 4 + dataSize;
+            }
+
+            position = extraEnd + commentLength;
+
+            if (name.endsWith("/")) {
+                continue;
+            }
+            if ((flags & 1) != 0) {
+                log.warn("skipping encrypted entry " + name + " in " + file);
+                continue;
+            }
+            entries.put(name, new Entry(method, localHeaderOffset, compressedSize, size));
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("indexed " + file + " (" + entries.size() + " entries)");
+        }
+        return entries;
+    }
+
+    private byte[] read( final FileChannel pChannel, final Entry pEntry ) throws IOException {
+        if (pEntry.size > Integer.MAX_VALUE || pEntry.compressedSize > Integer.MAX_VALUE) {
+            throw new IOException("entry too large");
+        }
+
+        long dataOffset = pEntry.dataOffset;
+        if (dataOffset < 0) {
+            final ByteBuffer header = readFully(pChannel, pEntry.localHeaderOffset, LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_HEADER) {
+                throw new IOException("corrupt local header");
+            }
+            dataOffset = pEntry.localHeaderOffset + LOCAL_HEADER_SIZE
+                    + (header.getShort(26) & 0xffff)
+                    + (header.getShort(28) & 0xffff);
+            pEntry.dataOffset = dataOffset;
+        }
+
+        final ByteBuffer data = readFully(pChannel, dataOffset, (int) pEntry.compressedSize);
+        if (pEntry.method == STORED) {
+            return data.array();
+        }
+        if (pEntry.method != DEFLATED) {
+            throw new IOException("unsupported compression method " + pEntry.method);
+        }
+
+        final byte[] inflated = new byte[(int) pEntry.size];
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data.array());
+            int offset = 0;
+            while (offset < inflated.length) {
+                final int count = inflater.inflate(inflated, offset, inflated.length - offset);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("truncated entry");
+                }
+                offset += count;
+            }
+            return inflated;
+        } catch (final DataFormatException e) {
+            throw new IOException("corrupt entry", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer readFully( final FileChannel pChannel, final long pPosition, final int pLength ) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(pLength).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (pChannel.read(buffer, pPosition + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + file.toString();
+    }
+}
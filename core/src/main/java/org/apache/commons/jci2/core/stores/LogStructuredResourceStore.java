@@ -0,0 +1,797 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.jci2.core.utils.ResourceIndex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Store appending all resources to a few large segment files
+ *
+ * Instead of one file per resource every write and remove appends a
+ * checksummed record to the current segment. Once a segment is full a
+ * new one is started. Only the name to position index is kept in memory.
+ * It is written to a checkpoint file whenever a segment is completed,
+ * after a compaction and on {@link #close()}. On startup the checkpoint
+ * is loaded and only the records appended after it are replayed. Without
+ * a usable checkpoint all segments are replayed. A torn record at the end
+ * of the last segment (e.g. after a crash) is cut off. Completed segments
+ * are never cut, a corrupt record in there is skipped and if it cannot be
+ * skipped the store refuses to open.
+ *
+ * Overwritten and removed resources leave dead records behind. Once more
+ * than half of the data is dead the live records of sparse segments are
+ * copied to the current segment in the background and the sparse segments
+ * are deleted.
+ *
+ * Appended records are handed to the operating system right away but
+ * only forced to disk by {@link #sync()}, {@link #checkpoint()} and
+ * {@link #close()}. Reads never lock.
+ *
+ * @author tcurdt
+ */
+public final class LogStructuredResourceStore implements ResourceStore, Closeable {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "index.ckpt";
+    private static final int CHECKPOINT_MAGIC = 0x4A434943;
+
+    // crc, name length, data length (-1 for a removal)
+    private static final int HEADER_SIZE = 12;
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "LogStructuredResourceStore compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Log log = LogFactory.getLog(LogStructuredResourceStore.class);
+
+    private static final class Segment {
+        private final long id;
+        private final File file;
+        private volatile FileChannel channel;
+        // only changed while holding the lock
+        private long size;
+        private long live;
+        private volatile boolean deleted;
+
+        private Segment( final long pId, final File pFile, final FileChannel pChannel ) {
+            id = pId;
+            file = pFile;
+            channel = pChannel;
+        }
+    }
+
+    private static final class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int nameLength;
+        private final int length;
+
+        private Location( final Segment pSegment, final long pOffset, final int pNameLength, final int pLength ) {
+            segment = pSegment;
+            offset = pOffset;
+            nameLength = pNameLength;
+            length = pLength;
+        }
+
+        private long recordSize() {
+            return HEADER_SIZE + nameLength + length;
+        }
+    }
+
+    private interface RecordHandler {
+        void handle( final long pOffset, final String pName, final byte[] pData, final int pNameLength ) throws IOException;
+    }
+
+    private final File directory;
+    private final long segmentSize;
+    private final Executor compactor;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final ResourceIndex packages = new ResourceIndex();
+    private final Object lock = new Object();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private long totalBytes;
+    private long liveBytes;
+    private volatile boolean closed;
+
+    public LogStructuredResourceStore( final File pDirectory ) throws IOException {
+        this(pDirectory, DEFAULT_SEGMENT_SIZE, COMPACTOR);
+    }
+
+    /**
+     * @param pDirectory directory holding the segments and the checkpoint
+     * @param pSegmentSize size after which a new segment is started
+     * @param pCompactor runs the compaction of sparse segments
+     */
+    public LogStructuredResourceStore( final File pDirectory, final long pSegmentSize, final Executor pCompactor ) throws IOException {
+        if (pSegmentSize <= 0) {
+            throw new IllegalArgumentException("segment size must be positive");
+        }
+        if (!pDirectory.mkdirs() && !pDirectory.isDirectory()) {
+            throw new IOException("could not create " + pDirectory);
+        }
+        directory = pDirectory;
+        segmentSize = pSegmentSize;
+        compactor = pCompactor;
+
+        synchronized (lock) {
+            try {
+                recover();
+            } catch (final IOException | RuntimeException e) {
+                closeSegments();
+                throw e;
+            }
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public byte[] read( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("reading resource " + pResourceName);
+        }
+        for (int attempt = 0; attempt < 3; attempt++) {
+            final Location location = index.get(pResourceName);
+            if (location == null) {
+                return null;
+            }
+            final FileChannel channel = location.segment.channel;
+            try {
+                final ByteBuffer data = ByteBuffer.allocate(location.length);
+                readFully(channel, data, location.offset + HEADER_SIZE + location.nameLength);
+                return data.array();
+            } catch (final ClosedChannelException e) {
+                // moved by a compaction or closed by an interrupt of another reader
+                reopen(location.segment, channel);
+            } catch (final IOException e) {
+                log.error("could not read " + pResourceName + " from " + location.segment.file, e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        final Location location = index.get(pResourceName);
+        return location != null ? location.length : -1;
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        return index.containsKey(pResourceName);
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return packages.isPackage(pPackageName);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return packages.list(pPackageName);
+    }
+
+    @Override
+    public void write( final String pResourceName, final byte[] pData ) {
+        if (log.isDebugEnabled()) {
+            log.debug("writing resource " + pResourceName + "(" + pData.length + ")");
+        }
+        synchronized (lock) {
+            ensureOpen();
+            put(pResourceName, pData);
+        }
+        scheduleCompaction();
+    }
+
+    @Override
+    public void writeAll( final Map<String, byte[]> pResources ) {
+        if (log.isDebugEnabled()) {
+            log.debug("writing " + pResources.size() + " resources");
+        }
+        synchronized (lock) {
+            ensureOpen();
+            for (final Map.Entry<String, byte[]> entry : pResources.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+        scheduleCompaction();
+    }
+
+    @Override
+    public void remove( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("removing resource " + pResourceName);
+        }
+        synchronized (lock) {
+            ensureOpen();
+            delete(pResourceName);
+        }
+        scheduleCompaction();
+    }
+
+    @Override
+    public void removeAll( final Collection<String> pResourceNames ) {
+        if (log.isDebugEnabled()) {
+            log.debug("removing " + pResourceNames.size() + " resources");
+        }
+        synchronized (lock) {
+            ensureOpen();
+            for (final String resourceName : pResourceNames) {
+                delete(resourceName);
+            }
+        }
+        scheduleCompaction();
+    }
+
+    /**
+     * Forces the appended records to disk.
+     */
+    public void sync() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            channel(active).force(false);
+        }
+    }
+
+    /**
+     * Forces the appended records to disk and writes the index to the
+     * checkpoint file so the next start does not need to replay them.
+     */
+    public void checkpoint() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * Copies the live records of sparse segments to the current segment
+     * and deletes the sparse ones. Usually triggered automatically.
+     */
+    public void compact() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+
+            final List<Segment> sparse = new ArrayList<>();
+            for (final Segment segment : segments.values()) {
+                if (segment != active && segment.live * 2 < segment.size) {
+                    sparse.add(segment);
+                }
+            }
+            if (sparse.isEmpty()) {
+                return;
+            }
+
+            for (final Segment segment : sparse) {
+                // a removal only matters while an older segment may still hold the resource
+                boolean older = false;
+                for (final Segment candidate : segments.headMap(segment.id).values()) {
+                    older |= !sparse.contains(candidate);
+                }
+                final boolean keepRemovals = older;
+
+                scan(segment, 0, true, (pOffset, pName, pData, pNameLength) -> {
+                    if (pData == null) {
+                        if (keepRemovals && !index.containsKey(pName)) {
+                            append(pName, null);
+                        }
+                        return;
+                    }
+                    final Location location = index.get(pName);
+                    if (location != null && location.segment == segment && location.offset == pOffset) {
+                        release(location);
+                        index.put(pName, retain(append(pName, pData)));
+                    }
+                });
+            }
+
+            for (final Segment segment : sparse) {
+                segments.remove(segment.id);
+                totalBytes -= segment.size;
+            }
+            writeCheckpoint();
+
+            for (final Segment segment : sparse) {
+                segment.deleted = true;
+                segment.channel.close();
+                if (!segment.file.delete()) {
+                    log.warn("could not delete " + segment.file);
+                }
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("compacted " + sparse.size() + " segments, " + liveBytes + " of " + totalBytes + " bytes live");
+            }
+        }
+    }
+
+    /**
+     * @return bytes of all records in the segments
+     */
+    public long getTotalBytes() {
+        synchronized (lock) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * @return bytes of the records of the stored resources
+     */
+    public long getLiveBytes() {
+        synchronized (lock) {
+            return liveBytes;
+        }
+    }
+
+    public int getSegmentCount() {
+        synchronized (lock) {
+            return segments.size();
+        }
+    }
+
+    /**
+     * Writes a checkpoint and closes the segments.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            try {
+                writeCheckpoint();
+            } finally {
+                closed = true;
+                closeSegments();
+            }
+        }
+    }
+
+    private void put( final String pResourceName, final byte[] pData ) {
+        try {
+            release(index.put(pResourceName, retain(append(pResourceName, pData))));
+            packages.add(pResourceName);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void delete( final String pResourceName ) {
+        final Location location = index.remove(pResourceName);
+        if (location == null) {
+            return;
+        }
+        release(location);
+        packages.remove(pResourceName);
+        try {
+            append(pResourceName, null);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Location append( final String pResourceName, final byte[] pData ) throws IOException {
+        final byte[] name = pResourceName.getBytes(StandardCharsets.UTF_8);
+        final int length = pData != null ? pData.length : 0;
+        final int recordSize = HEADER_SIZE + name.length + length;
+
+        if (active.size > 0 && active.size + recordSize > segmentSize) {
+            roll();
+        }
+
+        final ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.putInt(0).putInt(name.length).putInt(pData != null ? pData.length : -1).put(name);
+        if (pData != null) {
+            record.put(pData);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, recordSize - 4);
+        record.putInt(0, (int) crc.getValue());
+        record.flip();
+
+        final FileChannel channel = channel(active);
+        final long offset = active.size;
+        while (record.hasRemaining()) {
+            channel.write(record, offset + record.position());
+        }
+
+        active.size += recordSize;
+        totalBytes += recordSize;
+        return new Location(active, offset, name.length, length);
+    }
+
+    private Location retain( final Location pLocation ) {
+        pLocation.segment.live += pLocation.recordSize();
+        liveBytes += pLocation.recordSize();
+        return pLocation;
+    }
+
+    private void release( final Location pLocation ) {
+        if (pLocation != null) {
+            pLocation.segment.live -= pLocation.recordSize();
+            liveBytes -= pLocation.recordSize();
+        }
+    }
+
+    private void roll() throws IOException {
+        final Segment segment = createSegment(active.id + 1);
+        channel(active).force(false);
+        active = segment;
+        writeCheckpoint();
+    }
+
+    private Segment createSegment( final long pId ) throws IOException {
+        final File file = new File(directory, SEGMENT_PREFIX + String.format("%016x", pId) + SEGMENT_SUFFIX);
+        final Segment segment = new Segment(pId, file, FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.put(pId, segment);
+        return segment;
+    }
+
+    private FileChannel channel( final Segment pSegment ) throws IOException {
+        FileChannel channel = pSegment.channel;
+        if (!channel.isOpen()) {
+            reopen(pSegment, channel);
+            channel = pSegment.channel;
+        }
+        return channel;
+    }
+
+    private void reopen( final Segment pSegment, final FileChannel pChannel ) {
+        synchronized (pSegment) {
+            if (pSegment.deleted || pSegment.channel != pChannel || closed) {
+                return;
+            }
+            try {
+                pSegment.channel = FileChannel.open(pSegment.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (final IOException e) {
+                log.error("could not reopen " + pSegment.file, e);
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException(directory + " is closed");
+        }
+    }
+
+    private void closeSegments() {
+        for (final Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (final IOException e) {
+                log.warn("could not close " + segment.file, e);
+            }
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        channel(active).force(false);
+
+        final File file = new File(directory, CHECKPOINT);
+        final File tmp = new File(directory, CHECKPOINT + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fos), new CRC32());
+            final DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(active.id);
+            out.writeLong(active.size);
+            out.writeInt(segments.size());
+            for (final Segment segment : segments.values()) {
+                out.writeLong(segment.id);
+                out.writeLong(segment.size);
+                out.writeLong(segment.live);
+            }
+            out.writeInt(index.size());
+            for (final Map.Entry<String, Location> entry : index.entrySet()) {
+                final Location location = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(location.segment.id);
+                out.writeLong(location.offset);
+                out.writeInt(location.nameLength);
+                out.writeInt(location.length);
+            }
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            fos.getFD().sync();
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void recover() throws IOException {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                final String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    final long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()), 16);
+                    segments.put(id, new Segment(id, file, FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)));
+                }
+            }
+        }
+
+        long replayId = Long.MIN_VALUE;
+        long replayOffset = 0;
+
+        final File checkpoint = new File(directory, CHECKPOINT);
+        if (checkpoint.isFile()) {
+            try {
+                final long[] position = readCheckpoint(checkpoint);
+                replayId = position[0];
+                replayOffset = position[1];
+            } catch (final IOException e) {
+                log.warn("ignoring checkpoint " + checkpoint + ", replaying all segments", e);
+                index.clear();
+                packages.clear();
+                for (final Segment segment : segments.values()) {
+                    segment.size = 0;
+                    segment.live = 0;
+                }
+                totalBytes = 0;
+                liveBytes = 0;
+            }
+        }
+
+        final Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        for (final Segment segment : new ArrayList<>(segments.values())) {
+            if (segment.id < replayId) {
+                continue;
+            }
+            final long start = segment.id == replayId ? replayOffset : 0;
+            final long end = scan(segment, start, segment != last, (pOffset, pName, pData, pNameLength) -> {
+                if (pData == null) {
+                    release(index.remove(pName));
+                    packages.remove(pName);
+                } else {
+                    release(index.put(pName, retain(new Location(segment, pOffset, pNameLength, pData.length))));
+                    packages.add(pName);
+                }
+            });
+            if (end < segment.channel.size()) {
+                log.warn("cutting off torn record at " + end + " of " + segment.file);
+                segment.channel.truncate(end);
+            }
+            totalBytes += end - segment.size;
+            segment.size = end;
+        }
+
+        active = last != null ? last : createSegment(0);
+
+        if (log.isDebugEnabled()) {
+            log.debug("recovered " + index.size() + " resources from " + segments.size() + " segments in " + directory);
+        }
+    }
+
+    /**
+     * Loads the checkpoint and drops the segments a compaction did not
+     * get to delete anymore.
+     *
+     * @return the segment and offset to start the replay from
+     */
+    private long[] readCheckpoint( final File pCheckpoint ) throws IOException {
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(pCheckpoint)), new CRC32())) {
+            final DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                throw new IOException("not a checkpoint");
+            }
+            final long activeId = in.readLong();
+            final long activeSize = in.readLong();
+
+            final Map<Long, Segment> known = new TreeMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                final long id = in.readLong();
+                final Segment segment = segments.get(id);
+                if (segment == null) {
+                    throw new IOException("missing segment " + id);
+                }
+                segment.size = in.readLong();
+                segment.live = in.readLong();
+                if (segment.channel.size() < segment.size) {
+                    throw new IOException("truncated segment " + segment.file);
+                }
+                known.put(id, segment);
+            }
+
+            final Map<String, Location> locations = new TreeMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                final String name = in.readUTF();
+                final Segment segment = known.get(in.readLong());
+                if (segment == null) {
+                    throw new IOException("unknown segment for " + name);
+                }
+                locations.put(name, new Location(segment, in.readLong(), in.readInt(), in.readInt()));
+            }
+
+            final long crc = checked.getChecksum().getValue();
+            if (in.readLong() != crc) {
+                throw new IOException("checksum mismatch");
+            }
+
+            for (final Segment segment : new ArrayList<>(segments.values())) {
+                if (segment.id < activeId && !known.containsKey(segment.id)) {
+                    // compacted but not deleted before a crash
+                    segments.remove(segment.id);
+                    segment.channel.close();
+                    segment.file.delete();
+                }
+            }
+
+            for (final Map.Entry<String, Location> entry : locations.entrySet()) {
+                index.put(entry.getKey(), entry.getValue());
+                packages.add(entry.getKey());
+                liveBytes += entry.getValue().recordSize();
+            }
+            for (final Segment segment : known.values()) {
+                totalBytes += segment.size;
+            }
+
+            return new long[] { activeId, activeSize };
+        } catch (final EOFException e) {
+            throw new IOException("truncated checkpoint", e);
+        }
+    }
+
+    /**
+     * Reads the records of the segment starting at the offset until the
+     * end or the first incomplete or corrupt record. In a completed
+     * segment records with a wrong checksum are skipped instead, anything
+     * else that is not a valid record fails.
+     *
+     * @return the offset after the last valid record
+     */
+    private long scan( final Segment pSegment, final long pOffset, final boolean pSealed, final RecordHandler pHandler ) throws IOException {
+        final FileChannel channel = pSegment.channel;
+        final long size = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        final CRC32 crc = new CRC32();
+
+        long offset = pOffset;
+        while (offset + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, offset);
+            final int checksum = header.getInt(0);
+            final int nameLength = header.getInt(4);
+            final int length = header.getInt(8);
+            if (nameLength < 0 || length < -1 || offset + HEADER_SIZE + nameLength + Math.max(length, 0) > size) {
+                if (pSealed) {
+                    throw new IOException("corrupt record at " + offset + " of " + pSegment.file);
+                }
+                break;
+            }
+
+            final ByteBuffer body = ByteBuffer.allocate(nameLength + Math.max(length, 0));
+            readFully(channel, body, offset + HEADER_SIZE);
+            crc.reset();
+            crc.update(header.array(), 4, HEADER_SIZE - 4);
+            crc.update(body.array(), 0, body.capacity());
+            if ((int) crc.getValue() != checksum) {
+                if (!pSealed) {
+                    break;
+                }
+                log.error("skipping corrupt record at " + offset + " of " + pSegment.file);
+                offset += HEADER_SIZE + body.capacity();
+                continue;
+            }
+
+            final String name = new String(body.array(), 0, nameLength, StandardCharsets.UTF_8);
+            byte[] data = null;
+            if (length >= 0) {
+                data = new byte[length];
+                System.arraycopy(body.array(), nameLength, data, 0, length);
+            }
+            pHandler.handle(offset, name, data, nameLength);
+
+            offset += HEADER_SIZE + body.capacity();
+        }
+        if (pSealed && offset < size) {
+            throw new IOException("corrupt record at " + offset + " of " + pSegment.file);
+        }
+        return offset;
+    }
+
+    private static void readFully( final FileChannel pChannel, final ByteBuffer pBuffer, final long pPosition ) throws IOException {
+        while (pBuffer.hasRemaining()) {
+            if (pChannel.read(pBuffer, pPosition + pBuffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private void scheduleCompaction() {
+        synchronized (lock) {
+            // worth it once more than half of the data is dead
+            if (liveBytes * 2 >= totalBytes || totalBytes - liveBytes < segmentSize) {
+                return;
+            }
+        }
+        if (!compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactor.execute(() -> {
+                compactionScheduled.set(false);
+                try {
+                    compact();
+                } catch (final IOException e) {
+                    log.error("compaction of " + directory + " failed", e);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            compactionScheduled.set(false);
+            log.debug("compaction rejected", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + index.keySet().toString();
+    }
+}
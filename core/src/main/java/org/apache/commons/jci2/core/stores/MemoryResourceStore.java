@@ -17,41 +17,139 @@
 
 package org.apache.commons.jci2.core.stores;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.jci2.core.utils.ResourceIndex;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * Store just in memory
  *
+ * It is safe to use from multiple threads. Typically the FAM thread
+ * writes while other threads are loading classes. Reads never lock,
+ * changes are serialized so the data and the package index stay in
+ * sync. Null data is rejected.
+ *
  * @author tcurdt
  */
 public final class MemoryResourceStore implements ResourceStore {
 
     private final Log log = LogFactory.getLog(MemoryResourceStore.class);
 
-    private final Map<String, byte[]> store = new HashMap<>();
+    private final Map<String, byte[]> store = new ConcurrentHashMap<>();
+    private final ResourceIndex index = new ResourceIndex();
+    // serializes the changes of the data and the index
+    private final Object lock = new Object();
 
     @Override
     public byte[] read( final String pResourceName ) {
-        log.debug("reading resource " + pResourceName);
+        if (log.isDebugEnabled()) {
+            log.debug("reading resource " + pResourceName);
+        }
         return store.get(pResourceName);
     }
 
+    @Override
+    public InputStream openStream( final String pResourceName ) {
+        final byte[] data = read(pResourceName);
+        return data != null ? new ByteArrayInputStream(data) : null;
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        final byte[] data = store.get(pResourceName);
+        return data != null ? data.length : -1;
+    }
+
     @Override
     public void write( final String pResourceName, final byte[] pData ) {
-        log.debug("writing resource " + pResourceName + "(" + pData.length + ")");
-        store.put(pResourceName, pData);
+        if (pData == null) {
+            throw new IllegalArgumentException("no data for " + pResourceName);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("writing resource " + pResourceName + "(" + pData.length + ")");
+        }
+        synchronized (lock) {
+            store.put(pResourceName, pData);
+            index.add(pResourceName);
+        }
+    }
+
+    @Override
+    public void writeAll( final Map<String, byte[]> pResources ) {
+        if (log.isDebugEnabled()) {
+            log.debug("writing " + pResources.size() + " resources");
+        }
+        for (final Map.Entry<String, byte[]> resource : pResources.entrySet()) {
+            if (resource.getValue() == null) {
+                throw new IllegalArgumentException("no data for " + resource.getKey());
+            }
+        }
+        synchronized (lock) {
+            store.putAll(pResources);
+            for (final String resourceName : pResources.keySet()) {
+                index.add(resourceName);
+            }
+        }
     }
 
     @Override
     public void remove( final String pResourceName ) {
-        log.debug("removing resource " + pResourceName);
-        store.remove(pResourceName);
+        if (log.isDebugEnabled()) {
+            log.debug("removing resource " + pResourceName);
+        }
+        synchronized (lock) {
+            store.remove(pResourceName);
+            index.remove(pResourceName);
+        }
+    }
+
+    @Override
+    public void removeAll( final Collection<String> pResourceNames ) {
+        if (log.isDebugEnabled()) {
+            log.debug("removing " + pResourceNames.size() + " resources");
+        }
+        synchronized (lock) {
+            store.keySet().removeAll(pResourceNames);
+            for (final String resourceName : pResourceNames) {
+                index.remove(resourceName);
+            }
+        }
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        return store.containsKey(pResourceName);
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return index.isPackage(pPackageName);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return index.list(pPackageName);
+    }
+
+    @Override
+    public Map<String, byte[]> readAll( final Collection<String> pResourceNames ) {
+        final Map<String, byte[]> resources = new HashMap<>();
+        for (final String resourceName : pResourceNames) {
+            final byte[] data = store.get(resourceName);
+            if (data != null) {
+                resources.put(resourceName, data);
+            }
+        }
+        return resources;
     }
 
     /**
@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.jci2.core.utils.ResourceIndex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Store keeping the data in direct memory outside of the java heap
+ *
+ * Resources are appended to large direct chunks and only a small
+ * name to offset index lives on the heap. Overwritten and removed
+ * resources leave holes in the chunks. Once enough space is wasted
+ * the live resources of sparse chunks are copied over in the background
+ * and the old chunks are released.
+ *
+ * {@link #readBuffer(String)} hands out read-only views of the chunks
+ * so classes can be defined without copying them onto the heap. Like
+ * the {@link MemoryResourceStore} it is safe to use from multiple threads
+ * and reads never lock.
+ *
+ * @author tcurdt
+ */
+public final class OffHeapResourceStore implements ResourceStore {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "OffHeapResourceStore compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Log log = LogFactory.getLog(OffHeapResourceStore.class);
+
+    private static final class Chunk {
+        private final ByteBuffer buffer;
+        // only changed while holding the lock
+        private int used;
+        private int live;
+
+        private Chunk( final int pCapacity ) {
+            buffer = ByteBuffer.allocateDirect(pCapacity);
+        }
+    }
+
+    private static final class Slot {
+        private final Chunk chunk;
+        private final int offset;
+        private final int length;
+
+        private Slot( final Chunk pChunk, final int pOffset, final int pLength ) {
+            chunk = pChunk;
+            offset = pOffset;
+            length = pLength;
+        }
+
+        private ByteBuffer view() {
+            final ByteBuffer view = chunk.buffer.duplicate();
+            view.limit(offset + length);
+            view.position(offset);
+            return view.slice();
+        }
+    }
+
+    private final Map<String, Slot> index = new ConcurrentHashMap<>();
+    private final ResourceIndex packages = new ResourceIndex();
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final Object lock = new Object();
+    private final int chunkSize;
+    private final Executor compactor;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private Chunk current;
+    private long allocated;
+    private long live;
+
+    public OffHeapResourceStore() {
+        this(DEFAULT_CHUNK_SIZE, COMPACTOR);
+    }
+
+    /**
+     * @param pChunkSize size of the direct chunks, larger resources get a chunk of their own
+     * @param pCompactor runs the compaction of sparse chunks
+     */
+    public OffHeapResourceStore( final int pChunkSize, final Executor pCompactor ) {
+        if (pChunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        chunkSize = pChunkSize;
+        compactor = pCompactor;
+    }
+
+    @Override
+    public byte[] read( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("reading resource " + pResourceName);
+        }
+        final Slot slot = index.get(pResourceName);
+        if (slot == null) {
+            return null;
+        }
+        final byte[] data = new byte[slot.length];
+        slot.view().get(data);
+        return data;
+    }
+
+    @Override
+    public ByteBuffer readBuffer( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("reading resource " + pResourceName);
+        }
+        final Slot slot = index.get(pResourceName);
+        if (slot == null) {
+            return null;
+        }
+        return slot.view().asReadOnlyBuffer();
+    }
+
+    @Override
+    public void write( final String pResourceName, final byte[] pData ) {
+        if (log.isDebugEnabled()) {
+            log.debug("writing resource " + pResourceName + "(" + pData.length + ")");
+        }
+        synchronized (lock) {
+            release(index.put(pResourceName, allocate(ByteBuffer.wrap(pData))));
+            packages.add(pResourceName);
+        }
+        scheduleCompaction();
+    }
+
+    @Override
+    public void remove( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("removing resource " + pResourceName);
+        }
+        synchronized (lock) {
+            release(index.remove(pResourceName));
+            packages.remove(pResourceName);
+        }
+        scheduleCompaction();
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        return index.containsKey(pResourceName);
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        final Slot slot = index.get(pResourceName);
+        return slot != null ? slot.length : -1;
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return packages.isPackage(pPackageName);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return packages.list(pPackageName);
+    }
+
+    /**
+     * Copies the live resources of sparse chunks into fresh chunks
+     * and drops the sparse ones. Usually triggered automatically.
+     */
+    public void compact() {
+        synchronized (lock) {
+            final Set<Chunk> sparse = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (final Chunk chunk : chunks) {
+                if (chunk != current && isSparse(chunk)) {
+                    sparse.add(chunk);
+                }
+            }
+            if (sparse.isEmpty()) {
+                return;
+            }
+            for (final Map.Entry<String, Slot> entry : index.entrySet()) {
+                final Slot slot = entry.getValue();
+                if (sparse.contains(slot.chunk)) {
+                    // readers still holding a view keep the old chunk alive
+                    entry.setValue(allocate(slot.view()));
+                    release(slot);
+                }
+            }
+            for (final Chunk chunk : sparse) {
+                allocated -= chunk.buffer.capacity();
+            }
+            chunks.removeAll(sparse);
+            if (log.isDebugEnabled()) {
+                log.debug("compacted " + sparse.size() + " chunks, " + allocated + " bytes allocated");
+            }
+        }
+    }
+
+    /**
+     * @return bytes of direct memory held by the chunks
+     */
+    public long getAllocatedBytes() {
+        synchronized (lock) {
+            return allocated;
+        }
+    }
+
+    /**
+     * @return bytes of the stored resources
+     */
+    public long getLiveBytes() {
+        synchronized (lock) {
+            return live;
+        }
+    }
+
+    private Slot allocate( final ByteBuffer pData ) {
+        final int length = pData.remaining();
+        Chunk chunk = current;
+        if (length > chunkSize) {
+            chunk = newChunk(length);
+        } else if (chunk == null || chunk.buffer.capacity() - chunk.used < length) {
+            chunk = newChunk(chunkSize);
+            current = chunk;
+        }
+        final ByteBuffer target = chunk.buffer.duplicate();
+        target.position(chunk.used);
+        target.put(pData);
+        final Slot slot = new Slot(chunk, chunk.used, length);
+        chunk.used += length;
+        chunk.live += length;
+        live += length;
+        return slot;
+    }
+
+    private Chunk newChunk( final int pCapacity ) {
+        final Chunk chunk = new Chunk(pCapacity);
+        chunks.add(chunk);
+        allocated += pCapacity;
+        return chunk;
+    }
+
+    private void release( final Slot pSlot ) {
+        if (pSlot != null) {
+            pSlot.chunk.live -= pSlot.length;
+            live -= pSlot.length;
+        }
+    }
+
+    private static boolean isSparse( final Chunk pChunk ) {
+        return pChunk.live * 2 < pChunk.used;
+    }
+
+    private void scheduleCompaction() {
+        synchronized (lock) {
+            // worth it once at least half of the memory is wasted
+            if (live * 2 >= allocated - chunkSize) {
+                return;
+            }
+        }
+        if (!compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactor.execute(() -> {
+                compactionScheduled.set(false);
+                compact();
+            });
+        } catch (final RejectedExecutionException e) {
+            compactionScheduled.set(false);
+            log.debug("compaction rejected", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + index.keySet().toString();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A RecordingResourceStore passes everything on to another store
+ * and remembers which resources got written through it, so the
+ * output of a compiler can be related to its sources afterwards.
+ * It also remembers which resources were looked up, found or not,
+ * i.e. which classes the compiler resolved from the store.
+ *
+ * @author tcurdt
+ */
+public final class RecordingResourceStore implements ResourceStore {
+
+    private final ResourceStore store;
+    private final Map<String, byte[]> written = new LinkedHashMap<>();
+    private final Set<String> requested = new LinkedHashSet<>();
+
+    public RecordingResourceStore( final ResourceStore pStore ) {
+        store = pStore;
+    }
+
+    @Override
+    public synchronized void write( final String pResourceName, final byte[] pResourceData ) {
+        written.put(pResourceName, pResourceData);
+        store.write(pResourceName, pResourceData);
+    }
+
+    @Override
+    public synchronized void writeAll( final Map<String, byte[]> pResources ) {
+        written.putAll(pResources);
+        store.writeAll(pResources);
+    }
+
+    @Override
+    public byte[] read( final String pResourceName ) {
+        request(pResourceName);
+        return store.read(pResourceName);
+    }
+
+    @Override
+    public Map<String, byte[]> readAll( final Collection<String> pResourceNames ) {
+        synchronized (this) {
+            requested.addAll(pResourceNames);
+        }
+        return store.readAll(pResourceNames);
+    }
+
+    @Override
+    public ByteBuffer readBuffer( final String pResourceName ) {
+        request(pResourceName);
+        return store.readBuffer(pResourceName);
+    }
+
+    @Override
+    public InputStream openStream( final String pResourceName ) throws IOException {
+        request(pResourceName);
+        return store.openStream(pResourceName);
+    }
+
+    @Override
+    public ReadableByteChannel openChannel( final String pResourceName ) throws IOException {
+        request(pResourceName);
+        return store.openChannel(pResourceName);
+    }
+
+    @Override
+    public synchronized void remove( final String pResourceName ) {
+        written.remove(pResourceName);
+        store.remove(pResourceName);
+    }
+
+    @Override
+    public synchronized void removeAll( final Collection<String> pResourceNames ) {
+        written.keySet().removeAll(pResourceNames);
+        store.removeAll(pResourceNames);
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        request(pResourceName);
+        return store.exists(pResourceName);
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return store.isPackage(pPackageName);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return store.listPackage(pPackageName);
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        request(pResourceName);
+        return store.size(pResourceName);
+    }
+
+    /**
+     * @return the resources written since the store was created, in the
+     * order they were written
+     */
+    public synchronized Map<String, byte[]> getWritten() {
+        return new LinkedHashMap<>(written);
+    }
+
+    /**
+     * @return the resources looked up since the store was created,
+     * including the ones that did not exist
+     */
+    public synchronized Set<String> getRequested() {
+        return new LinkedHashSet<>(requested);
+    }
+
+    private synchronized void request( final String pResourceName ) {
+        requested.add(pResourceName);
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + store.toString();
+    }
+}
@@ -16,6 +16,19 @@
  */
 package org.apache.commons.jci2.core.stores;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
 /**
  * A Store is where the compilers are storing the results
  *
@@ -27,4 +40,149 @@ public interface ResourceStore {
     byte[] read( final String pResourceName );
     //FIXME: return the result of the remove
     void remove( final String pResourceName );
+
+    /**
+     * @param pResourceName the name of the resource
+     * @return whether the resource exists
+     */
+    default boolean exists( final String pResourceName ) {
+        return size(pResourceName) >= 0;
+    }
+
+    /**
+     * Stores without an index of their resources do not know about
+     * packages and always answer false.
+     *
+     * @param pPackageName the package as path, e.g. "org/my"
+     * @return whether the package or one of its sub packages has resources
+     */
+    default boolean isPackage( final String pPackageName ) {
+        return false;
+    }
+
+    /**
+     * Stores without an index of their resources do not know about
+     * packages and always answer with an empty list.
+     *
+     * @param pPackageName the package as path, e.g. "org/my"
+     * @return the names of the resources directly in the package
+     */
+    default Collection<String> listPackage( final String pPackageName ) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Writes a whole batch of resources, e.g. the result of a compilation.
+     * Stores override this to group the work, e.g. to sync the disk once.
+     *
+     * @param pResources resource names and their data
+     */
+    default void writeAll( final Map<String, byte[]> pResources ) {
+        for (final Map.Entry<String, byte[]> entry : pResources.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @param pResourceNames the names of the resources to remove
+     */
+    default void removeAll( final Collection<String> pResourceNames ) {
+        for (final String resourceName : pResourceNames) {
+            remove(resourceName);
+        }
+    }
+
+    /**
+     * @param pResourceNames the names of the resources to read
+     * @return the data of the resources that exist
+     */
+    default Map<String, byte[]> readAll( final Collection<String> pResourceNames ) {
+        final Map<String, byte[]> resources = new HashMap<>();
+        for (final String resourceName : pResourceNames) {
+            final byte[] data = read(resourceName);
+            if (data != null) {
+                resources.put(resourceName, data);
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Stores keeping their data off-heap (or mapped) can hand out a
+     * view of the data instead of copying it onto the heap first.
+     * The content of the buffer must not be changed.
+     *
+     * @param pResourceName the name of the resource
+     * @return the data of the resource or null if it does not exist
+     */
+    default ByteBuffer readBuffer( final String pResourceName ) {
+        final byte[] data = read(pResourceName);
+        if (data == null) {
+            return null;
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Stores that can stream their data (e.g. from disk) override this
+     * to avoid loading the whole resource.
+     *
+     * @param pResourceName the name of the resource
+     * @return a stream of the data or null if the resource does not exist
+     */
+    default InputStream openStream( final String pResourceName ) throws IOException {
+        final ByteBuffer data = readBuffer(pResourceName);
+        if (data == null) {
+            return null;
+        }
+        if (data.hasArray()) {
+            return new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        return new ByteBufferInputStream(data);
+    }
+
+    /**
+     * @param pResourceName the name of the resource
+     * @return a channel of the data or null if the resource does not exist
+     */
+    default ReadableByteChannel openChannel( final String pResourceName ) throws IOException {
+        final InputStream is = openStream(pResourceName);
+        if (is == null) {
+            return null;
+        }
+        return Channels.newChannel(is);
+    }
+
+    /**
+     * @param pResourceName the name of the resource
+     * @return the size of the resource in bytes or -1 if it does not exist
+     */
+    default long size( final String pResourceName ) {
+        final ByteBuffer data = readBuffer(pResourceName);
+        if (data == null) {
+            return -1;
+        }
+        return data.remaining();
+    }
+
+    /**
+     * Stores that can write incrementally (e.g. to disk) override this
+     * to avoid buffering the whole resource. The stream is not closed.
+     *
+     * @param pResourceName the name of the resource
+     * @param pData the data of the resource
+     */
+    default void write( final String pResourceName, final InputStream pData ) throws IOException {
+        write(pResourceName, IOUtils.toByteArray(pData));
+    }
+
+    /**
+     * Stores keeping multiple versions return an immutable view of the
+     * current version, the ReloadingClassLoader uses one per generation.
+     *
+     * @return the view or the store itself if it does not keep versions
+     */
+    default ResourceStore snapshot() {
+        return this;
+    }
 }
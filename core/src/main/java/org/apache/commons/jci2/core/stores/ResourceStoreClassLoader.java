@@ -16,6 +16,11 @@
  */
 package org.apache.commons.jci2.core.stores;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+
 import org.apache.commons.jci2.core.utils.ConversionUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -42,10 +47,12 @@ public final class ResourceStoreClassLoader extends ClassLoader {
 
         if (stores != null) {
             for (final ResourceStore store : stores) {
-                final byte[] clazzBytes = store.read(ConversionUtils.convertClassToResourcePath(name));
+                final ByteBuffer clazzBytes = store.readBuffer(ConversionUtils.convertClassToResourcePath(name));
                 if (clazzBytes != null) {
-                    log.debug(getId() + " found class: " + name  + " (" + clazzBytes.length + " bytes)");
-                    return defineClass(name, clazzBytes, 0, clazzBytes.length);
+                    if (log.isDebugEnabled()) {
+                        log.debug(getId() + " found class: " + name  + " (" + clazzBytes.remaining() + " bytes)");
+                    }
+                    return defineClass(name, clazzBytes, (ProtectionDomain) null);
                 }
             }
         }
@@ -71,7 +78,7 @@ public final class ResourceStoreClassLoader extends ClassLoader {
                     throw new ClassNotFoundException(name);
                 }
 
-            } else {
+            } else if (log.isDebugEnabled()) {
                 log.debug(getId() + " loaded from store: " + name);
             }
         }
@@ -92,6 +99,42 @@ public final class ResourceStoreClassLoader extends ClassLoader {
         return clazz;
     }
 
+    /**
+     * Resources in the stores are streamed instead of being read as a whole.
+     */
+    @Override
+    public InputStream getResourceAsStream( final String name ) {
+        if (stores != null) {
+            for (final ResourceStore store : stores) {
+                try {
+                    final InputStream is = store.openStream(name);
+                    if (is != null) {
+                        return is;
+                    }
+                } catch (final IOException e) {
+                    log.error("could not read " + name + " from " + store, e);
+                }
+            }
+        }
+        return super.getResourceAsStream(name);
+    }
+
+    /**
+     * @param pPackageName e.g. "org.my"
+     * @return whether one of the stores has resources in the package
+     */
+    public boolean isPackage( final String pPackageName ) {
+        if (stores != null) {
+            final String packagePath = pPackageName.replace('.', '/');
+            for (final ResourceStore store : stores) {
+                if (store.isPackage(packagePath)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private String getId() {
         return "" + this + "[" + this.getClass().getClassLoader() + "]";
     }
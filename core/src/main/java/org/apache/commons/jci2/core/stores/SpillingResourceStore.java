@@ -0,0 +1,476 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jci2.core.utils.ResourceIndex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Store in memory with a byte budget
+ *
+ * Like the {@link MemoryResourceStore} all resources are kept on the
+ * heap, but only up to the given number of bytes. Once the budget is
+ * exceeded the least recently read resources are spilled to a local
+ * file and read back from there when they are needed again. Spilled
+ * resources that were overwritten or removed leave garbage in the file,
+ * it gets rewritten once more than half of it is garbage. The file is
+ * only a cache and is deleted on {@link #close()}. A spilled resource
+ * that cannot be read back is reported as {@link UncheckedIOException}.
+ *
+ * It is safe to use from multiple threads. Reads of resident resources
+ * never lock.
+ *
+ * @author tcurdt
+ */
+public final class SpillingResourceStore implements ResourceStore, Closeable {
+
+    private final Log log = LogFactory.getLog(SpillingResourceStore.class);
+
+    private static final class Spill {
+        private final FileChannel channel;
+        private final long offset;
+
+        private Spill( final FileChannel pChannel, final long pOffset ) {
+            channel = pChannel;
+            offset = pOffset;
+        }
+    }
+
+    private static final class Entry {
+        private final int length;
+        private volatile byte[] data;
+        private volatile Spill spill;
+        private volatile long lastRead;
+
+        private Entry( final byte[] pData, final long pTick ) {
+            length = pData.length;
+            data = pData;
+            lastRead = pTick;
+        }
+    }
+
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ResourceIndex index = new ResourceIndex();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong spillReads = new AtomicLong();
+
+    // guards the changes of the entries and the counters
+    private final Object lock = new Object();
+    private File spillFile;
+    private FileChannel channel;
+    private long residentBytes;
+    private long spilledBytes;
+    private long garbageBytes;
+    private boolean closed;
+
+    /**
+     * Spills to a temporary file.
+     */
+    public SpillingResourceStore( final long pMaxBytes ) throws IOException {
+        this(pMaxBytes, createSpillFile());
+    }
+
+    /**
+     * @param pMaxBytes the bytes of resources to keep on the heap
+     * @param pSpillFile the file to spill the resources to, it gets replaced
+     */
+    public SpillingResourceStore( final long pMaxBytes, final File pSpillFile ) throws IOException {
+        if (pMaxBytes < 0) {
+            throw new IllegalArgumentException("max bytes must not be negative");
+        }
+        maxBytes = pMaxBytes;
+        spillFile = pSpillFile;
+        channel = open(pSpillFile);
+    }
+
+    private static File createSpillFile() throws IOException {
+        final File file = File.createTempFile("jci", ".spill");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static FileChannel open( final File pFile ) throws IOException {
+        return FileChannel.open(pFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public byte[] read( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("reading resource " + pResourceName);
+        }
+        boolean interrupted = false;
+        IOException failure = null;
+        try {
+            for (int attempt = 0; attempt < 3; attempt++) {
+                final Entry entry = entries.get(pResourceName);
+                if (entry == null) {
+                    return null;
+                }
+                entry.lastRead = clock.incrementAndGet();
+
+                final byte[] resident = entry.data;
+                if (resident != null) {
+                    return resident;
+                }
+
+                final Spill spill = entry.spill;
+                if (spill == null) {
+                    // got readmitted meanwhile
+                    continue;
+                }
+                try {
+                    final ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+                    while (buffer.hasRemaining()) {
+                        if (spill.channel.read(buffer, spill.offset + buffer.position()) < 0) {
+                            throw new EOFException();
+                        }
+                    }
+                    spillReads.incrementAndGet();
+                    final byte[] data = buffer.array();
+                    readmit(pResourceName, entry, data);
+                    return data;
+                } catch (final ClosedByInterruptException e) {
+                    // the interrupt closed the shared channel, retry without it
+                    interrupted |= Thread.interrupted();
+                    failure = e;
+                    reopen(spill.channel);
+                } catch (final ClosedChannelException e) {
+                    // the spill file got rewritten or closed by an interrupt of another reader
+                    failure = e;
+                    reopen(spill.channel);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException("could not read " + pResourceName + " from " + spillFile, e);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null && entries.containsKey(pResourceName)) {
+            throw new UncheckedIOException("could not read " + pResourceName + " from " + spillFile, failure);
+        }
+        return null;
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        final Entry entry = entries.get(pResourceName);
+        return entry != null ? entry.length : -1;
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        return entries.containsKey(pResourceName);
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return index.isPackage(pPackageName);
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return index.list(pPackageName);
+    }
+
+    @Override
+    public void write( final String pResourceName, final byte[] pData ) {
+        if (log.isDebugEnabled()) {
+            log.debug("writing resource " + pResourceName + "(" + pData.length + ")");
+        }
+        synchronized (lock) {
+            put(pResourceName, pData);
+            evict();
+        }
+    }
+
+    @Override
+    public void writeAll( final Map<String, byte[]> pResources ) {
+        if (log.isDebugEnabled()) {
+            log.debug("writing " + pResources.size() + " resources");
+        }
+        synchronized (lock) {
+            for (final Map.Entry<String, byte[]> resource : pResources.entrySet()) {
+                put(resource.getKey(), resource.getValue());
+            }
+            evict();
+        }
+    }
+
+    @Override
+    public void remove( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("removing resource " + pResourceName);
+        }
+        synchronized (lock) {
+            release(entries.remove(pResourceName));
+            index.remove(pResourceName);
+        }
+    }
+
+    @Override
+    public void removeAll( final Collection<String> pResourceNames ) {
+        if (log.isDebugEnabled()) {
+            log.debug("removing " + pResourceNames.size() + " resources");
+        }
+        synchronized (lock) {
+            for (final String resourceName : pResourceNames) {
+                release(entries.remove(resourceName));
+                index.remove(resourceName);
+            }
+        }
+    }
+
+    /**
+     * @return bytes of the resources kept on the heap
+     */
+    public long getResidentBytes() {
+        synchronized (lock) {
+            return residentBytes;
+        }
+    }
+
+    /**
+     * @return bytes of the resources only found in the spill file
+     */
+    public long getSpilledBytes() {
+        synchronized (lock) {
+            return spilledBytes;
+        }
+    }
+
+    /**
+     * @return number of reads served from the spill file
+     */
+    public long getSpillReads() {
+        return spillReads.get();
+    }
+
+    /**
+     * @return size of the spill file
+     */
+    public long getSpillFileBytes() {
+        synchronized (lock) {
+            try {
+                return channel.size();
+            } catch (final IOException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Drops all resources and deletes the spill file.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            entries.clear();
+            index.clear();
+            residentBytes = 0;
+            spilledBytes = 0;
+            garbageBytes = 0;
+            closed = true;
+            channel.close();
+            spillFile.delete();
+        }
+    }
+
+    private void put( final String pResourceName, final byte[] pData ) {
+        release(entries.put(pResourceName, new Entry(pData, clock.incrementAndGet())));
+        residentBytes += pData.length;
+        index.add(pResourceName);
+    }
+
+    private void release( final Entry pEntry ) {
+        if (pEntry == null) {
+            return;
+        }
+        if (pEntry.data != null) {
+            residentBytes -= pEntry.length;
+        } else {
+            spilledBytes -= pEntry.length;
+        }
+        if (pEntry.spill != null) {
+            garbageBytes += pEntry.length;
+        }
+    }
+
+    private void readmit( final String pResourceName, final Entry pEntry, final byte[] pData ) {
+        synchronized (lock) {
+            if (entries.get(pResourceName) != pEntry || pEntry.data != null) {
+                return;
+            }
+            // the copy in the spill file stays valid, spilling it again is free
+            pEntry.data = pData;
+            residentBytes += pEntry.length;
+            spilledBytes -= pEntry.length;
+            evict();
+        }
+    }
+
+    /**
+     * Spills the least recently read resources until three quarters of
+     * the budget are left.
+     */
+    private void evict() {
+        if (residentBytes <= maxBytes) {
+            return;
+        }
+
+        final List<Entry> resident = new ArrayList<>();
+        for (final Entry entry : entries.values()) {
+            if (entry.data != null) {
+                resident.add(entry);
+            }
+        }
+        resident.sort((a, b) -> Long.compare(a.lastRead, b.lastRead));
+
+        final long target = maxBytes - maxBytes / 4;
+        try {
+            for (final Entry entry : resident) {
+                if (residentBytes <= target) {
+                    break;
+                }
+                if (entry.spill == null) {
+                    entry.spill = append(entry.data);
+                }
+                entry.data = null;
+                residentBytes -= entry.length;
+                spilledBytes += entry.length;
+            }
+            if (garbageBytes > spilledBytes) {
+                rewrite();
+            }
+        } catch (final IOException e) {
+            log.error("could not spill to " + spillFile + ", keeping resources on the heap", e);
+        }
+    }
+
+    private Spill append( final byte[] pData ) throws IOException {
+        if (!channel.isOpen()) {
+            reopen(channel);
+        }
+        final long offset = channel.size();
+        final ByteBuffer buffer = ByteBuffer.wrap(pData);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        return new Spill(channel, offset);
+    }
+
+    /**
+     * Copies the spilled resources to a new spill file and drops the garbage.
+     */
+    private void rewrite() throws IOException {
+        final File file = new File(spillFile.getPath() + ".new");
+        final FileChannel previous = channel;
+        final Map<Entry, Spill> moved = new HashMap<>();
+        channel = open(file);
+        try {
+            for (final Entry entry : entries.values()) {
+                final Spill spill = entry.spill;
+                if (spill == null || entry.data != null) {
+                    continue;
+                }
+                final ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+                while (buffer.hasRemaining()) {
+                    if (spill.channel.read(buffer, spill.offset + buffer.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                moved.put(entry, append(buffer.array()));
+            }
+        } catch (final IOException e) {
+            channel.close();
+            channel = previous;
+            file.delete();
+            throw e;
+        }
+
+        for (final Entry entry : entries.values()) {
+            if (entry.spill != null) {
+                // resident ones get spilled again when needed
+                entry.spill = moved.get(entry);
+            }
+        }
+
+        // readers still on the old file retry on the closed channel
+        previous.close();
+        if (!file.renameTo(spillFile)) {
+            spillFile.delete();
+            spillFile = file;
+            spillFile.deleteOnExit();
+        }
+        garbageBytes = 0;
+
+        if (log.isDebugEnabled()) {
+            log.debug("rewrote " + spillFile + " with " + spilledBytes + " bytes");
+        }
+    }
+
+    /**
+     * Replaces the current channel after it got closed by an interrupt.
+     * The channels of old spill files stay closed.
+     */
+    private void reopen( final FileChannel pChannel ) {
+        synchronized (lock) {
+            if (channel != pChannel || closed) {
+                return;
+            }
+            try {
+                channel = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (final IOException e) {
+                log.error("could not reopen " + spillFile, e);
+                return;
+            }
+            for (final Entry entry : entries.values()) {
+                final Spill spill = entry.spill;
+                if (spill != null && spill.channel == pChannel) {
+                    entry.spill = new Spill(channel, spill.offset);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + entries.keySet().toString();
+    }
+}
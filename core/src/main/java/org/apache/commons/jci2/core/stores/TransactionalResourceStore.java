@@ -17,39 +17,241 @@
 
 package org.apache.commons.jci2.core.stores;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 /**
  * A TransactionalResourceStore get signals of the compilation process as a whole.
  * When it started and when the compiler finished.
  *
+ * Between onStart and onStop writes and removes are buffered. Only the
+ * thread that started the transaction sees them. On onStop the batch is
+ * published at once and then applied to the wrapped store, so other
+ * readers see either all of the old or all of the new resources and
+ * never block. A transaction can be discarded with {@link #rollback()}.
+ * Outside of a transaction changes go straight to the wrapped store.
+ *
  * @author tcurdt
  */
 public class TransactionalResourceStore implements ResourceStore, Transactional {
 
+    // marks a buffered remove
+    private static final byte[] REMOVED = new byte[0];
+
+    private final Log log = LogFactory.getLog(TransactionalResourceStore.class);
+
     private final ResourceStore store;
+    private final Object lock = new Object();
+    private volatile Map<String, byte[]> pending;
+    private volatile Thread owner;
+    // the batch while it gets applied to the store
+    private volatile Map<String, byte[]> committing;
 
     public TransactionalResourceStore( final ResourceStore pStore ) {
         store = pStore;
     }
 
+    /**
+     * Starts a transaction unless there is one already running.
+     */
     @Override
     public void onStart() {
+        synchronized (lock) {
+            if (pending != null) {
+                return;
+            }
+            pending = new ConcurrentHashMap<>();
+            owner = Thread.currentThread();
+        }
     }
 
+    /**
+     * Commits the running transaction. The removes and the writes are
+     * both applied even if one of them fails, the first failure is
+     * thrown afterwards.
+     */
     @Override
     public void onStop() {
+        synchronized (lock) {
+            final Map<String, byte[]> batch = pending;
+            if (batch == null) {
+                return;
+            }
+            committing = batch;
+            owner = null;
+            pending = null;
+            if (log.isDebugEnabled()) {
+                log.debug("committing " + batch.size() + " changes");
+            }
+            final Map<String, byte[]> writes = new HashMap<>();
+            final Collection<String> removes = new ArrayList<>();
+            for (final Map.Entry<String, byte[]> entry : batch.entrySet()) {
+                if (entry.getValue() == REMOVED) {
+                    removes.add(entry.getKey());
+                } else {
+                    writes.put(entry.getKey(), entry.getValue());
+                }
+            }
+            // a failed remove must not drop the writes of the batch
+            RuntimeException failure = null;
+            try {
+                if (!removes.isEmpty()) {
+                    try {
+                        store.removeAll(removes);
+                    } catch (final RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                if (!writes.isEmpty()) {
+                    try {
+                        store.writeAll(writes);
+                    } catch (final RuntimeException e) {
+                        if (failure == null) {
+                            failure = e;
+                        } else {
+                            failure.addSuppressed(e);
+                        }
+                    }
+                }
+            } finally {
+                committing = null;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Discards the changes of the running transaction.
+     *
+     * @return false if there was no transaction running
+     */
+    public boolean rollback() {
+        synchronized (lock) {
+            final Map<String, byte[]> batch = pending;
+            if (batch == null) {
+                return false;
+            }
+            owner = null;
+            pending = null;
+            if (log.isDebugEnabled()) {
+                log.debug("rolled back " + batch.size() + " changes");
+            }
+            return true;
+        }
+    }
+
+    private byte[] lookup( final String pResourceName ) {
+        if (owner == Thread.currentThread()) {
+            final Map<String, byte[]> batch = pending;
+            if (batch != null) {
+                final byte[] data = batch.get(pResourceName);
+                if (data != null) {
+                    return data;
+                }
+            }
+        }
+        final Map<String, byte[]> batch = committing;
+        if (batch != null) {
+            return batch.get(pResourceName);
+        }
+        return null;
     }
 
     @Override
     public byte[] read( final String pResourceName ) {
+        final byte[] data = lookup(pResourceName);
+        if (data != null) {
+            return data != REMOVED ? data : null;
+        }
         return store.read(pResourceName);
     }
     @Override
+    public ByteBuffer readBuffer( final String pResourceName ) {
+        final byte[] data = lookup(pResourceName);
+        if (data != null) {
+            return data != REMOVED ? ByteBuffer.wrap(data) : null;
+        }
+        return store.readBuffer(pResourceName);
+    }
+    @Override
     public void remove( final String pResourceName ) {
-        store.remove(pResourceName);
+        synchronized (lock) {
+            if (pending != null) {
+                pending.put(pResourceName, REMOVED);
+                return;
+            }
+            store.remove(pResourceName);
+        }
+    }
+    @Override
+    public boolean exists( final String pResourceName ) {
+        final byte[] data = lookup(pResourceName);
+        if (data != null) {
+            return data != REMOVED;
+        }
+        return store.exists(pResourceName);
+    }
+    /**
+     * Packages are answered from the wrapped store and do not
+     * reflect the changes of a running transaction yet.
+     */
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        return store.isPackage(pPackageName);
+    }
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        return store.listPackage(pPackageName);
+    }
+    @Override
+    public void removeAll( final Collection<String> pResourceNames ) {
+        synchronized (lock) {
+            if (pending != null) {
+                for (final String resourceName : pResourceNames) {
+                    pending.put(resourceName, REMOVED);
+                }
+                return;
+            }
+            store.removeAll(pResourceNames);
+        }
+    }
+    @Override
+    public void writeAll( final Map<String, byte[]> pResources ) {
+        synchronized (lock) {
+            if (pending != null) {
+                pending.putAll(pResources);
+                return;
+            }
+            store.writeAll(pResources);
+        }
     }
     @Override
     public void write( final String pResourceName, final byte[] pResourceData ) {
-        store.write(pResourceName, pResourceData);
+        synchronized (lock) {
+            if (pending != null) {
+                pending.put(pResourceName, pResourceData);
+                return;
+            }
+            store.write(pResourceName, pResourceData);
+        }
+    }
+
+    /**
+     * @return the snapshot of the wrapped store if it keeps versions
+     */
+    @Override
+    public ResourceStore snapshot() {
+        final ResourceStore snapshot = store.snapshot();
+        return snapshot != store ? snapshot : this;
     }
 
     @Override
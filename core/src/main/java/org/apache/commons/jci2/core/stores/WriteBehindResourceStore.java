@@ -0,0 +1,478 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.stores;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jci2.core.utils.ResourceIndex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A WriteBehindResourceStore decouples the writers from a slow (usually
+ * durable) store
+ *
+ * Writes and removes are only recorded in memory and served to readers
+ * right away. A background thread collects them for a short delay and
+ * hands them to the wrapped store as one batch via writeAll and
+ * removeAll. Writers block once the pending data exceeds the configured
+ * number of bytes until the flusher caught up.
+ *
+ * {@link #flush()} persists everything written so far. {@link #close()}
+ * flushes and stops the flusher. Neither the flusher nor the JVM shutdown
+ * hook that flushes on exit keep the store alive, a store that is dropped
+ * without closing it still gets its pending changes written and then
+ * stops its thread. Reads never lock.
+ *
+ * @author tcurdt
+ */
+public final class WriteBehindResourceStore implements ResourceStore, Closeable {
+
+    public static final long DEFAULT_MAX_PENDING_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_DELAY_MILLIS = 50;
+
+    private static final byte[] REMOVED = new byte[0];
+
+    // how often an idle flusher checks whether the store is still in use
+    private static final long IDLE_MILLIS = 1000;
+
+    private final Log log = LogFactory.getLog(WriteBehindResourceStore.class);
+
+    /**
+     * The state shared with the flusher and the shutdown hook. It must
+     * not refer to the store itself.
+     */
+    private static final class Queue {
+
+        private final Log log = LogFactory.getLog(WriteBehindResourceStore.class);
+
+        private final ResourceStore store;
+        private final long maxPendingBytes;
+        private final long delayMillis;
+
+        // guards the changes of pending and the counters, reads go without it
+        private final Object lock = new Object();
+        // serializes the batches so they reach the wrapped store in order
+        private final Object flushLock = new Object();
+        private final Map<String, byte[]> pending = new ConcurrentHashMap<>();
+        // taken from pending but not yet written to the wrapped store
+        private final Map<String, byte[]> inflight = new ConcurrentHashMap<>();
+        private volatile Thread flusher;
+
+        // guarded by lock
+        private long pendingBytes;
+        private long batches;
+        private boolean shutdown;
+
+        private Queue( final ResourceStore pStore, final long pMaxPendingBytes, final long pDelayMillis ) {
+            store = pStore;
+            maxPendingBytes = pMaxPendingBytes;
+            delayMillis = pDelayMillis;
+        }
+
+        private void flush() {
+            synchronized (flushLock) {
+                final Map<String, byte[]> batch;
+                synchronized (lock) {
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    batch = new HashMap<>(pending);
+                    // readers look at pending first, so they never miss a change
+                    inflight.putAll(batch);
+                    for (final Map.Entry<String, byte[]> entry : batch.entrySet()) {
+                        pending.remove(entry.getKey(), entry.getValue());
+                    }
+                }
+
+                final Map<String, byte[]> writes = new HashMap<>();
+                final List<String> removes = new ArrayList<>();
+                for (final Map.Entry<String, byte[]> entry : batch.entrySet()) {
+                    if (entry.getValue() != REMOVED) {
+                        writes.put(entry.getKey(), entry.getValue());
+                    } else {
+                        removes.add(entry.getKey());
+                    }
+                }
+
+                boolean written = false;
+                try {
+                    if (!removes.isEmpty()) {
+                        store.removeAll(removes);
+                    }
+                    if (!writes.isEmpty()) {
+                        store.writeAll(writes);
+                    }
+                    written = true;
+                } finally {
+                    synchronized (lock) {
+                        for (final Map.Entry<String, byte[]> entry : batch.entrySet()) {
+                            // keep failed changes unless they got replaced meanwhile
+                            if (written || pending.putIfAbsent(entry.getKey(), entry.getValue()) != null) {
+                                pendingBytes -= entry.getValue().length;
+                            }
+                            inflight.remove(entry.getKey(), entry.getValue());
+                        }
+                        if (written) {
+                            batches++;
+                        }
+                        lock.notifyAll();
+                    }
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug("wrote " + writes.size() + " and removed " + removes.size() + " resources");
+                }
+            }
+        }
+
+        private void flushQuietly() {
+            try {
+                flush();
+            } catch (final RuntimeException e) {
+                log.error("could not write pending changes to " + store, e);
+            }
+        }
+
+        private void enqueue( final String pResourceName, final byte[] pData ) {
+            final byte[] previous = pending.put(pResourceName, pData);
+            pendingBytes += pData.length - (previous != null ? previous.length : 0);
+            lock.notifyAll();
+        }
+
+        private void awaitCapacity() {
+            boolean interrupted = false;
+            while (pendingBytes > maxPendingBytes && !shutdown && Thread.currentThread() != flusher) {
+                try {
+                    lock.wait();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Waits until there is a batch to write.
+         *
+         * @return false once the store got shut down or dropped
+         */
+        private boolean awaitBatch( final WeakReference<WriteBehindResourceStore> pOwner ) throws InterruptedException {
+            synchronized (lock) {
+                while (pending.isEmpty() && !shutdown) {
+                    if (pOwner.get() == null) {
+                        // nobody can write anymore
+                        return false;
+                    }
+                    lock.wait(IDLE_MILLIS);
+                }
+                // give more changes the chance to join the batch
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+                long remaining = delayMillis;
+                while (!shutdown && pendingBytes < maxPendingBytes && remaining > 0) {
+                    lock.wait(remaining);
+                    remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                }
+                // the final flush happens in shutdown
+                return !shutdown;
+            }
+        }
+    }
+
+    private static final class Flusher implements Runnable {
+
+        private final WeakReference<WriteBehindResourceStore> owner;
+        private final Queue queue;
+        private final Thread shutdownHook;
+
+        private Flusher( final WriteBehindResourceStore pOwner, final Queue pQueue, final Thread pShutdownHook ) {
+            owner = new WeakReference<>(pOwner);
+            queue = pQueue;
+            shutdownHook = pShutdownHook;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (queue.awaitBatch(owner)) {
+                    try {
+                        queue.flush();
+                    } catch (final RuntimeException e) {
+                        queue.log.error("could not write to " + queue.store + ", retrying", e);
+                        Thread.sleep(Math.max(queue.delayMillis, 100));
+                    }
+                }
+            } catch (final InterruptedException e) {
+                // stop
+            } finally {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (final IllegalStateException e) {
+                    // the JVM is already shutting down
+                }
+            }
+        }
+    }
+
+    private static final class ShutdownHook implements Runnable {
+
+        private final WeakReference<Queue> queue;
+
+        private ShutdownHook( final Queue pQueue ) {
+            queue = new WeakReference<>(pQueue);
+        }
+
+        @Override
+        public void run() {
+            final Queue pending = queue.get();
+            if (pending != null) {
+                pending.flushQuietly();
+            }
+        }
+    }
+
+    private final Queue queue;
+    private final Thread flusher;
+
+    public WriteBehindResourceStore( final ResourceStore pStore ) {
+        this(pStore, DEFAULT_MAX_PENDING_BYTES, DEFAULT_DELAY_MILLIS);
+    }
+
+    /**
+     * @param pStore the store to write to
+     * @param pMaxPendingBytes bytes of pending writes after which writers block
+     * @param pDelayMillis how long the flusher waits for more writes to join a batch
+     */
+    public WriteBehindResourceStore( final ResourceStore pStore, final long pMaxPendingBytes, final long pDelayMillis ) {
+        if (pMaxPendingBytes <= 0) {
+            throw new IllegalArgumentException("max pending bytes must be positive");
+        }
+        queue = new Queue(pStore, pMaxPendingBytes, pDelayMillis);
+
+        final Thread shutdownHook = new Thread(new ShutdownHook(queue), "WriteBehindResourceStore shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        flusher = new Thread(new Flusher(this, queue, shutdownHook), "WriteBehindResourceStore flusher");
+        flusher.setDaemon(true);
+        queue.flusher = flusher;
+        flusher.start();
+    }
+
+    public ResourceStore getStore() {
+        return queue.store;
+    }
+
+    @Override
+    public byte[] read( final String pResourceName ) {
+        final byte[] data = lookup(pResourceName);
+        if (data != null) {
+            return data != REMOVED ? data : null;
+        }
+        return queue.store.read(pResourceName);
+    }
+
+    @Override
+    public boolean exists( final String pResourceName ) {
+        final byte[] data = lookup(pResourceName);
+        return data != null ? data != REMOVED : queue.store.exists(pResourceName);
+    }
+
+    @Override
+    public long size( final String pResourceName ) {
+        final byte[] data = lookup(pResourceName);
+        if (data != null) {
+            return data != REMOVED ? data.length : -1;
+        }
+        return queue.store.size(pResourceName);
+    }
+
+    @Override
+    public boolean isPackage( final String pPackageName ) {
+        if (queue.store.isPackage(pPackageName)) {
+            return true;
+        }
+        for (final Map<String, byte[]> map : maps()) {
+            for (final Map.Entry<String, byte[]> entry : map.entrySet()) {
+                if (entry.getValue() != REMOVED && isInPackage(entry.getKey(), pPackageName)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Collection<String> listPackage( final String pPackageName ) {
+        final Set<String> resources = new LinkedHashSet<>(queue.store.listPackage(pPackageName));
+        // inflight first, pending is the newer state
+        for (final Map<String, byte[]> map : maps()) {
+            for (final Map.Entry<String, byte[]> entry : map.entrySet()) {
+                if (pPackageName.equals(ResourceIndex.getPackage(entry.getKey()))) {
+                    if (entry.getValue() != REMOVED) {
+                        resources.add(entry.getKey());
+                    } else {
+                        resources.remove(entry.getKey());
+                    }
+                }
+            }
+        }
+        return resources;
+    }
+
+    @Override
+    public void write( final String pResourceName, final byte[] pResourceData ) {
+        if (log.isDebugEnabled()) {
+            log.debug("writing resource " + pResourceName + "(" + pResourceData.length + ")");
+        }
+        synchronized (queue.lock) {
+            ensureRunning();
+            queue.enqueue(pResourceName, pResourceData);
+            queue.awaitCapacity();
+        }
+    }
+
+    @Override
+    public void writeAll( final Map<String, byte[]> pResources ) {
+        if (log.isDebugEnabled()) {
+            log.debug("writing " + pResources.size() + " resources");
+        }
+        synchronized (queue.lock) {
+            ensureRunning();
+            for (final Map.Entry<String, byte[]> entry : pResources.entrySet()) {
+                queue.enqueue(entry.getKey(), entry.getValue());
+            }
+            queue.awaitCapacity();
+        }
+    }
+
+    @Override
+    public void remove( final String pResourceName ) {
+        if (log.isDebugEnabled()) {
+            log.debug("removing resource " + pResourceName);
+        }
+        synchronized (queue.lock) {
+            ensureRunning();
+            queue.enqueue(pResourceName, REMOVED);
+        }
+    }
+
+    @Override
+    public void removeAll( final Collection<String> pResourceNames ) {
+        if (log.isDebugEnabled()) {
+            log.debug("removing " + pResourceNames.size() + " resources");
+        }
+        synchronized (queue.lock) {
+            ensureRunning();
+            for (final String resourceName : pResourceNames) {
+                queue.enqueue(resourceName, REMOVED);
+            }
+        }
+    }
+
+    /**
+     * Writes all pending changes to the wrapped store before returning.
+     */
+    public void flush() {
+        queue.flush();
+    }
+
+    /**
+     * Flushes the pending changes and stops the background thread.
+     * Later changes are rejected.
+     */
+    public void shutdown() {
+        synchronized (queue.lock) {
+            if (queue.shutdown) {
+                return;
+            }
+            queue.shutdown = true;
+            queue.lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.flush();
+    }
+
+    /**
+     * Same as {@link #shutdown()}, the wrapped store is not closed.
+     */
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    /**
+     * @return bytes of the changes not yet written to the wrapped store
+     */
+    public long getPendingBytes() {
+        synchronized (queue.lock) {
+            return queue.pendingBytes;
+        }
+    }
+
+    /**
+     * @return number of batches written to the wrapped store
+     */
+    public long getBatchCount() {
+        synchronized (queue.lock) {
+            return queue.batches;
+        }
+    }
+
+    private void ensureRunning() {
+        if (queue.shutdown) {
+            throw new IllegalStateException(this + " is shut down");
+        }
+    }
+
+    private byte[] lookup( final String pResourceName ) {
+        final byte[] data = queue.pending.get(pResourceName);
+        return data != null ? data : queue.inflight.get(pResourceName);
+    }
+
+    private List<Map<String, byte[]>> maps() {
+        final List<Map<String, byte[]>> maps = new ArrayList<>(2);
+        maps.add(queue.inflight);
+        maps.add(queue.pending);
+        return maps;
+    }
+
+    private static boolean isInPackage( final String pResourceName, final String pPackageName ) {
+        return pPackageName.length() == 0 || pResourceName.startsWith(pPackageName + "/");
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + "[" + queue.store + "]";
+    }
+}
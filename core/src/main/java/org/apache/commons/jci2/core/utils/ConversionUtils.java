@@ -57,6 +57,19 @@ public final class ConversionUtils {
         return withoutExtension;
     }
 
+    /**
+     * Please do not use - internal
+     * org/my/Class$Inner.xxx -&gt; org/my/Class
+     */
+    public static String getOuterName( final String pResourceName ) {
+        final String name = stripExtension(pResourceName);
+        final int i = name.indexOf('$', name.lastIndexOf('/') + 1);
+        if (i <= 0) {
+            return name;
+        }
+        return name.substring(0, i);
+    }
+
     public static String toJavaCasing(final String pName) {
         final char[] name = pName.toLowerCase(Locale.US).toCharArray();
         name[0] = Character.toUpperCase(name[0]);
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.core.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the packages of the resources in a store or reader
+ *
+ * Packages are given as resource paths like "org/my" with "" being the
+ * default package. Both the resources directly in a package and the
+ * number of resources in a package and all its sub packages are kept,
+ * so listing and package checks do not have to scan all resources.
+ * Changes are serialized, queries never lock.
+ *
+ * NOT FOR USE OUTSIDE OF JCI
+ *
+ * @author tcurdt
+ */
+public final class ResourceIndex {
+
+    private final Map<String, Set<String>> resources = new ConcurrentHashMap<>();
+    private final Map<String, Integer> counts = new ConcurrentHashMap<>();
+
+    public synchronized void add( final String pResourceName ) {
+        final String packageName = getPackage(pResourceName);
+        if (resources.computeIfAbsent(packageName, k -> ConcurrentHashMap.newKeySet()).add(pResourceName)) {
+            String name = packageName;
+            while (name != null) {
+                counts.merge(name, 1, Integer::sum);
+                name = getParent(name);
+            }
+        }
+    }
+
+    public synchronized void remove( final String pResourceName ) {
+        final String packageName = getPackage(pResourceName);
+        final Set<String> names = resources.get(packageName);
+        if (names == null || !names.remove(pResourceName)) {
+            return;
+        }
+        if (names.isEmpty()) {
+            resources.remove(packageName);
+        }
+        String name = packageName;
+        while (name != null) {
+            counts.computeIfPresent(name, (k, count) -> count > 1 ? count - 1 : null);
+            name = getParent(name);
+        }
+    }
+
+    public synchronized void clear() {
+        resources.clear();
+        counts.clear();
+    }
+
+    /**
+     * @param pPackageName e.g. "org/my"
+     * @return whether there are resources in the package or one of its sub packages
+     */
+    public boolean isPackage( final String pPackageName ) {
+        return counts.containsKey(pPackageName);
+    }
+
+    /**
+     * @param pPackageName e.g. "org/my"
+     * @return live view of the resources directly in the package
+     */
+    public Collection<String> list( final String pPackageName ) {
+        final Set<String> names = resources.get(pPackageName);
+        if (names == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * org/my/Class.class -&gt; org/my
+     */
+    public static String getPackage( final String pResourceName ) {
+        final int i = pResourceName.lastIndexOf('/');
+        if (i < 0) {
+            return "";
+        }
+        return pResourceName.substring(0, i);
+    }
+
+    private static String getParent( final String pPackageName ) {
+        if (pPackageName.isEmpty()) {
+            return null;
+        }
+        return getPackage(pPackageName);
+    }
+}
@@ -18,17 +18,22 @@
 package org.apache.commons.jci2.core;
 
 import java.io.File;
+import java.util.Arrays;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.jci2.core.classes.ExtendedDump;
 import org.apache.commons.jci2.core.classes.SimpleDump;
+import org.apache.commons.jci2.core.compiler.CachingJavaCompiler;
+import org.apache.commons.jci2.core.compiler.CompilationCache;
 import org.apache.commons.jci2.core.compiler.CompilationResult;
 import org.apache.commons.jci2.core.compiler.JavaCompiler;
 import org.apache.commons.jci2.core.compiler.JavaCompilerSettings;
 import org.apache.commons.jci2.core.listeners.CompilingListener;
 import org.apache.commons.jci2.core.problems.CompilationProblem;
 import org.apache.commons.jci2.core.problems.CompilationProblemHandler;
+import org.apache.commons.jci2.core.readers.MemoryResourceReader;
 import org.apache.commons.jci2.core.readers.ResourceReader;
+import org.apache.commons.jci2.core.stores.MemoryResourceStore;
 import org.apache.commons.jci2.core.stores.ResourceStore;
 import org.apache.commons.jci2.core.utils.ConversionUtils;
 import org.apache.commons.jci2.fam.monitor.FilesystemAlterationMonitor;
@@ -44,6 +49,7 @@ public final class CompilingClassLoaderTestCase extends AbstractTestCase {
     private final Log log = LogFactory.getLog(CompilingClassLoaderTestCase.class);
 
     private ReloadingClassLoader classloader;
+    private MockJavaCompiler compiler;
     private CompilingListener listener;
     private FilesystemAlterationMonitor fam;
 
@@ -51,9 +57,14 @@ public final class CompilingClassLoaderTestCase extends AbstractTestCase {
 
         private final Log log = LogFactory.getLog(MockJavaCompiler.class);
 
+        private int compilations;
+        private boolean nested;
+
         @Override
         public CompilationResult compile(final String[] pResourcePaths, final ResourceReader pReader, final ResourceStore pStore, final ClassLoader pClassLoader, final JavaCompilerSettings pSettings ) {
 
+            compilations++;
+
             for (final String resourcePath : pResourcePaths) {
                 final byte[] resourceContent = pReader.getBytes(resourcePath);
 
@@ -85,6 +96,10 @@ public final class CompilingClassLoaderTestCase extends AbstractTestCase {
 
                 pStore.write(ConversionUtils.stripExtension(resourcePath) + ".class", data);
 
+                if (nested) {
+                    pStore.write(ConversionUtils.stripExtension(resourcePath) + "$1.class", data);
+                }
+
             }
 
             return new CompilationResult(new CompilationProblem[0]);
@@ -116,7 +131,8 @@ public final class CompilingClassLoaderTestCase extends AbstractTestCase {
         super.setUp();
 
         classloader = new ReloadingClassLoader(this.getClass().getClassLoader());
-        listener = new CompilingListener(new MockJavaCompiler());
+        compiler = new MockJavaCompiler();
+        listener = new CompilingListener(compiler);
 
         listener.addReloadNotificationListener(classloader);
 
@@ -237,6 +253,107 @@ public final class CompilingClassLoaderTestCase extends AbstractTestCase {
 
     }
 
+    public void testNestedClasses() throws Exception {
+        compiler.nested = true;
+        initialCompile();
+
+        final ResourceStore store = listener.getStore();
+        assertNotNull(store.read("jci2/Simple.class"));
+        assertNotNull(store.read("jci2/Simple$1.class"));
+
+        log.debug("recompiling without the nested class");
+        compiler.nested = false;
+        delay();
+        writeFile("jci2/Simple.java", "Simple2");
+        listener.waitForCheck();
+
+        assertNotNull(store.read("jci2/Simple.class"));
+        assertNull(store.read("jci2/Simple$1.class"));
+        assertNotNull(store.read("jci2/Extended$1.class"));
+
+        log.debug("deleting source file");
+        assertTrue(new File(directory, "jci2/Extended.java").delete());
+        listener.waitForCheck();
+
+        assertNull(store.read("jci2/Extended.class"));
+        assertNull(store.read("jci2/Extended$1.class"));
+        assertNotNull(store.read("jci2/Simple.class"));
+    }
+
+    public void testWriteBehind() throws Exception {
+        fam.removeListener(listener);
+
+        final MemoryResourceStore store = new MemoryResourceStore();
+        final CompilingListener writeBehindListener = new CompilingListener(compiler, store, true);
+        classloader = new ReloadingClassLoader(this.getClass().getClassLoader());
+        listener = writeBehindListener;
+        listener.addReloadNotificationListener(classloader);
+        fam.addListener(directory, listener);
+
+        initialCompile();
+
+        final Object simple = classloader.loadClass("jci2.Simple").getConstructor().newInstance();
+        assertEquals("Simple1", simple.toString());
+
+        fam.removeListener(listener);
+        writeBehindListener.close();
+        assertNotNull(store.read("jci2/Simple.class"));
+        assertNotNull(store.read("jci2/Extended.class"));
+    }
+
+    public void testCompilationCache() throws Exception {
+        final File cacheDirectory = createTempDirectory();
+        try {
+            final MockJavaCompiler mock = new MockJavaCompiler();
+            final CachingJavaCompiler compiler = new CachingJavaCompiler(mock, new CompilationCache(cacheDirectory));
+
+            final MemoryResourceReader reader = new MemoryResourceReader();
+            reader.add("jci2/Simple.java", "Simple1".getBytes());
+            reader.add("jci2/Extended.java", "Extended".getBytes());
+            final String[] sources = { "jci2/Simple.java", "jci2/Extended.java" };
+
+            final MemoryResourceStore store1 = new MemoryResourceStore();
+            assertEquals(0, compiler.compile(sources, reader, store1).getErrors().length);
+            assertEquals(1, mock.compilations);
+
+            // a restart with the same sources does not need the compiler
+            final CachingJavaCompiler restarted = new CachingJavaCompiler(mock, new CompilationCache(cacheDirectory));
+            final MemoryResourceStore store2 = new MemoryResourceStore();
+            assertEquals(0, restarted.compile(sources, reader, store2).getErrors().length);
+            assertEquals(1, mock.compilations);
+            assertEquals(2, restarted.getCache().getHits());
+            assertTrue(Arrays.equals(store1.read("jci2/Simple.class"), store2.read("jci2/Simple.class")));
+            assertTrue(Arrays.equals(store1.read("jci2/Extended.class"), store2.read("jci2/Extended.class")));
+
+            // a changed body of a dependency keeps the ABI
+            reader.add("jci2/Simple.java", "Simple2".getBytes());
+            restarted.compile(new String[] { "jci2/Simple.java" }, reader, store2);
+            assertEquals(2, mock.compilations);
+            restarted.compile(new String[] { "jci2/Extended.java" }, reader, store2);
+            assertEquals(2, mock.compilations);
+
+            // a missing dependency invalidates the cached output
+            store2.remove("jci2/Simple.class");
+            restarted.compile(new String[] { "jci2/Extended.java" }, reader, store2);
+            assertEquals(3, mock.compilations);
+
+            // settings without a fingerprint bypass the cache
+            final JavaCompilerSettings opaque = new JavaCompilerSettings() {
+                @Override
+                public String getFingerprint() {
+                    return null;
+                }
+            };
+            final long hits = restarted.getCache().getHits();
+            restarted.compile(sources, reader, store2, null, opaque);
+            restarted.compile(sources, reader, store2, null, opaque);
+            assertEquals(5, mock.compilations);
+            assertEquals(hits, restarted.getCache().getHits());
+        } finally {
+            FileUtils.deleteDirectory(cacheDirectory);
+        }
+    }
+
     @Override
     protected void tearDown() throws Exception {
         fam.removeListener(listener);
@@ -18,11 +18,21 @@
  package org.apache.commons.jci2.core;
 
  import java.io.File;
- 
+ import java.io.FileOutputStream;
+ import java.io.IOException;
+ import java.util.Arrays;
+ import java.util.zip.CRC32;
+ import java.util.zip.ZipEntry;
+ import java.util.zip.ZipOutputStream;
+ 
+ import org.apache.commons.io.FileUtils;
  import org.apache.commons.jci2.core.classes.ExtendedDump;
  import org.apache.commons.jci2.core.classes.SimpleDump;
  import org.apache.commons.jci2.core.listeners.ReloadingListener;
+ import org.apache.commons.jci2.core.stores.GenerationalResourceStore;
+ import org.apache.commons.jci2.core.stores.JarResourceStore;
  import org.apache.commons.jci2.fam.monitor.FilesystemAlterationMonitor;
+ import org.apache.commons.jci2.fam.monitor.FilesystemAlterationObserverImpl;
  import org.apache.commons.logging.Log;
  import org.apache.commons.logging.LogFactory;
 
@@ -148,6 +158,146 @@
      }
  
 
+     public void testJarResourceStore() throws Exception {
+         final File jar = new File(directory, "lib.jar");
+         writeJar(jar, clazzSimple1);
+
+         final JarResourceStore store = new JarResourceStore(jar);
+         try {
+             assertEquals(2, store.size());
+             assertEquals("data", new String(store.read("jci2/data.txt"), "UTF-8"));
+             assertNull(store.read("jci2/"));
+
+             classloader.addResourceStore(store);
+             final Object simple1 = classloader.loadClass("jci2.Simple").getConstructor().newInstance();
+             assertEquals("Simple1", simple1.toString());
+
+             final File replacement = new File(directory, "lib.jar.tmp");
+             writeJar(replacement, clazzSimple2);
+             assertTrue(replacement.renameTo(jar));
+             store.reload();
+             classloader.handleNotification();
+
+             final Object simple2 = classloader.loadClass("jci2.Simple").getConstructor().newInstance();
+             assertEquals("Simple2", simple2.toString());
+
+             assertEquals(clazzSimple2.length, store.size("jci2/Simple.class"));
+             assertEquals(-1, store.size("jci2/Missing.class"));
+
+             // an interrupted reader still reads the indexed archive and keeps its interrupt
+             writeJar(replacement, clazzSimple1);
+             assertTrue(replacement.renameTo(jar));
+             Thread.currentThread().interrupt();
+             try {
+                 assertTrue(Arrays.equals(clazzSimple2, store.read("jci2/Simple.class")));
+                 assertTrue(Thread.currentThread().isInterrupted());
+             } finally {
+                 Thread.interrupted();
+             }
+             store.reload();
+             assertTrue(Arrays.equals(clazzSimple1, store.read("jci2/Simple.class")));
+             assertEquals("data", new String(store.read("jci2/data.txt"), "UTF-8"));
+
+             try {
+                 store.write("jci2/Other.class", clazzSimple1);
+                 fail();
+             } catch (final UnsupportedOperationException e) {
+             }
+
+             assertTrue(classloader.removeResourceStore(store));
+             try {
+                 classloader.loadClass("jci2.Simple");
+                 fail();
+             } catch (final ClassNotFoundException e) {
+             }
+         } finally {
+             store.close();
+         }
+     }
+
+     public void testJarResourceStoreClosed() throws Exception {
+         final File jar = new File(directory, "lib.jar");
+         writeJar(jar, clazzSimple1);
+
+         final JarResourceStore store = new JarResourceStore(jar);
+         assertTrue(Arrays.equals(clazzSimple1, store.read("jci2/Simple.class")));
+         store.close();
+
+         // a closed store must not open the archive again
+         assertNull(store.read("jci2/Simple.class"));
+         assertNull(store.read("jci2/data.txt"));
+         try {
+             store.reload();
+             fail();
+         } catch (final IOException e) {
+         }
+         assertNull(store.read("jci2/Simple.class"));
+     }
+
+     private void writeJar( final File pFile, final byte[] pClazz ) throws Exception {
+         try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(pFile))) {
+             out.putNextEntry(new ZipEntry("jci2/"));
+             out.putNextEntry(new ZipEntry("jci2/Simple.class"));
+             out.write(pClazz);
+
+             final byte[] data = "data".getBytes("UTF-8");
+             final ZipEntry stored = new ZipEntry("jci2/data.txt");
+             stored.setMethod(ZipEntry.STORED);
+             stored.setSize(data.length);
+             final CRC32 crc = new CRC32();
+             crc.update(data);
+             stored.setCrc(crc.getValue());
+             out.putNextEntry(stored);
+             out.write(data);
+         }
+     }
+
+     public void testSharedArchiveEntries() throws Exception {
+         final File archives = createTempDirectory();
+         try {
+             final ReloadingListener archiveListener = new ReloadingListener();
+             final FilesystemAlterationObserverImpl observer = new FilesystemAlterationObserverImpl(archives);
+             observer.setArchiveAware(true);
+             observer.addListener(archiveListener);
+             observer.checkAndNotify();
+
+             final File first = new File(archives, "first.jar");
+             writeJar(first, clazzSimple1);
+             final File second = new File(archives, "second.jar");
+             writeJar(second, clazzSimple2);
+             observer.checkAndNotify();
+
+             assertNotNull(archiveListener.getStore().read("jci2/Simple.class"));
+
+             assertTrue(first.delete());
+             observer.checkAndNotify();
+
+             assertTrue(Arrays.equals(clazzSimple2, archiveListener.getStore().read("jci2/Simple.class")));
+
+             assertTrue(second.delete());
+             observer.checkAndNotify();
+
+             assertNull(archiveListener.getStore().read("jci2/Simple.class"));
+         } finally {
+             FileUtils.deleteDirectory(archives);
+         }
+     }
+
+     public void testGenerationalResourceStore() throws Exception {
+         final GenerationalResourceStore store = new GenerationalResourceStore();
+         store.write("jci2/Simple.class", clazzSimple1);
+         classloader.addResourceStore(store);
+
+         // not visible to the current generation until the reload
+         store.write("jci2/Simple.class", clazzSimple2);
+         final Object simple1 = classloader.loadClass("jci2.Simple").getConstructor().newInstance();
+         assertEquals("Simple1", simple1.toString());
+
+         classloader.handleNotification();
+         final Object simple2 = classloader.loadClass("jci2.Simple").getConstructor().newInstance();
+         assertEquals("Simple2", simple2.toString());
+     }
+
      public void testClassNotFound() {
          try {
              classloader.loadClass("bla");
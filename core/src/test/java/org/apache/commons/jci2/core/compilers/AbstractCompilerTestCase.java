@@ -17,14 +17,21 @@
 
 package org.apache.commons.jci2.core.compilers;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.jci2.core.compiler.CachingJavaCompiler;
+import org.apache.commons.jci2.core.compiler.CompilationCache;
 import org.apache.commons.jci2.core.compiler.CompilationResult;
 import org.apache.commons.jci2.core.compiler.JavaCompiler;
 import org.apache.commons.jci2.core.compiler.JavaCompilerFactory;
 import org.apache.commons.jci2.core.compiler.JavaCompilerSettings;
 import org.apache.commons.jci2.core.problems.CompilationProblem;
+import org.apache.commons.jci2.core.readers.MemoryResourceReader;
 import org.apache.commons.jci2.core.readers.ResourceReader;
 import org.apache.commons.jci2.core.stores.MemoryResourceStore;
 
@@ -356,6 +363,100 @@ public abstract class AbstractCompilerTestCase extends TestCase {
         assertEquals("Unexpected warning(s): " + toString(result.getWarnings()), 0, result.getWarnings().length);
     }
 
+    public void testCachedCompile() throws Exception {
+        final File cacheDirectory = Files.createTempDirectory("jci").toFile();
+        try {
+            final JavaCompiler compiler = new CachingJavaCompiler(createJavaCompiler(), new CompilationCache(cacheDirectory));
+
+            final ResourceReader reader = new ResourceReader() {
+                final private Map<String, byte[]> sources = new HashMap<String, byte[]>() {
+                    private static final long serialVersionUID = 1L;
+                    {
+                        put("jci2/Simple.java", (
+                                "package jci2;\n" +
+                                "public class Simple {\n" +
+                                "  public String toString() {\n" +
+                                "    return \"Simple\";\n" +
+                                "  }\n" +
+                        "}").getBytes());
+                    }};
+
+                @Override
+                public byte[] getBytes( final String pResourceName ) {
+                    return sources.get(pResourceName);
+                }
+
+                @Override
+                public boolean isAvailable( final String pResourceName ) {
+                    return sources.containsKey(pResourceName);
+                }
+
+            };
+
+            final MemoryResourceStore store1 = new MemoryResourceStore();
+            final CompilationResult result1 = compiler.compile(new String[] { "jci2/Simple.java" }, reader, store1);
+            assertEquals(toString(result1.getErrors()), 0, result1.getErrors().length);
+
+            final MemoryResourceStore store2 = new MemoryResourceStore();
+            final CompilationResult result2 = compiler.compile(new String[] { "jci2/Simple.java" }, reader, store2);
+            assertEquals(toString(result2.getErrors()), 0, result2.getErrors().length);
+
+            assertEquals(1, ((CachingJavaCompiler) compiler).getCache().getHits());
+            assertTrue(Arrays.equals(store1.read("jci2/Simple.class"), store2.read("jci2/Simple.class")));
+
+            // a restart with fresh default settings still hits
+            final CachingJavaCompiler restarted = new CachingJavaCompiler(createJavaCompiler(), new CompilationCache(cacheDirectory));
+            final MemoryResourceStore store3 = new MemoryResourceStore();
+            final CompilationResult result3 = restarted.compile(new String[] { "jci2/Simple.java" }, reader, store3);
+            assertEquals(toString(result3.getErrors()), 0, result3.getErrors().length);
+            assertEquals(1, restarted.getCache().getHits());
+            assertTrue(Arrays.equals(store1.read("jci2/Simple.class"), store3.read("jci2/Simple.class")));
+        } finally {
+            FileUtils.deleteDirectory(cacheDirectory);
+        }
+    }
+
+    public void testCachedCompileDependencyThrows() throws Exception {
+        final File cacheDirectory = Files.createTempDirectory("jci").toFile();
+        try {
+            final CachingJavaCompiler compiler = new CachingJavaCompiler(createJavaCompiler(), new CompilationCache(cacheDirectory));
+            final MemoryResourceReader reader = new MemoryResourceReader();
+            reader.add("jci2/Dependency.java", (
+                    "package jci2;\n" +
+                    "public class Dependency {\n" +
+                    "  public static void run() {\n" +
+                    "  }\n" +
+                    "}").getBytes());
+            reader.add("jci2/User.java", (
+                    "package jci2;\n" +
+                    "public class User {\n" +
+                    "  public void use() {\n" +
+                    "    Dependency.run();\n" +
+                    "  }\n" +
+                    "}").getBytes());
+
+            final MemoryResourceStore store = new MemoryResourceStore();
+            final CompilationResult result1 = compiler.compile(new String[] { "jci2/Dependency.java", "jci2/User.java" }, reader, store);
+            assertEquals(toString(result1.getErrors()), 0, result1.getErrors().length);
+
+            // the dependency now declares a checked exception the user does not handle
+            reader.add("jci2/Dependency.java", (
+                    "package jci2;\n" +
+                    "public class Dependency {\n" +
+                    "  public static void run() throws Exception {\n" +
+                    "  }\n" +
+                    "}").getBytes());
+            final CompilationResult result2 = compiler.compile(new String[] { "jci2/Dependency.java" }, reader, store);
+            assertEquals(toString(result2.getErrors()), 0, result2.getErrors().length);
+
+            // the cached output of the unchanged user must not be used
+            final CompilationResult result3 = compiler.compile(new String[] { "jci2/User.java" }, reader, store);
+            assertTrue(result3.getErrors().length > 0);
+        } finally {
+            FileUtils.deleteDirectory(cacheDirectory);
+        }
+    }
+
     public final String toString( final CompilationProblem[] pProblems ) {
         final StringBuilder sb = new StringBuilder();
 
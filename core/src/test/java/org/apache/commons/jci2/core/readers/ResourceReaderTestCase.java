@@ -17,6 +17,14 @@
 
 package org.apache.commons.jci2.core.readers;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.jci2.core.AbstractTestCase;
 
 /**
@@ -30,6 +38,23 @@ public final class ResourceReaderTestCase extends AbstractTestCase {
         checkRead(new FileResourceReader(directory));
     }
 
+    public void testPackageIndex() throws Exception {
+        writeFile("org/my/A.java", "A");
+        final MemoryResourceReader memory = new MemoryResourceReader();
+        memory.add("org/my/A.java", "A".getBytes());
+
+        for (final ResourceReader reader : new ResourceReader[] { new FileResourceReader(directory), memory }) {
+            assertTrue(reader.exists("org/my/A.java"));
+            assertTrue(reader.isPackage("org"));
+            assertTrue(reader.isPackage("org/my"));
+            assertFalse(reader.isPackage("org/other"));
+            assertEquals(Collections.singletonList("org/my/A.java"), new ArrayList<>(reader.listPackage("org/my")));
+        }
+
+        memory.remove("org/my/A.java");
+        assertFalse(memory.isPackage("org"));
+    }
+
     public void testMemoryResourceReader() throws Exception {
         final MemoryResourceReader reader = new MemoryResourceReader();
         reader.add("test", "test".getBytes());
@@ -48,5 +73,18 @@ public final class ResourceReaderTestCase extends AbstractTestCase {
 
         assertFalse(reader.isAvailable("bla"));
         assertNull(reader.getBytes("bla"));
+
+        assertEquals(4, reader.size("test"));
+        assertEquals(-1, reader.size("bla"));
+        assertEquals(4, reader.getBuffer("test").remaining());
+        assertNull(reader.getBuffer("bla"));
+        try (InputStream is = reader.openStream("test")) {
+            assertEquals("test", IOUtils.toString(is, StandardCharsets.UTF_8));
+        }
+        assertNull(reader.openStream("bla"));
+        try (ReadableByteChannel channel = reader.openChannel("test")) {
+            assertTrue(channel.read(ByteBuffer.allocate(8)) > 0);
+        }
+        assertNull(reader.openChannel("bla"));
     }
 }
@@ -17,6 +17,30 @@
 
 package org.apache.commons.jci2.core.stores;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+
+import javax.management.ObjectName;
+
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.jci2.core.AbstractTestCase;
 import org.apache.commons.lang3.ArrayUtils;
 
@@ -29,11 +53,774 @@ public final class ResourceStoreTestCase extends AbstractTestCase {
     public void testMemoryResourceStore() {
         checkReadWrite(new MemoryResourceStore());
         checkRemove(new MemoryResourceStore());
+
+        try {
+            new MemoryResourceStore().write("a", (byte[]) null);
+            fail();
+        } catch (final IllegalArgumentException e) {
+        }
+    }
+
+    public void testMemoryResourceStoreBatch() {
+        final MemoryResourceStore store = new MemoryResourceStore();
+        final Map<String, byte[]> batch = new HashMap<>();
+        batch.put("a", new byte[] { 1 });
+        batch.put("b", new byte[] { 2 });
+        batch.put("c", new byte[] { 3 });
+        store.writeAll(batch);
+
+        assertTrue(ArrayUtils.isEquals(new byte[] { 2 }, store.read("b")));
+
+        store.removeAll(Arrays.asList("a", "b"));
+
+        assertNull(store.read("a"));
+        assertNull(store.read("b"));
+        assertNotNull(store.read("c"));
+    }
+
+    public void testMemoryResourceStoreConcurrentAccess() throws Exception {
+        final MemoryResourceStore store = new MemoryResourceStore();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        final Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 10000; j++) {
+                        final byte[] data = store.read("key" + (j % 100));
+                        if (data != null && data.length != 3) {
+                            throw new IllegalStateException("corrupt data");
+                        }
+                    }
+                } catch (final Throwable t) {
+                    failure.set(t);
+                }
+            });
+            readers[i].start();
+        }
+
+        for (int j = 0; j < 10000; j++) {
+            final String key = "key" + (j % 100);
+            if (j % 3 == 0) {
+                store.remove(key);
+            } else {
+                store.write(key, new byte[] { 1, 2, 3 });
+            }
+        }
+
+        for (final Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+    }
+
+    public void testOffHeapResourceStore() {
+        checkReadWrite(new OffHeapResourceStore());
+        checkRemove(new OffHeapResourceStore());
+    }
+
+    public void testOffHeapResourceStoreCompaction() {
+        final OffHeapResourceStore store = new OffHeapResourceStore(16, Runnable::run);
+        for (int i = 0; i < 8; i++) {
+            store.write("key" + i, new byte[] { (byte) i, 2, 3, 4 });
+        }
+        assertEquals(32, store.getLiveBytes());
+        assertEquals(32, store.getAllocatedBytes());
+
+        store.write("key0", new byte[] { 5, 6, 7, 8 });
+        for (int i = 1; i < 8; i += 2) {
+            store.remove("key" + i);
+        }
+        for (int i = 2; i < 8; i += 2) {
+            store.remove("key" + i);
+        }
+
+        assertEquals(4, store.getLiveBytes());
+        assertTrue(store.getAllocatedBytes() < 48);
+        assertTrue(ArrayUtils.isEquals(new byte[] { 5, 6, 7, 8 }, store.read("key0")));
+
+        final ByteBuffer buffer = store.readBuffer("key0");
+        assertTrue(buffer.isDirect());
+        assertTrue(buffer.isReadOnly());
+        assertEquals(4, buffer.remaining());
+        assertEquals(5, buffer.get(0));
+        assertNull(store.readBuffer("key1"));
+    }
+
+    public void testLogStructuredResourceStore() throws Exception {
+        try (LogStructuredResourceStore store = new LogStructuredResourceStore(new File(directory, "rw"))) {
+            checkReadWrite(store);
+            checkRemove(store);
+            checkPackageIndex(store);
+        }
+
+        final File log = new File(directory, "log");
+        try (LogStructuredResourceStore store = new LogStructuredResourceStore(log, 64, Runnable::run)) {
+            for (int i = 0; i < 8; i++) {
+                store.write("key" + i, new byte[] { (byte) i, 2, 3, 4 });
+            }
+            assertTrue(store.getSegmentCount() > 1);
+
+            // all but two records die, the sparse segments are dropped
+            for (int i = 1; i < 8; i++) {
+                store.remove("key" + i);
+            }
+            store.write("key0", new byte[] { 5, 6, 7, 8 });
+            store.write("key9", new byte[] { 9 });
+            store.compact();
+            assertEquals(2 * 12 + 2 * 4 + 4 + 1, store.getLiveBytes());
+            assertTrue(ArrayUtils.isEquals(new byte[] { 5, 6, 7, 8 }, store.read("key0")));
+            assertNull(store.read("key1"));
+        }
+
+        // reopening loads the checkpoint
+        try (LogStructuredResourceStore store = new LogStructuredResourceStore(log, 64, Runnable::run)) {
+            assertTrue(ArrayUtils.isEquals(new byte[] { 5, 6, 7, 8 }, store.read("key0")));
+            assertTrue(ArrayUtils.isEquals(new byte[] { 9 }, store.read("key9")));
+            assertNull(store.read("key1"));
+            store.write("key10", new byte[] { 10 });
+            store.sync();
+        }
+
+        // without a checkpoint and with a torn record all segments are replayed
+        assertTrue(new File(log, "index.ckpt").delete());
+        final File[] segments = log.listFiles();
+        Arrays.sort(segments);
+        try (FileOutputStream out = new FileOutputStream(segments[segments.length - 1], true)) {
+            out.write(new byte[] { 1, 2, 3, 4, 5 });
+        }
+        try (LogStructuredResourceStore store = new LogStructuredResourceStore(log, 64, Runnable::run)) {
+            assertTrue(ArrayUtils.isEquals(new byte[] { 5, 6, 7, 8 }, store.read("key0")));
+            assertTrue(ArrayUtils.isEquals(new byte[] { 10 }, store.read("key10")));
+            for (int i = 1; i < 8; i++) {
+                assertNull(store.read("key" + i));
+            }
+            assertEquals(store.getTotalBytes(), sizeOf(log.listFiles()));
+        }
+    }
+
+    public void testLogStructuredRecovery() throws Exception {
+        final File log = new File(directory, "recover");
+        try (LogStructuredResourceStore store = new LogStructuredResourceStore(log, 64, Runnable::run)) {
+            for (int i = 0; i < 6; i++) {
+                store.write("key" + i, new byte[] { (byte) i, 2, 3, 4 });
+            }
+            assertTrue(store.getSegmentCount() > 1);
+        }
+
+        // a corrupt record in a completed segment is skipped, not cut off
+        final File checkpoint = new File(log, "index.ckpt");
+        assertTrue(checkpoint.delete());
+        final File[] segments = log.listFiles();
+        Arrays.sort(segments);
+        final long length = segments[0].length();
+        try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            file.seek(12 + 4);
+            file.write(42);
+        }
+        try (LogStructuredResourceStore store = new LogStructuredResourceStore(log, 64, Runnable::run)) {
+            assertNull(store.read("key0"));
+            for (int i = 1; i < 6; i++) {
+                assertTrue(ArrayUtils.isEquals(new byte[] { (byte) i, 2, 3, 4 }, store.read("key" + i)));
+            }
+        }
+        assertEquals(length, segments[0].length());
+
+        // a record that cannot be skipped fails the recovery
+        assertTrue(checkpoint.delete());
+        try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            file.seek(4);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+        try {
+            new LogStructuredResourceStore(log, 64, Runnable::run).close();
+            fail();
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("corrupt"));
+        }
+        assertEquals(length, segments[0].length());
+    }
+
+    private static long sizeOf( final File[] pFiles ) {
+        long size = 0;
+        for (final File file : pFiles) {
+            if (file.getName().endsWith(".log")) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    public void testClassBundleResourceStore() throws Exception {
+        final MemoryResourceStore source = new MemoryResourceStore();
+        source.write("org/my/A.class", new byte[] { 1 });
+        source.write("org/my/B.class", new byte[] { 2, 3 });
+        source.write("org/my/sub/C.class", new byte[] { 4, 5, 6 });
+        source.write("org/other/D.class", new byte[0]);
+        source.write("E.class", new byte[] { 7 });
+
+        final File file = new File(directory, "classes.bundle");
+        ClassBundleWriter.write(file, source, Arrays.asList("org/my/sub/C.class", "org/my/B.class", "E.class", "org/other/D.class", "org/my/A.class"));
+
+        final ClassBundleResourceStore store = new ClassBundleResourceStore(file);
+        assertEquals(5, store.size());
+        assertTrue(ArrayUtils.isEquals(new byte[] { 1 }, store.read("org/my/A.class")));
+        assertTrue(ArrayUtils.isEquals(new byte[] { 4, 5, 6 }, store.read("org/my/sub/C.class")));
+        assertTrue(ArrayUtils.isEquals(new byte[0], store.read("org/other/D.class")));
+        assertTrue(ArrayUtils.isEquals(new byte[] { 7 }, store.read("E.class")));
+        assertNull(store.read("org/my/X.class"));
+        assertNull(store.read("org/my"));
+        assertEquals(2, store.size("org/my/B.class"));
+        assertEquals(-1, store.size("org/my/X.class"));
+
+        final ByteBuffer buffer = store.readBuffer("org/my/B.class");
+        assertTrue(buffer.isReadOnly());
+        assertEquals(2, buffer.remaining());
+        assertEquals(3, buffer.get(1));
+
+        assertTrue(store.isPackage("org"));
+        assertTrue(store.isPackage("org/my/sub"));
+        assertFalse(store.isPackage("org/m"));
+        assertEquals(new HashSet<>(Arrays.asList("org/my/A.class", "org/my/B.class")), new HashSet<>(store.listPackage("org/my")));
+        assertEquals(Arrays.asList("E.class"), store.listPackage(""));
+
+        try {
+            store.write("org/my/A.class", new byte[0]);
+            fail();
+        } catch (final UnsupportedOperationException e) {
+            // read-only
+        }
+    }
+
+    public void testSpillingResourceStore() throws Exception {
+        try (SpillingResourceStore rw = new SpillingResourceStore(4)) {
+            checkReadWrite(rw);
+            checkRemove(rw);
+            checkPackageIndex(rw);
+            checkStreams(rw);
+        }
+
+        final File spill = new File(directory, "spill");
+        try (SpillingResourceStore store = new SpillingResourceStore(40, spill)) {
+            for (int i = 0; i < 4; i++) {
+                store.write("key" + i, new byte[] { (byte) i, 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+            }
+            assertEquals(40, store.getResidentBytes());
+            assertEquals(0, store.getSpilledBytes());
+
+            // key0 was read most recently, key1 is spilled first
+            assertEquals(0, store.read("key0")[0]);
+            store.write("key4", new byte[] { 4, 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+            assertEquals(30, store.getResidentBytes());
+            assertEquals(20, store.getSpilledBytes());
+            assertEquals(20, spill.length());
+            assertEquals(0, store.getSpillReads());
+            assertEquals(0, store.read("key0")[0]);
+            assertEquals(0, store.getSpillReads());
+
+            assertEquals(1, store.read("key1")[0]);
+            assertEquals(1, store.getSpillReads());
+            assertEquals(50, store.getResidentBytes() + store.getSpilledBytes());
+            assertEquals(10, store.size("key2"));
+
+            // overwriting spilled resources leaves garbage that gets dropped
+            for (int i = 0; i < 5; i++) {
+                store.write("key" + i, new byte[] { (byte) (i + 10) });
+            }
+            for (int i = 0; i < 5; i++) {
+                assertEquals(i + 10, store.read("key" + i)[0]);
+            }
+            store.write("big", new byte[64]);
+            assertEquals(64, store.read("big").length);
+            assertTrue(store.getSpillFileBytes() <= 64 + 50);
+        }
+        assertFalse(spill.exists());
+
+        // an interrupted reader closes the spill file, it gets reopened
+        try (SpillingResourceStore store = new SpillingResourceStore(10, new File(directory, "interrupted"))) {
+            for (int i = 1; i <= 3; i++) {
+                store.write("key" + i, new byte[] { (byte) i, 2, 3, 4, 5, 6, 7, 8 });
+            }
+            assertEquals(16, store.getSpilledBytes());
+
+            Thread.currentThread().interrupt();
+            try {
+                assertEquals(1, store.read("key1")[0]);
+            } finally {
+                assertTrue(Thread.interrupted());
+            }
+            assertEquals(2, store.read("key2")[0]);
+            store.write("key4", new byte[] { 4, 2, 3, 4, 5, 6, 7, 8 });
+            for (int i = 1; i <= 4; i++) {
+                assertEquals(i, store.read("key" + i)[0]);
+            }
+            assertTrue(store.getSpilledBytes() > 0);
+        }
+    }
+
+    public void testCompressingResourceStore() {
+        checkReadWrite(new CompressingResourceStore(new MemoryResourceStore()));
+        checkRemove(new CompressingResourceStore(new MemoryResourceStore()));
+
+        final MemoryResourceStore backing = new MemoryResourceStore();
+        final CompressingResourceStore store = new CompressingResourceStore(backing, Deflater.BEST_SPEED, 1);
+        final byte[] data = new byte[4096];
+        Arrays.fill(data, (byte) 'a');
+        store.write("a", data);
+        store.write("b", new byte[] { 1, 2, 3 });
+
+        assertTrue(backing.read("a").length < data.length);
+        assertTrue(store.getCompressionRatio() > 3);
+        assertTrue(ArrayUtils.isEquals(data, store.read("a")));
+        assertTrue(ArrayUtils.isEquals(new byte[] { 1, 2, 3 }, store.read("b")));
+        assertTrue(ArrayUtils.isEquals(data, store.read("a")));
+
+        store.write("a", new byte[] { 4 });
+        assertTrue(ArrayUtils.isEquals(new byte[] { 4 }, store.read("a")));
+
+        store.remove("a");
+        store.remove("b");
+        assertNull(store.read("a"));
+        assertEquals(0, store.getUncompressedBytes());
+        assertEquals(0, store.getCompressedBytes());
+
+        // entries written before the store was wrapped are not counted
+        store.write("c", data);
+        store.close();
+        final CompressingResourceStore rewrapped = new CompressingResourceStore(backing);
+        rewrapped.remove("c");
+        assertNull(rewrapped.read("c"));
+        assertEquals(0, rewrapped.getUncompressedBytes());
+        assertEquals(0, rewrapped.getCompressedBytes());
+        rewrapped.close();
+    }
+
+    public void testGenerationalResourceStore() {
+        checkReadWrite(new GenerationalResourceStore());
+        checkRemove(new GenerationalResourceStore());
+
+        final GenerationalResourceStore store = new GenerationalResourceStore();
+        for (int i = 0; i < 5000; i++) {
+            store.write("key" + i, new byte[] { (byte) i });
+        }
+        // same hash code
+        store.write("Aa", new byte[] { 1 });
+        store.write("BB", new byte[] { 2 });
+        assertEquals(5002, store.size());
+
+        final ResourceStore snapshot = store.snapshot();
+        assertSame(snapshot, snapshot.snapshot());
+
+        for (int i = 0; i < 5000; i += 2) {
+            store.remove("key" + i);
+        }
+        store.write("key1", new byte[] { 42 });
+        store.remove("Aa");
+
+        assertEquals(2501, store.size());
+        assertNull(store.read("key0"));
+        assertTrue(ArrayUtils.isEquals(new byte[] { 42 }, store.read("key1")));
+        assertNull(store.read("Aa"));
+        assertTrue(ArrayUtils.isEquals(new byte[] { 2 }, store.read("BB")));
+
+        // the snapshot still sees the old version
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(ArrayUtils.isEquals(new byte[] { (byte) i }, snapshot.read("key" + i)));
+        }
+        assertTrue(ArrayUtils.isEquals(new byte[] { 1 }, snapshot.read("Aa")));
+
+        try {
+            snapshot.write("key", new byte[] { 1 });
+            fail();
+        } catch (final UnsupportedOperationException e) {
+        }
+
+        for (int i = 1; i < 5000; i += 2) {
+            store.remove("key" + i);
+        }
+        store.remove("BB");
+        assertEquals(0, store.size());
+        assertNull(store.read("key1"));
+    }
+
+    public void testCachingResourceStore() {
+        checkReadWrite(new CachingResourceStore(new FileResourceStore(directory), 1024));
+        checkRemove(new CachingResourceStore(new FileResourceStore(directory), 1024));
+
+        final MemoryResourceStore backing = new MemoryResourceStore();
+        backing.write("a", new byte[] { 1, 2, 3, 4 });
+        backing.write("b", new byte[] { 5, 6, 7, 8 });
+        final CachingResourceStore store = new CachingResourceStore(backing, 6);
+
+        assertNotNull(store.read("a"));
+        assertNotNull(store.read("a"));
+        assertEquals(1, store.getHits());
+        assertEquals(1, store.getMisses());
+
+        assertNotNull(store.read("b"));
+        assertEquals(1, store.getEvictions());
+        assertEquals(4, store.getCachedBytes());
+        assertEquals(1.0 / 3, store.getHitRatio(), 0.001);
+
+        store.write("c", new byte[] { 9 });
+        assertNotNull(backing.read("c"));
+        store.remove("b");
+        assertNull(backing.read("b"));
+        assertNull(store.read("b"));
+
+        // answered by the wrapped store without caching the data
+        backing.write("d", new byte[] { 1, 2 });
+        final long misses = store.getMisses();
+        assertTrue(store.exists("d"));
+        assertEquals(2, store.size("d"));
+        assertEquals(misses, store.getMisses());
+
+        checkPackageIndex(new CachingResourceStore(new MemoryResourceStore(), 1024));
+    }
+
+    public void testCachingResourceStoreWriteBehind() {
+        final MemoryResourceStore backing = new MemoryResourceStore();
+        final CachingResourceStore store = new CachingResourceStore(backing, 6, true);
+
+        store.write("a", new byte[] { 1, 2, 3, 4 });
+        assertNull(backing.read("a"));
+        assertNotNull(store.read("a"));
+
+        // evicts the dirty a
+        store.write("b", new byte[] { 5, 6, 7, 8 });
+        assertTrue(ArrayUtils.isEquals(new byte[] { 1, 2, 3, 4 }, backing.read("a")));
+        assertNull(backing.read("b"));
+
+        store.flush();
+        assertTrue(ArrayUtils.isEquals(new byte[] { 5, 6, 7, 8 }, backing.read("b")));
+
+        store.write("c", new byte[] { 9 });
+        store.remove("c");
+        store.flush();
+        assertNull(backing.read("c"));
+
+        store.write("d/e", new byte[] { 1 });
+        assertNull(backing.read("d/e"));
+        assertTrue(store.exists("d/e"));
+        assertTrue(store.isPackage("d"));
+        assertEquals(Arrays.asList("d/e"), new ArrayList<>(store.listPackage("d")));
+
+        store.close();
+        assertTrue(ArrayUtils.isEquals(new byte[] { 1 }, backing.read("d/e")));
+
+        checkPackageIndex(new CachingResourceStore(new MemoryResourceStore(), 1024, true));
+    }
+
+    public void testWriteBehindResourceStore() throws Exception {
+        final WriteBehindResourceStore rw = new WriteBehindResourceStore(new MemoryResourceStore());
+        checkReadWrite(rw);
+        checkRemove(rw);
+        checkPackageIndex(rw);
+        rw.shutdown();
+
+        final MemoryResourceStore backing = new MemoryResourceStore();
+        final WriteBehindResourceStore store = new WriteBehindResourceStore(backing, 1024, 60000);
+        store.write("a/b", new byte[] { 1, 2 });
+        assertTrue(ArrayUtils.isEquals(new byte[] { 1, 2 }, store.read("a/b")));
+        assertEquals(Arrays.asList("a/b"), new ArrayList<>(store.listPackage("a")));
+        assertNull(backing.read("a/b"));
+        assertEquals(2, store.getPendingBytes());
+
+        store.flush();
+        assertTrue(ArrayUtils.isEquals(new byte[] { 1, 2 }, backing.read("a/b")));
+        assertEquals(0, store.getPendingBytes());
+
+        store.remove("a/b");
+        assertNull(store.read("a/b"));
+        assertFalse(store.exists("a/b"));
+        assertTrue(store.listPackage("a").isEmpty());
+        assertNotNull(backing.read("a/b"));
+
+        // exceeding the bound waits for the flusher
+        store.write("c", new byte[2048]);
+        assertNull(backing.read("a/b"));
+        assertNotNull(backing.read("c"));
+
+        store.write("d", new byte[] { 4 });
+        store.close();
+        assertTrue(ArrayUtils.isEquals(new byte[] { 4 }, backing.read("d")));
+        try {
+            store.write("e", new byte[0]);
+            fail();
+        } catch (final IllegalStateException e) {
+            // shut down
+        }
+    }
+
+    /**
+     * Depends on the garbage collector, gives up after about ten seconds.
+     */
+    public void testWriteBehindResourceStoreDropped() throws Exception {
+        final int flushers = countThreads("WriteBehindResourceStore flusher");
+        final MemoryResourceStore unclosed = new MemoryResourceStore();
+        writeBehind(unclosed, "f", new byte[] { 5 });
+
+        awaitCollection("the flusher of a dropped store is still running",
+                () -> countThreads("WriteBehindResourceStore flusher") <= flushers);
+        assertTrue(ArrayUtils.isEquals(new byte[] { 5 }, unclosed.read("f")));
+    }
+
+    // keeps the store out of the frame of the test
+    private static void writeBehind( final ResourceStore pStore, final String pResourceName, final byte[] pData ) {
+        new WriteBehindResourceStore(pStore, 1024, 0).write(pResourceName, pData);
+    }
+
+    private static void awaitCollection( final String pMessage, final BooleanSupplier pCondition ) throws InterruptedException {
+        for (int i = 0; i < 100 && !pCondition.getAsBoolean(); i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertTrue(pMessage, pCondition.getAsBoolean());
+    }
+
+    private static int countThreads( final String pName ) {
+        int count = 0;
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (pName.equals(thread.getName()) && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testInstrumentedResourceStore() throws Exception {
+        checkReadWrite(new InstrumentedResourceStore(new MemoryResourceStore()));
+        checkRemove(new InstrumentedResourceStore(new MemoryResourceStore()));
+
+        final InstrumentedResourceStore store = new InstrumentedResourceStore(new MemoryResourceStore(), 2);
+        store.write("a", new byte[] { 1, 2, 3 });
+        final Map<String, byte[]> batch = new HashMap<>();
+        batch.put("b", new byte[] { 4 });
+        batch.put("c", new byte[] { 5, 6 });
+        store.writeAll(batch);
+        assertEquals(3, store.getWrites());
+        assertEquals(6, store.getBytesWritten());
+
+        for (int i = 0; i < 3; i++) {
+            store.read("a");
+        }
+        store.readBuffer("b");
+        store.readBuffer("b");
+        store.read("c");
+        store.read("missing");
+        store.readAll(Arrays.asList("c", "other"));
+
+        assertEquals(9, store.getReads());
+        assertEquals(7, store.getHits());
+        assertEquals(2, store.getMisses());
+        assertEquals(3 * 3 + 2 + 2 * 2, store.getBytesRead());
+        assertEquals(9, sum(store.getReadLatencyHistogram()));
+        assertEquals(2, sum(store.getWriteLatencyHistogram()));
+        assertEquals(store.getLatencyBuckets().length + 1, store.getReadLatencyHistogram().length);
+
+        final Map<String, Long> hot = store.getHotResources();
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(hot.keySet()));
+        assertEquals(Long.valueOf(3), hot.get("a"));
+
+        store.removeAll(Arrays.asList("a", "b"));
+        assertEquals(2, store.getRemoves());
+
+        store.register("test");
+        final ObjectName name = InstrumentedResourceStore.getObjectName("test");
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        assertEquals(Long.valueOf(7), ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Hits"));
+        store.unregister();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+        store.reset();
+        assertEquals(0, store.getReads());
+        assertTrue(store.getHotResources().isEmpty());
+    }
+
+    private static long sum( final long[] pValues ) {
+        long sum = 0;
+        for (final long value : pValues) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    public void testContentAddressedResourceStore() {
+        checkReadWrite(new ContentAddressedResourceStore());
+        checkRemove(new ContentAddressedResourceStore());
+
+        final BlobPool pool = new BlobPool();
+        final ContentAddressedResourceStore store1 = new ContentAddressedResourceStore(pool);
+        final ContentAddressedResourceStore store2 = new ContentAddressedResourceStore(pool);
+
+        store1.write("a", new byte[] { 1, 2, 3 });
+        store1.write("b", new byte[] { 1, 2, 3 });
+        store2.write("a", new byte[] { 1, 2, 3 });
+        store2.write("c", new byte[] { 4 });
+
+        assertEquals(2, pool.size());
+        assertEquals(4, pool.getBytes());
+        assertEquals(10, pool.getReferencedBytes());
+        assertTrue(ArrayUtils.isEquals(store1.read("a"), store2.read("a")));
+
+        // changing what was written or read does not change the pooled data
+        final byte[] data = { 5, 6 };
+        store1.write("d", data);
+        data[0] = 0;
+        store1.read("d")[1] = 0;
+        assertTrue(ArrayUtils.isEquals(new byte[] { 5, 6 }, store1.read("d")));
+        assertTrue(store1.readBuffer("d").isReadOnly());
+        store1.remove("d");
+
+        store2.write("c", new byte[] { 1, 2, 3 });
+        assertEquals(1, pool.size());
+
+        store1.clear();
+        assertEquals(1, pool.size());
+        assertNull(store1.read("a"));
+        assertTrue(ArrayUtils.isEquals(new byte[] { 1, 2, 3 }, store2.read("c")));
+
+        store2.remove("a");
+        store2.remove("c");
+        assertEquals(0, pool.size());
+        assertEquals(0, pool.getBytes());
+    }
+
+    /**
+     * Depends on the garbage collector, gives up after about ten seconds.
+     */
+    public void testContentAddressedResourceStoreDropped() throws Exception {
+        final BlobPool pool = new BlobPool();
+        new ContentAddressedResourceStore(pool).write("e", new byte[] { 7 });
+        assertEquals(1, pool.size());
+
+        awaitCollection("the blobs of a dropped store are still referenced", () -> pool.size() == 0);
+        assertEquals(0, pool.getReferencedBytes());
     }
 
     public void testFileResourceStore() {
         checkReadWrite(new FileResourceStore(directory));
         checkRemove(new FileResourceStore(directory));
+
+        final FileResourceStore store = new FileResourceStore(directory);
+        final Map<String, byte[]> batch = new HashMap<>();
+        batch.put("batch/a", new byte[] { 1 });
+        batch.put("batch/sub/b", new byte[] { 2 });
+        store.writeAll(batch);
+        assertTrue(ArrayUtils.isEquals(new byte[] { 1 }, store.read("batch/a")));
+        assertTrue(ArrayUtils.isEquals(new byte[] { 2 }, store.read("batch/sub/b")));
+        assertEquals(Arrays.asList("batch/a"), store.listPackage("batch"));
+
+        // a file where the directory should go is only logged, like a failed write
+        store.writeAll(Collections.singletonMap("batch/a/c", new byte[] { 3 }));
+        assertNull(store.read("batch/a/c"));
+        assertTrue(ArrayUtils.isEquals(new byte[] { 1 }, store.read("batch/a")));
+
+        try {
+            new FileResourceStore(directory, false, true).writeAll(Collections.singletonMap("batch/a/c", new byte[] { 3 }));
+            fail();
+        } catch (final UncheckedIOException e) {
+        }
+    }
+
+    public void testMappedFileResourceStore() {
+        checkReadWrite(new FileResourceStore(directory, true));
+        checkRemove(new FileResourceStore(directory, true));
+
+        final FileResourceStore store = new FileResourceStore(directory, true);
+        store.write("a/b", new byte[] { 1, 2, 3 });
+
+        final ByteBuffer buffer = store.readBuffer("a/b");
+        assertTrue(buffer.isDirect());
+        assertEquals(3, buffer.remaining());
+
+        store.write("a/b", new byte[] { 4, 5 });
+        assertTrue(ArrayUtils.isEquals(new byte[] { 4, 5 }, store.read("a/b")));
+        // the old mapping still sees the old content
+        assertEquals(3, buffer.remaining());
+        assertEquals(1, buffer.get(0));
+
+        store.remove("a/b");
+        assertNull(store.readBuffer("a/b"));
+        assertNull(store.read("a/b"));
+
+        // more resources than cached mappings
+        final FileResourceStore bounded = new FileResourceStore(directory, true, false, 2);
+        for (int i = 0; i < 5; i++) {
+            bounded.write("c/" + i, new byte[] { (byte) i });
+        }
+        for (int j = 0; j < 2; j++) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(ArrayUtils.isEquals(new byte[] { (byte) i }, bounded.read("c/" + i)));
+            }
+        }
+        bounded.write("c/0", new byte[] { 9 });
+        assertEquals(9, bounded.readBuffer("c/0").get(0));
+    }
+
+    public void testDurableFileResourceStore() throws Exception {
+        checkReadWrite(new FileResourceStore(directory, false, true));
+        checkRemove(new FileResourceStore(directory, false, true));
+        checkStreams(new FileResourceStore(directory, true, true));
+
+        final FileResourceStore store = new FileResourceStore(directory, false, true);
+        final Map<String, byte[]> batch = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            batch.put("durable/p" + (i % 3) + "/r" + i, new byte[] { (byte) i });
+        }
+        store.writeAll(batch);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ArrayUtils.isEquals(new byte[] { (byte) i }, store.read("durable/p" + (i % 3) + "/r" + i)));
+        }
+        assertEquals(34, store.listPackage("durable/p0").size());
+        assertEquals(34, new File(directory, "durable/p0").list().length);
+
+        store.removeAll(batch.keySet());
+        assertTrue(store.listPackage("durable/p0").isEmpty());
+
+        // failures reach the caller
+        store.write("durable/file", new byte[] { 1 });
+        try {
+            store.write("durable/file/child", new byte[] { 2 });
+            fail();
+        } catch (final UncheckedIOException e) {
+            // the parent is a file
+        }
+        try {
+            store.writeAll(batch.keySet().stream().collect(Collectors.toMap(k -> "durable/file/" + k, k -> new byte[0])));
+            fail();
+        } catch (final UncheckedIOException e) {
+            // the parent is a file
+        }
+        assertTrue(ArrayUtils.isEquals(new byte[] { 1 }, store.read("durable/file")));
+    }
+
+    public void testFileResourceStoreBatch() {
+        final FileResourceStore store = new FileResourceStore(directory);
+        final Map<String, byte[]> batch = new HashMap<>();
+        batch.put("a/x", new byte[] { 1 });
+        batch.put("a/y", new byte[] { 2 });
+        batch.put("b/z", new byte[] { 3 });
+        store.writeAll(batch);
+
+        final Map<String, byte[]> read = store.readAll(Arrays.asList("a/x", "b/z", "c"));
+        assertEquals(2, read.size());
+        assertTrue(ArrayUtils.isEquals(new byte[] { 3 }, read.get("b/z")));
+
+        store.removeAll(Arrays.asList("a/x", "a/y"));
+        assertNull(store.read("a/x"));
+        assertNull(store.read("a/y"));
+        assertNotNull(store.read("b/z"));
+
+        final TransactionalResourceStore transactional = new TransactionalResourceStore(store);
+        transactional.onStart();
+        transactional.writeAll(batch);
+        transactional.removeAll(Arrays.asList("b/z"));
+        assertNull(store.read("a/x"));
+        transactional.onStop();
+        assertNotNull(store.read("a/x"));
+        assertNull(store.read("b/z"));
     }
 
     public void testTransactionalFileResourceStore() {
@@ -45,6 +832,127 @@ public final class ResourceStoreTestCase extends AbstractTestCase {
         assertEquals(rs.toString(), trs.toString());
     }
 
+    public void testTransactionalResourceStoreCommit() throws Exception {
+        final MemoryResourceStore backing = new MemoryResourceStore();
+        backing.write("old", new byte[] { 1 });
+        final TransactionalResourceStore store = new TransactionalResourceStore(backing);
+
+        store.onStart();
+        store.onStart();
+        store.write("new", new byte[] { 2 });
+        store.remove("old");
+
+        // the transaction sees its own changes, everybody else does not
+        assertNotNull(store.read("new"));
+        assertNull(store.read("old"));
+        assertNull(backing.read("new"));
+        final AtomicReference<byte[]> read = new AtomicReference<>();
+        final Thread reader = new Thread(() -> read.set(store.read("old")));
+        reader.start();
+        reader.join();
+        assertNotNull(read.get());
+
+        store.onStop();
+
+        assertTrue(ArrayUtils.isEquals(new byte[] { 2 }, backing.read("new")));
+        assertNull(backing.read("old"));
+    }
+
+    public void testTransactionalResourceStoreRollback() {
+        final MemoryResourceStore backing = new MemoryResourceStore();
+        final TransactionalResourceStore store = new TransactionalResourceStore(backing);
+
+        assertFalse(store.rollback());
+
+        store.onStart();
+        store.write("new", new byte[] { 2 });
+        assertTrue(store.rollback());
+        store.onStop();
+
+        assertNull(store.read("new"));
+        assertNull(backing.read("new"));
+    }
+
+    public void testStreams() throws Exception {
+        checkStreams(new MemoryResourceStore());
+        checkStreams(new FileResourceStore(directory));
+        checkStreams(new FileResourceStore(directory, true));
+        checkStreams(new OffHeapResourceStore());
+    }
+
+    private void checkStreams( final ResourceStore pStore ) throws Exception {
+        final byte[] data = { 1, 2, 3 };
+        pStore.write("a/key", new ByteArrayInputStream(data));
+
+        assertEquals(3, pStore.size("a/key"));
+        assertEquals(-1, pStore.size("a/missing"));
+        assertNull(pStore.openStream("a/missing"));
+        assertNull(pStore.openChannel("a/missing"));
+
+        try (InputStream is = pStore.openStream("a/key")) {
+            assertTrue(ArrayUtils.isEquals(data, IOUtils.toByteArray(is)));
+        }
+        try (ReadableByteChannel channel = pStore.openChannel("a/key")) {
+            final ByteBuffer buffer = ByteBuffer.allocate(8);
+            while (channel.read(buffer) >= 0) {
+                // read everything
+            }
+            assertEquals(3, buffer.position());
+        }
+
+        pStore.remove("a/key");
+        assertEquals(-1, pStore.size("a/key"));
+    }
+
+    public void testPackageIndex() {
+        checkPackageIndex(new MemoryResourceStore());
+        checkPackageIndex(new FileResourceStore(directory));
+        checkPackageIndex(new CompressingResourceStore(new MemoryResourceStore()));
+        checkPackageIndex(new ContentAddressedResourceStore(new BlobPool()));
+        checkPackageIndex(new GenerationalResourceStore());
+        checkPackageIndex(new OffHeapResourceStore());
+    }
+
+    public void testSnapshotPackageIndex() {
+        final GenerationalResourceStore store = new GenerationalResourceStore();
+        store.write("org/my/A.class", new byte[] { 1 });
+        final ResourceStore snapshot = store.snapshot();
+        store.write("org/my/B.class", new byte[] { 2 });
+        store.write("org/other/C.class", new byte[] { 3 });
+        store.remove("org/my/A.class");
+
+        assertTrue(snapshot.exists("org/my/A.class"));
+        assertFalse(snapshot.exists("org/my/B.class"));
+        assertEquals(1, snapshot.size("org/my/A.class"));
+        assertTrue(snapshot.isPackage("org/my"));
+        assertFalse(snapshot.isPackage("org/other"));
+        assertEquals(Collections.singleton("org/my/A.class"), new HashSet<>(snapshot.listPackage("org/my")));
+        assertEquals(Collections.singleton("org/my/B.class"), new HashSet<>(store.listPackage("org/my")));
+    }
+
+    private void checkPackageIndex( final ResourceStore pStore ) {
+        pStore.write("org/my/A.class", new byte[] { 1 });
+        pStore.write("org/my/B.class", new byte[] { 2 });
+        pStore.write("org/my/sub/C.class", new byte[] { 3 });
+
+        assertTrue(pStore.exists("org/my/A.class"));
+        assertFalse(pStore.exists("org/my/X.class"));
+        assertTrue(pStore.isPackage("org"));
+        assertTrue(pStore.isPackage("org/my"));
+        assertTrue(pStore.isPackage("org/my/sub"));
+        assertFalse(pStore.isPackage("org/other"));
+        assertFalse(pStore.isPackage("org/my/A"));
+        assertEquals(new HashSet<>(Arrays.asList("org/my/A.class", "org/my/B.class")), new HashSet<>(pStore.listPackage("org/my")));
+        assertTrue(pStore.listPackage("org/other").isEmpty());
+
+        pStore.removeAll(Arrays.asList("org/my/A.class", "org/my/B.class"));
+        assertTrue(pStore.listPackage("org/my").isEmpty());
+        assertTrue(pStore.isPackage("org/my"));
+
+        pStore.remove("org/my/sub/C.class");
+        assertFalse(pStore.exists("org/my/sub/C.class"));
+    }
+
     private void checkReadWrite( final ResourceStore pStore ) {
         final byte[] data = { 1, 2, 3 };
         pStore.write("key", data);
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.fam.monitor;
+
+import java.io.File;
+
+/**
+ * A listener that also wants to know about the entries of jar and zip
+ * archives below the observed root.
+ *
+ * If the observer is archive aware (see
+ * {@link FilesystemAlterationObserverImpl#setArchiveAware(boolean)})
+ * such a listener no longer gets file events for the archives themselves
+ * but one event per created, changed or deleted archive entry instead.
+ * Entries are compared by their size and CRC as recorded in the central
+ * directory of the archive.
+ *
+ * @author tcurdt
+ */
+public interface FilesystemAlterationArchiveListener extends FilesystemAlterationListener {
+
+    void onArchiveEntryCreate( final File pArchive, final String pEntryName );
+    void onArchiveEntryChange( final File pArchive, final String pEntryName );
+    void onArchiveEntryDelete( final File pArchive, final String pEntryName );
+}
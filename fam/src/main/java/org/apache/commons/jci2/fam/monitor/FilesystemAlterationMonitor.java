@@ -18,9 +18,15 @@
 package org.apache.commons.jci2.fam.monitor;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,6 +41,11 @@ public final class FilesystemAlterationMonitor implements Runnable {
 
     private final Log log = LogFactory.getLog(FilesystemAlterationMonitor.class);
 
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    /** Tells the statistics of monitors observing the same root apart */
+    private final int id = INSTANCES.incrementAndGet();
+
     private final Object observersLock = new Object();
     private Map<File, FilesystemAlterationObserver> observers = Collections.unmodifiableMap(new HashMap<File, FilesystemAlterationObserver>());
 
@@ -44,6 +55,8 @@ public final class FilesystemAlterationMonitor implements Runnable {
 
     private volatile boolean running = true;
 
+    private boolean statisticsEnabled;
+
     public FilesystemAlterationMonitor() {
     }
 
@@ -57,6 +70,12 @@ public final class FilesystemAlterationMonitor implements Runnable {
     public void stop() {
         running = false;
 
+        synchronized (observersLock) {
+            for (final FilesystemAlterationObserver observer : observers.values()) {
+                disableStatistics(observer);
+            }
+        }
+
         if (thread != null) {
             try {
                 thread.join(delay);
@@ -72,6 +91,114 @@ public final class FilesystemAlterationMonitor implements Runnable {
      */
     public void setInterval( final long pDelay ) {
         delay = pDelay;
+
+        for (final FilesystemAlterationObserver observer : observers.values()) {
+            if (observer instanceof FilesystemAlterationObserverImpl) {
+                final FilesystemAlterationStatistics statistics = ((FilesystemAlterationObserverImpl)observer).getStatistics();
+                if (statistics != null) {
+                    statistics.setInterval(pDelay);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects statistics about the scans of every observed root and
+     * publishes them as {@link FilesystemAlterationStatisticsMXBean} on
+     * the platform MBeanServer (see {@link #getObjectName(File)}).
+     * Nothing is measured while disabled (default). The MBeans are
+     * unregistered again when the monitor is stopped.
+     *
+     * @param pEnabled whether to collect and publish statistics
+     */
+    public void setStatisticsEnabled( final boolean pEnabled ) {
+        synchronized (observersLock) {
+            statisticsEnabled = pEnabled;
+            for (final FilesystemAlterationObserver observer : observers.values()) {
+                if (pEnabled) {
+                    enableStatistics(observer);
+                } else {
+                    disableStatistics(observer);
+                }
+            }
+        }
+    }
+
+    public ObjectName getObjectName( final File pRoot ) throws MalformedObjectNameException {
+        return new ObjectName("org.apache.commons.jci2:type=FilesystemAlterationMonitor,monitor=" + id + ",root=" + ObjectName.quote(pRoot.getAbsolutePath()));
+    }
+
+    private void enableStatistics( final FilesystemAlterationObserver pObserver ) {
+        if (!(pObserver instanceof FilesystemAlterationObserverImpl)) {
+            return;
+        }
+
+        final FilesystemAlterationObserverImpl observer = (FilesystemAlterationObserverImpl) pObserver;
+        FilesystemAlterationStatistics statistics = observer.getStatistics();
+        if (statistics == null) {
+            statistics = new FilesystemAlterationStatistics(observer.getRootDirectory());
+            observer.setStatistics(statistics);
+        }
+        statistics.setInterval(delay);
+
+        try {
+            final ObjectName name = getObjectName(observer.getRootDirectory());
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, name);
+            }
+        } catch (final JMException e) {
+            log.warn("could not publish statistics for " + observer.getRootDirectory(), e);
+        }
+    }
+
+    private void disableStatistics( final FilesystemAlterationObserver pObserver ) {
+        if (!(pObserver instanceof FilesystemAlterationObserverImpl)) {
+            return;
+        }
+
+        final FilesystemAlterationObserverImpl observer = (FilesystemAlterationObserverImpl) pObserver;
+        if (observer.getStatistics() == null) {
+            return;
+        }
+        observer.setStatistics(null);
+
+        try {
+            final ObjectName name = getObjectName(observer.getRootDirectory());
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+        } catch (final JMException e) {
+            log.warn("could not unpublish statistics for " + observer.getRootDirectory(), e);
+        }
+    }
+
+    /**
+     * Registers a (pre-configured) observer for its root directory.
+     * Listeners of an observer previously registered for the same
+     * root are carried over.
+     *
+     * @param pObserver the observer to trigger from now on
+     */
+    public void addObserver( final FilesystemAlterationObserver pObserver ) {
+        synchronized (observersLock) {
+            final Map<File, FilesystemAlterationObserver> newObservers = new HashMap<>(observers);
+            final FilesystemAlterationObserver previous = newObservers.put(pObserver.getRootDirectory(), pObserver);
+            if (previous != null && previous != pObserver) {
+                for (final FilesystemAlterationListener listener : previous.getListeners()) {
+                    pObserver.addListener(listener);
+                }
+                disableStatistics(previous);
+            }
+            observers = Collections.unmodifiableMap(newObservers);
+
+            if (statisticsEnabled) {
+                enableStatistics(pObserver);
+            }
+        }
+    }
+
+    public FilesystemAlterationObserver getObserver( final File pRoot ) {
+        return observers.get(pRoot);
     }
 
     public void addListener( final File pRoot, final FilesystemAlterationListener pListener ) {
@@ -86,6 +213,10 @@ public final class FilesystemAlterationMonitor implements Runnable {
                 observer = new FilesystemAlterationObserverImpl(pRoot);
                 newObservers.put(pRoot, observer);
                 observers = Collections.unmodifiableMap(newObservers);
+
+                if (statisticsEnabled) {
+                    enableStatistics(observer);
+                }
             }
         }
 
@@ -101,6 +232,17 @@ public final class FilesystemAlterationMonitor implements Runnable {
         }
     }
 
+    /**
+     * Passes the hint on to all observers.
+     *
+     * @see FilesystemAlterationObserver#markDirty(File)
+     */
+    public void markDirty( final File pFile ) {
+        for (final FilesystemAlterationObserver observer : observers.values()) {
+            observer.markDirty(pFile);
+        }
+    }
+
     public FilesystemAlterationListener[] getListenersFor( final File pRoot  ) {
         final FilesystemAlterationObserver observer = observers.get(pRoot);
 
@@ -32,6 +32,16 @@ public interface FilesystemAlterationObserver {
 
     void checkAndNotify();
 
+    /**
+     * Hints that a file or a directory (including everything below it)
+     * has been changed, created or deleted. Observers can use this to only
+     * check the hinted files on the next check instead of the whole tree.
+     *
+     * @param pFile the file or directory that changed
+     */
+    default void markDirty( final File pFile ) {
+    }
+
     void addListener( final FilesystemAlterationListener pListener );
 
     void removeListener( final FilesystemAlterationListener pListener );
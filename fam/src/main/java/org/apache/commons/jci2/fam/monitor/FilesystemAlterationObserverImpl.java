@@ -18,10 +18,22 @@
 package org.apache.commons.jci2.fam.monitor;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,18 +55,46 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
         boolean exists();
         String getName();
 
+        /**
+         * Reads and keeps the metadata so the next calls do not
+         * have to hit the filesystem. Can be called from any thread.
+         */
+        void stat();
+        void clearStat();
+
     }
 
     private final static class MonitorFileImpl implements MonitorFile {
 
         private final File file;
 
+        private volatile boolean statted;
+        private boolean exists;
+        private boolean directory;
+        private long lastModified;
+
         public MonitorFileImpl( final File pFile ) {
             file = pFile;
         }
 
+        @Override
+        public void stat() {
+            exists = file.exists();
+            directory = file.isDirectory();
+            lastModified = file.lastModified();
+            statted = true;
+        }
+
+        @Override
+        public void clearStat() {
+            statted = false;
+        }
+
         @Override
         public boolean exists() {
+            if (statted) {
+                return exists;
+            }
             return file.exists();
         }
 
@@ -79,11 +119,17 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
 
         @Override
         public boolean isDirectory() {
+            if (statted) {
+                return directory;
+            }
             return file.isDirectory();
         }
 
         @Override
         public long lastModified() {
+            if (statted) {
+                return lastModified;
+            }
             return file.lastModified();
         }
 
@@ -94,6 +140,22 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
 
     }
 
+    private final static class ArchiveEntry {
+
+        private final long crc;
+        private final long size;
+
+        public ArchiveEntry( final ZipEntry pEntry ) {
+            crc = pEntry.getCrc();
+            size = pEntry.getSize();
+        }
+
+        public boolean hasChanged( final ArchiveEntry pEntry ) {
+            return crc != pEntry.crc || size != pEntry.size;
+        }
+
+    }
+
     private final class Entry {
 
         private final static int TYPE_UNKNOWN = 0;
@@ -104,6 +166,8 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
         private long lastModified = -1;
         private int lastType = TYPE_UNKNOWN;
         private final Map<String, Entry> children = new HashMap<>();
+        private Map<String, ArchiveEntry> archiveEntries = Collections.emptyMap();
+        private boolean archiveRescan;
 
         public Entry(final MonitorFile pFile) {
             file = pFile;
@@ -119,11 +183,34 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
         }
 
         private void compareChildren() {
+            compareChildren(true);
+        }
+
+        /**
+         * @param pDeep whether children already known should be checked (recursively) as well
+         *              or only new and vanished children should be detected
+         */
+        private void compareChildren( final boolean pDeep ) {
             if (!file.isDirectory()) {
                 return;
             }
 
             final MonitorFile[] files = file.listFiles();
+            directoriesListed++;
+
+            final List<MonitorFile> checked = new ArrayList<>(files.length);
+            if (statExecutor != null) {
+                for (final MonitorFile f : files) {
+                    final Entry entry = children.get(f.getName());
+                    if (entry == null) {
+                        checked.add(f);
+                    } else if (pDeep) {
+                        checked.add(entry.getFile());
+                    }
+                }
+                stat(checked);
+            }
+
             final Set<Entry> deleted = new HashSet<>(children.values());
             for (final MonitorFile f : files) {
                 final String name = f.getName();
@@ -132,7 +219,7 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
                     // already recognized as child
                     deleted.remove(entry);
 
-                    if(entry.needsToBeDeleted()) {
+                    if(pDeep && entry.needsToBeDeleted()) {
                         // we have to delete this one
                         children.remove(name);
                     }
@@ -144,6 +231,10 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
                 }
             }
 
+            for (final MonitorFile f : checked) {
+                f.clearStat();
+            }
+
             // the ones not found on disk anymore
 
             for (final Entry entry : deleted) {
@@ -166,6 +257,7 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
         }
 
         public boolean needsToBeDeleted() {
+            entriesVisited++;
 
             if (!file.exists()) {
                 // deleted or has never existed yet
@@ -223,11 +315,35 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
 
 //                    log.debug(file + " does exist and has not changed");
 
+                if (archiveRescan && lastType == TYPE_FILE && isArchive(this)) {
+                    // the archive could not be read last time
+                    compareArchiveEntries(this);
+                }
+
                 compareChildren();
             }
             return false;
         }
 
+        /**
+         * Checks just the directory itself but none of its known children.
+         *
+         * @return false if this is no longer a directory and therefor has been checked fully
+         */
+        public boolean isUnchangedDirectory() {
+            if (lastType != TYPE_DIRECTORY || !file.exists() || !file.isDirectory()) {
+                return false;
+            }
+
+            final long currentModified = file.lastModified();
+            if (currentModified != lastModified) {
+                lastModified = currentModified;
+                notifyOnDirectoryChange(this);
+                compareChildren(false);
+            }
+            return true;
+        }
+
         public MonitorFile getFile() {
             return file;
         }
@@ -241,7 +357,23 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
     private final File rootDirectory;
     private final Entry rootEntry;
 
+    private volatile boolean archiveAware;
+
+    private volatile Executor statExecutor;
+    private volatile int statConcurrency;
+
+    private volatile int fullScanInterval;
+    private int cyclesSinceFullScan;
+    private boolean scanned;
+    private final Set<File> dirty = new HashSet<>();
+
+    private volatile FilesystemAlterationStatistics statistics;
+    private FilesystemAlterationStatistics scanStatistics;
+    private long entriesVisited;
+    private long directoriesListed;
+
     private FilesystemAlterationListener[] listeners = {};
+    private boolean archiveListeners;
     private final Set<FilesystemAlterationListener> listenersSet = new HashSet<>();
 
     public FilesystemAlterationObserverImpl( final File pRootDirectory ) {
@@ -249,64 +381,331 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
         rootEntry = new Entry(new MonitorFileImpl(pRootDirectory));
     }
 
+    private void recordEvent( final String pType ) {
+        if (scanStatistics != null) {
+            scanStatistics.recordEvent(pType);
+        }
+    }
+
+    private long dispatchStarted() {
+        if (scanStatistics != null) {
+            return System.nanoTime();
+        }
+        return 0;
+    }
+
+    private void dispatchFinished( final FilesystemAlterationListener pListener, final long pStarted ) {
+        if (scanStatistics != null) {
+            scanStatistics.recordDispatch(pListener, System.nanoTime() - pStarted);
+        }
+    }
+
     private void notifyOnStart() {
         log.debug("onStart " + rootEntry);
         for (final FilesystemAlterationListener listener : listeners) {
+            final long started = dispatchStarted();
             listener.onStart(this);
+            dispatchFinished(listener, started);
         }
     }
     private void notifyOnStop() {
         log.debug("onStop " + rootEntry);
         for (final FilesystemAlterationListener listener : listeners) {
+            final long started = dispatchStarted();
             listener.onStop(this);
+            dispatchFinished(listener, started);
         }
     }
 
     private void notifyOnFileCreate( final Entry pEntry ) {
         log.debug("onFileCreate " + pEntry);
+        recordEvent("onFileCreate");
+        final boolean archive = isArchive(pEntry);
         for (final FilesystemAlterationListener listener : listeners) {
+            if (archive && listener instanceof FilesystemAlterationArchiveListener) {
+                continue;
+            }
+            final long started = dispatchStarted();
             listener.onFileCreate(((MonitorFileImpl)pEntry.getFile()).file );
+            dispatchFinished(listener, started);
+        }
+        if (archive) {
+            compareArchiveEntries(pEntry);
         }
     }
     private void notifyOnFileChange( final Entry pEntry ) {
         log.debug("onFileChange " + pEntry);
+        recordEvent("onFileChange");
+        final boolean archive = isArchive(pEntry);
         for (final FilesystemAlterationListener listener : listeners) {
+            if (archive && listener instanceof FilesystemAlterationArchiveListener) {
+                continue;
+            }
+            final long started = dispatchStarted();
             listener.onFileChange(((MonitorFileImpl)pEntry.getFile()).file );
+            dispatchFinished(listener, started);
+        }
+        if (archive) {
+            compareArchiveEntries(pEntry);
         }
     }
     private void notifyOnFileDelete( final Entry pEntry ) {
         log.debug("onFileDelete " + pEntry);
+        recordEvent("onFileDelete");
+        final boolean archive = isArchive(pEntry);
         for (final FilesystemAlterationListener listener : listeners) {
+            if (archive && listener instanceof FilesystemAlterationArchiveListener) {
+                continue;
+            }
+            final long started = dispatchStarted();
             listener.onFileDelete(((MonitorFileImpl)pEntry.getFile()).file );
+            dispatchFinished(listener, started);
+        }
+        if (archive) {
+            for (final String name : pEntry.archiveEntries.keySet()) {
+                notifyOnArchiveEntryDelete(pEntry, name);
+            }
+        }
+        pEntry.archiveEntries = Collections.emptyMap();
+        pEntry.archiveRescan = false;
+    }
+
+    private void notifyOnArchiveEntryCreate( final Entry pEntry, final String pName ) {
+        log.debug("onArchiveEntryCreate " + pEntry + "!" + pName);
+        recordEvent("onArchiveEntryCreate");
+        for (final FilesystemAlterationListener listener : listeners) {
+            if (listener instanceof FilesystemAlterationArchiveListener) {
+                final long started = dispatchStarted();
+                ((FilesystemAlterationArchiveListener)listener).onArchiveEntryCreate(((MonitorFileImpl)pEntry.getFile()).file, pName);
+                dispatchFinished(listener, started);
+            }
+        }
+    }
+    private void notifyOnArchiveEntryChange( final Entry pEntry, final String pName ) {
+        log.debug("onArchiveEntryChange " + pEntry + "!" + pName);
+        recordEvent("onArchiveEntryChange");
+        for (final FilesystemAlterationListener listener : listeners) {
+            if (listener instanceof FilesystemAlterationArchiveListener) {
+                final long started = dispatchStarted();
+                ((FilesystemAlterationArchiveListener)listener).onArchiveEntryChange(((MonitorFileImpl)pEntry.getFile()).file, pName);
+                dispatchFinished(listener, started);
+            }
+        }
+    }
+    private void notifyOnArchiveEntryDelete( final Entry pEntry, final String pName ) {
+        log.debug("onArchiveEntryDelete " + pEntry + "!" + pName);
+        recordEvent("onArchiveEntryDelete");
+        for (final FilesystemAlterationListener listener : listeners) {
+            if (listener instanceof FilesystemAlterationArchiveListener) {
+                final long started = dispatchStarted();
+                ((FilesystemAlterationArchiveListener)listener).onArchiveEntryDelete(((MonitorFileImpl)pEntry.getFile()).file, pName);
+                dispatchFinished(listener, started);
+            }
+        }
+    }
+
+    private boolean isArchive( final Entry pEntry ) {
+        if (!archiveAware || !archiveListeners) {
+            return false;
         }
+        final String name = pEntry.getName().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jar") || name.endsWith(".zip");
+    }
+
+    /**
+     * Only the central directory of the archive is read. So this is
+     * cheap even for big archives and does not inflate any entry.
+     */
+    private void compareArchiveEntries( final Entry pEntry ) {
+        final File file = ((MonitorFileImpl)pEntry.getFile()).file;
+
+        final Map<String, ArchiveEntry> current = new HashMap<>();
+        try (ZipFile zip = new ZipFile(file)) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    current.put(entry.getName(), new ArchiveEntry(entry));
+                }
+            }
+        } catch (final IOException e) {
+            // most likely still being written - keep the old state
+            // and look again on the next check even if it is not modified
+            log.warn("could not read archive " + file, e);
+            pEntry.archiveRescan = true;
+            return;
+        }
+        pEntry.archiveRescan = false;
+
+        final Map<String, ArchiveEntry> previous = new HashMap<>(pEntry.archiveEntries);
+        for (final Map.Entry<String, ArchiveEntry> entry : current.entrySet()) {
+            final ArchiveEntry old = previous.remove(entry.getKey());
+            if (old == null) {
+                notifyOnArchiveEntryCreate(pEntry, entry.getKey());
+            } else if (old.hasChanged(entry.getValue())) {
+                notifyOnArchiveEntryChange(pEntry, entry.getKey());
+            }
+        }
+
+        // the ones not found in the archive anymore
+        for (final String name : previous.keySet()) {
+            notifyOnArchiveEntryDelete(pEntry, name);
+        }
+
+        pEntry.archiveEntries = current;
     }
 
     private void notifyOnDirectoryCreate( final Entry pEntry ) {
         log.debug("onDirectoryCreate " + pEntry);
+        recordEvent("onDirectoryCreate");
         for (final FilesystemAlterationListener listener : listeners) {
+            final long started = dispatchStarted();
             listener.onDirectoryCreate(((MonitorFileImpl)pEntry.getFile()).file );
+            dispatchFinished(listener, started);
         }
     }
     private void notifyOnDirectoryChange( final Entry pEntry ) {
         log.debug("onDirectoryChange " + pEntry);
+        recordEvent("onDirectoryChange");
         for (final FilesystemAlterationListener listener : listeners) {
+            final long started = dispatchStarted();
             listener.onDirectoryChange(((MonitorFileImpl)pEntry.getFile()).file );
+            dispatchFinished(listener, started);
         }
     }
     private void notifyOnDirectoryDelete( final Entry pEntry ) {
         log.debug("onDirectoryDelete " + pEntry);
+        recordEvent("onDirectoryDelete");
         for (final FilesystemAlterationListener listener : listeners) {
+            final long started = dispatchStarted();
             listener.onDirectoryDelete(((MonitorFileImpl)pEntry.getFile()).file );
+            dispatchFinished(listener, started);
+        }
+    }
+
+    /**
+     * Reads the metadata of the given files concurrently and waits for
+     * all of them. Files that could not be handed to the executor are
+     * simply read on the scanning thread later on.
+     */
+    private void stat( final List<MonitorFile> pFiles ) {
+        final Executor executor = statExecutor;
+        if (executor == null || pFiles.size() < 2) {
+            return;
+        }
+
+        final Semaphore permits = new Semaphore(statConcurrency);
+        final CountDownLatch done = new CountDownLatch(pFiles.size());
+        for (final MonitorFile file : pFiles) {
+            permits.acquireUninterruptibly();
+            try {
+                executor.execute(() -> {
+                    try {
+                        file.stat();
+                    } finally {
+                        permits.release();
+                        done.countDown();
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                permits.release();
+                done.countDown();
+            }
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
     }
 
     private void checkEntries() {
-        if(rootEntry.needsToBeDeleted()) {
-            // root not existing
-            rootEntry.lastType = Entry.TYPE_UNKNOWN;
+        final File[] hints;
+        synchronized(dirty) {
+            hints = dirty.toArray(new File[dirty.size()]);
+            dirty.clear();
+        }
+
+        final int interval = fullScanInterval;
+        if (interval <= 0 || !scanned || ++cyclesSinceFullScan >= interval) {
+            cyclesSinceFullScan = 0;
+            scanned = true;
+            checkEntry(null, rootEntry);
+            return;
+        }
+
+        for (final File hint : hints) {
+            checkHint(hint);
         }
     }
 
+    private void checkEntry( final Entry pParent, final Entry pEntry ) {
+        if (pEntry.needsToBeDeleted()) {
+            if (pParent == null) {
+                // root not existing
+                pEntry.lastType = Entry.TYPE_UNKNOWN;
+            } else {
+                pParent.children.remove(pEntry.getName());
+            }
+        }
+    }
+
+    /**
+     * Walks down from the root to the hinted file. Only the directories
+     * along the way are checked (but not their other children). The hinted
+     * file itself is checked including everything below it.
+     */
+    private void checkHint( final File pFile ) {
+        final List<String> path = getPath(pFile);
+        if (path == null) {
+            log.debug("ignoring hint outside of " + rootDirectory + ": " + pFile);
+            return;
+        }
+
+        Entry parent = null;
+        Entry entry = rootEntry;
+        for (final String name : path) {
+            if (!entry.isUnchangedDirectory()) {
+                checkEntry(parent, entry);
+                return;
+            }
+
+            final Entry child = entry.children.get(name);
+            if (child == null) {
+                // not known yet - the directory listing tells whether it is new
+                entry.compareChildren(false);
+                return;
+            }
+
+            parent = entry;
+            entry = child;
+        }
+
+        checkEntry(parent, entry);
+    }
+
+    private List<String> getPath( final File pFile ) {
+        final File root = rootDirectory.getAbsoluteFile();
+        final List<String> path = new ArrayList<>();
+        File file = pFile.getAbsoluteFile();
+        while (file != null && !file.equals(root)) {
+            path.add(0, file.getName());
+            file = file.getParentFile();
+        }
+        if (file == null) {
+            return null;
+        }
+        return path;
+    }
+
     @Override
     public void checkAndNotify() {
     	synchronized(listenersSet) {
@@ -314,14 +713,97 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
 	            return;
 	        }
 
+	        scanStatistics = statistics;
+	        entriesVisited = 0;
+	        directoriesListed = 0;
+	        final long started = scanStatistics != null ? System.nanoTime() : 0;
+
 	        notifyOnStart();
 
 	        checkEntries();
 
 	        notifyOnStop();
+
+	        if (scanStatistics != null) {
+	            scanStatistics.recordScan(System.nanoTime() - started, entriesVisited, directoriesListed);
+	        }
     	}
     }
 
+    /**
+     * Starts or stops collecting statistics about the scans.
+     *
+     * @param pStatistics where to collect the statistics, null to stop collecting (default)
+     */
+    public void setStatistics( final FilesystemAlterationStatistics pStatistics ) {
+        statistics = pStatistics;
+    }
+
+    public FilesystemAlterationStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * In archive aware mode jar and zip files are looked into and
+     * {@link FilesystemAlterationArchiveListener}s get notified about
+     * the individual entries instead of the archive file as a whole.
+     * Other listeners still receive the plain file events.
+     *
+     * @param pArchiveAware whether to look into archives (default false)
+     */
+    public void setArchiveAware( final boolean pArchiveAware ) {
+        archiveAware = pArchiveAware;
+    }
+
+    public boolean isArchiveAware() {
+        return archiveAware;
+    }
+
+    /**
+     * On network filesystems the scan time is dominated by the latency of
+     * the metadata lookups, not by the CPU. With an executor set the
+     * metadata of the children of a directory is read concurrently before
+     * the changes get detected (and the listeners notified) on the scanning
+     * thread as usual. On Java 21 and later a virtual thread per task
+     * executor is a natural fit.
+     *
+     * @param pExecutor the executor to read metadata with, null to read it serially (default)
+     * @param pConcurrency the maximum number of concurrent reads
+     */
+    public void setStatExecutor( final Executor pExecutor, final int pConcurrency ) {
+        if (pExecutor != null && pConcurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1 but is " + pConcurrency);
+        }
+        statConcurrency = pConcurrency;
+        statExecutor = pExecutor;
+    }
+
+    /**
+     * By default every cycle checks the whole tree below the root and hints
+     * given through {@link #markDirty(File)} are not needed. With an interval
+     * set only the hinted files are checked and only every n-th cycle falls
+     * back to a full scan as a safety net. The first cycle always is a full one.
+     *
+     * @param pCycles cycles between full scans, 0 for full scans only (default)
+     */
+    public void setFullScanInterval( final int pCycles ) {
+        fullScanInterval = pCycles;
+    }
+
+    public int getFullScanInterval() {
+        return fullScanInterval;
+    }
+
+    @Override
+    public void markDirty( final File pFile ) {
+        if (fullScanInterval <= 0) {
+            return;
+        }
+        synchronized(dirty) {
+            dirty.add(pFile);
+        }
+    }
+
     @Override
     public File getRootDirectory() {
         return rootDirectory;
@@ -343,11 +825,24 @@ public class FilesystemAlterationObserverImpl implements FilesystemAlterationObs
 	            listeners = createArrayFromSet();
 	        }
     	}
+
+        final FilesystemAlterationStatistics scanStatistics = statistics;
+        if (scanStatistics != null) {
+            scanStatistics.removeListener(pListener);
+        }
     }
 
     private FilesystemAlterationListener[] createArrayFromSet() {
         final FilesystemAlterationListener[] newListeners = new FilesystemAlterationListener[listenersSet.size()];
         listenersSet.toArray(newListeners);
+
+        archiveListeners = false;
+        for (final FilesystemAlterationListener listener : newListeners) {
+            if (listener instanceof FilesystemAlterationArchiveListener) {
+                archiveListeners = true;
+            }
+        }
+
         return newListeners;
     }
 
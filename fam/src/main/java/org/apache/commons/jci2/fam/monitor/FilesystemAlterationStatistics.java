@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.fam.monitor;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the statistics of the scans of a {@link FilesystemAlterationObserverImpl}.
+ * Nothing is collected (and no time is measured) unless an instance is set
+ * on the observer. See {@link FilesystemAlterationMonitor#setStatisticsEnabled(boolean)}
+ * for publishing them via JMX.
+ *
+ * @author tcurdt
+ */
+public final class FilesystemAlterationStatistics implements FilesystemAlterationStatisticsMXBean {
+
+    private static final long[] BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private final File root;
+    private volatile long interval;
+
+    private long scans;
+    private long overruns;
+    private long lastScanNanos;
+    private long maxScanNanos;
+    private long totalScanNanos;
+    private final long[] histogram = new long[BUCKETS.length + 1];
+
+    private long lastEntriesVisited;
+    private long entriesVisited;
+    private long lastDirectoriesListed;
+    private long directoriesListed;
+
+    private final Map<String, long[]> events = new HashMap<>();
+    private final Map<FilesystemAlterationListener, long[]> dispatchNanos = new HashMap<>();
+
+    public FilesystemAlterationStatistics( final File pRoot ) {
+        root = pRoot;
+    }
+
+    void setInterval( final long pInterval ) {
+        interval = pInterval;
+    }
+
+    synchronized void recordScan( final long pNanos, final long pEntriesVisited, final long pDirectoriesListed ) {
+        scans++;
+        lastScanNanos = pNanos;
+        maxScanNanos = Math.max(maxScanNanos, pNanos);
+        totalScanNanos += pNanos;
+
+        final long millis = pNanos / NANOS_PER_MILLI;
+        int bucket = 0;
+        while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+            bucket++;
+        }
+        histogram[bucket]++;
+
+        if (interval > 0 && millis > interval) {
+            overruns++;
+        }
+
+        lastEntriesVisited = pEntriesVisited;
+        entriesVisited += pEntriesVisited;
+        lastDirectoriesListed = pDirectoriesListed;
+        directoriesListed += pDirectoriesListed;
+    }
+
+    synchronized void recordEvent( final String pType ) {
+        long[] count = events.get(pType);
+        if (count == null) {
+            count = new long[1];
+            events.put(pType, count);
+        }
+        count[0]++;
+    }
+
+    synchronized void recordDispatch( final FilesystemAlterationListener pListener, final long pNanos ) {
+        long[] total = dispatchNanos.get(pListener);
+        if (total == null) {
+            total = new long[1];
+            dispatchNanos.put(pListener, total);
+        }
+        total[0] += pNanos;
+    }
+
+    synchronized void removeListener( final FilesystemAlterationListener pListener ) {
+        dispatchNanos.remove(pListener);
+    }
+
+    @Override
+    public String getRootDirectory() {
+        return root.toString();
+    }
+
+    @Override
+    public long getInterval() {
+        return interval;
+    }
+
+    @Override
+    public synchronized long getScans() {
+        return scans;
+    }
+
+    @Override
+    public synchronized long getOverruns() {
+        return overruns;
+    }
+
+    @Override
+    public synchronized long getLastScanMillis() {
+        return lastScanNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized long getMaxScanMillis() {
+        return maxScanNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized long getTotalScanMillis() {
+        return totalScanNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long[] getScanDurationBuckets() {
+        return BUCKETS.clone();
+    }
+
+    @Override
+    public synchronized long[] getScanDurationHistogram() {
+        return histogram.clone();
+    }
+
+    @Override
+    public synchronized long getLastEntriesVisited() {
+        return lastEntriesVisited;
+    }
+
+    @Override
+    public synchronized long getEntriesVisited() {
+        return entriesVisited;
+    }
+
+    @Override
+    public synchronized long getLastDirectoriesListed() {
+        return lastDirectoriesListed;
+    }
+
+    @Override
+    public synchronized long getDirectoriesListed() {
+        return directoriesListed;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getEvents() {
+        final Map<String, Long> result = new TreeMap<>();
+        for (final Map.Entry<String, long[]> entry : events.entrySet()) {
+            result.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getListenerDispatchMillis() {
+        final Map<String, Long> result = new TreeMap<>();
+        for (final Map.Entry<FilesystemAlterationListener, long[]> entry : dispatchNanos.entrySet()) {
+            final FilesystemAlterationListener listener = entry.getKey();
+            final String name = listener.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(listener));
+            result.put(name, entry.getValue()[0] / NANOS_PER_MILLI);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void reset() {
+        scans = 0;
+        overruns = 0;
+        lastScanNanos = 0;
+        maxScanNanos = 0;
+        totalScanNanos = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = 0;
+        }
+        lastEntriesVisited = 0;
+        entriesVisited = 0;
+        lastDirectoriesListed = 0;
+        directoriesListed = 0;
+        events.clear();
+        dispatchNanos.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "FilesystemAlterationStatistics[" + root + "]";
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jci2.fam.monitor;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing the cost of the scans of one
+ * observed root and the volume of events they produced.
+ *
+ * @author tcurdt
+ */
+public interface FilesystemAlterationStatisticsMXBean {
+
+    String getRootDirectory();
+
+    /**
+     * @return the configured delay between scans in milliseconds
+     */
+    long getInterval();
+
+    long getScans();
+
+    /**
+     * @return the number of scans that took longer than the interval
+     */
+    long getOverruns();
+
+    long getLastScanMillis();
+    long getMaxScanMillis();
+    long getTotalScanMillis();
+
+    /**
+     * @return the upper bounds (inclusive, in milliseconds) of the histogram buckets,
+     *         the last bucket of the histogram counts everything above
+     */
+    long[] getScanDurationBuckets();
+    long[] getScanDurationHistogram();
+
+    long getLastEntriesVisited();
+    long getEntriesVisited();
+
+    long getLastDirectoriesListed();
+    long getDirectoriesListed();
+
+    /**
+     * @return number of events emitted by type (listener method name)
+     */
+    Map<String, Long> getEvents();
+
+    /**
+     * @return the total time in milliseconds spent in each of the listeners
+     */
+    Map<String, Long> getListenerDispatchMillis();
+
+    void reset();
+}
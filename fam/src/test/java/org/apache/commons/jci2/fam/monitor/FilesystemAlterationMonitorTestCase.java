@@ -21,6 +21,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.jci2.fam.listeners.AbstractFilesystemAlterationListener;
@@ -119,9 +126,53 @@ public final class FilesystemAlterationMonitorTestCase extends TestCase {
         }
     }
 
+    protected File writeArchive( final String pName, final String... pEntries ) throws Exception {
+        final File file = new File(directory, pName);
+        final ZipOutputStream os = new ZipOutputStream(new FileOutputStream(file));
+        for (int i = 0; i < pEntries.length; i += 2) {
+            os.putNextEntry(new ZipEntry(pEntries[i]));
+            os.write(pEntries[i + 1].getBytes());
+            os.closeEntry();
+        }
+        os.close();
+
+        assertTrue(file.exists());
+        assertTrue(file.isFile());
+
+        return file;
+    }
+
     private static final class MyFilesystemAlterationListener extends AbstractFilesystemAlterationListener {
     }
 
+    private static final class MyFilesystemAlterationArchiveListener extends AbstractFilesystemAlterationListener implements FilesystemAlterationArchiveListener {
+
+        private final Collection<String> createdEntries = new ArrayList<>();
+        private final Collection<String> changedEntries = new ArrayList<>();
+        private final Collection<String> deletedEntries = new ArrayList<>();
+
+        @Override
+        public void onStart( final FilesystemAlterationObserver pObserver ) {
+            super.onStart(pObserver);
+            createdEntries.clear();
+            changedEntries.clear();
+            deletedEntries.clear();
+        }
+
+        @Override
+        public void onArchiveEntryCreate( final File pArchive, final String pEntryName ) {
+            createdEntries.add(pEntryName);
+        }
+        @Override
+        public void onArchiveEntryChange( final File pArchive, final String pEntryName ) {
+            changedEntries.add(pEntryName);
+        }
+        @Override
+        public void onArchiveEntryDelete( final File pArchive, final String pEntryName ) {
+            deletedEntries.add(pEntryName);
+        }
+    }
+
     private void start() throws Exception {
         fam = new FilesystemAlterationMonitor();
         listener = new MyFilesystemAlterationListener();
@@ -327,6 +378,194 @@ public final class FilesystemAlterationMonitorTestCase extends TestCase {
         assertEquals(directory.lastModified(), modified);
     }
 
+    public void testArchiveEntryDetection() throws Exception {
+        final FilesystemAlterationObserverImpl observer = new FilesystemAlterationObserverImpl(directory);
+        observer.setArchiveAware(true);
+        final MyFilesystemAlterationArchiveListener archiveListener = new MyFilesystemAlterationArchiveListener();
+        final MyFilesystemAlterationListener fileListener = new MyFilesystemAlterationListener();
+        observer.addListener(archiveListener);
+        observer.addListener(fileListener);
+        observer.checkAndNotify();
+
+        final File jar = writeArchive("plugin.jar", "a/A.class", "a", "a/B.class", "b", "c/C.class", "c");
+        observer.checkAndNotify();
+
+        assertEquals(3, archiveListener.createdEntries.size());
+        assertEquals(0, archiveListener.getCreatedFiles().size());
+        assertEquals(1, fileListener.getCreatedFiles().size());
+
+        writeArchive("plugin.jar", "a/A.class", "a", "a/B.class", "changed b", "d/D.class", "d");
+        jar.setLastModified(jar.lastModified() + 2000);
+        observer.checkAndNotify();
+
+        assertEquals(1, archiveListener.createdEntries.size());
+        assertTrue(archiveListener.createdEntries.contains("d/D.class"));
+        assertEquals(1, archiveListener.changedEntries.size());
+        assertTrue(archiveListener.changedEntries.contains("a/B.class"));
+        assertEquals(1, archiveListener.deletedEntries.size());
+        assertTrue(archiveListener.deletedEntries.contains("c/C.class"));
+        assertEquals(0, archiveListener.getChangedFiles().size());
+        assertEquals(1, fileListener.getChangedFiles().size());
+
+        assertTrue(jar.delete());
+        observer.checkAndNotify();
+
+        assertEquals(3, archiveListener.deletedEntries.size());
+        assertEquals(1, fileListener.getDeletedFiles().size());
+    }
+
+    public void testArchiveRescan() throws Exception {
+        final FilesystemAlterationObserverImpl observer = new FilesystemAlterationObserverImpl(directory);
+        observer.setArchiveAware(true);
+        final MyFilesystemAlterationArchiveListener archiveListener = new MyFilesystemAlterationArchiveListener();
+        observer.addListener(archiveListener);
+        observer.checkAndNotify();
+
+        final File jar = writeFile("plugin.jar", "not an archive yet");
+        final long modified = jar.lastModified();
+        observer.checkAndNotify();
+
+        assertEquals(0, archiveListener.createdEntries.size());
+
+        writeArchive("plugin.jar", "a/A.class", "a", "a/B.class", "b");
+        assertTrue(jar.setLastModified(modified));
+        observer.checkAndNotify();
+
+        assertEquals(2, archiveListener.createdEntries.size());
+
+        observer.checkAndNotify();
+
+        assertEquals(0, archiveListener.createdEntries.size());
+    }
+
+    public void testDirtyHints() throws Exception {
+        final FilesystemAlterationObserverImpl observer = new FilesystemAlterationObserverImpl(directory);
+        observer.setFullScanInterval(100);
+        listener = new MyFilesystemAlterationListener();
+        observer.addListener(listener);
+        observer.checkAndNotify();
+
+        final File file = writeFile("file", "file");
+        observer.checkAndNotify();
+
+        assertEquals("no hint, no scan", 0, listener.getCreatedFiles().size());
+
+        observer.markDirty(file);
+        observer.markDirty(new File(directory.getParentFile(), "outside"));
+        observer.checkAndNotify();
+
+        assertEquals(1, listener.getCreatedFiles().size());
+
+        final File nested = writeFile("dir/sub/file", "file");
+        observer.markDirty(nested);
+        observer.checkAndNotify();
+
+        assertEquals(2, listener.getCreatedDirectories().size());
+        assertEquals(1, listener.getCreatedFiles().size());
+
+        FileUtils.deleteDirectory(new File(directory, "dir"));
+        observer.markDirty(nested);
+        observer.checkAndNotify();
+
+        assertEquals(2, listener.getDeletedDirectories().size());
+        assertEquals(1, listener.getDeletedFiles().size());
+    }
+
+    public void testDirtyHintsFullScanFallback() throws Exception {
+        final FilesystemAlterationObserverImpl observer = new FilesystemAlterationObserverImpl(directory);
+        observer.setFullScanInterval(2);
+        listener = new MyFilesystemAlterationListener();
+        observer.addListener(listener);
+        observer.checkAndNotify();
+
+        writeFile("file", "file");
+        observer.checkAndNotify();
+        assertEquals(0, listener.getCreatedFiles().size());
+
+        observer.checkAndNotify();
+        assertEquals(1, listener.getCreatedFiles().size());
+    }
+
+    public void testConcurrentStat() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final FilesystemAlterationObserverImpl observer = new FilesystemAlterationObserverImpl(directory);
+            observer.setStatExecutor(executor, 2);
+            listener = new MyFilesystemAlterationListener();
+            observer.addListener(listener);
+            observer.checkAndNotify();
+
+            for (int i = 0; i < 10; i++) {
+                writeFile("dir" + i + "/file", "file");
+            }
+            final File file = writeFile("file", "file");
+            observer.checkAndNotify();
+
+            assertEquals(10, listener.getCreatedDirectories().size());
+            assertEquals(11, listener.getCreatedFiles().size());
+
+            observer.checkAndNotify();
+
+            assertEquals(0, listener.getCreatedFiles().size());
+            assertEquals(0, listener.getChangedFiles().size());
+
+            writeFile("file", "changed file");
+            file.setLastModified(file.lastModified() + 2000);
+            observer.checkAndNotify();
+
+            assertEquals(1, listener.getChangedFiles().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testStatistics() throws Exception {
+        fam = new FilesystemAlterationMonitor();
+        fam.setInterval(1000);
+        listener = new MyFilesystemAlterationListener();
+        fam.addListener(directory, listener);
+        fam.setStatisticsEnabled(true);
+
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(fam.getObjectName(directory)));
+
+        final FilesystemAlterationObserver observer = fam.getObserver(directory);
+        observer.checkAndNotify();
+        writeFile("dir/file", "file");
+        observer.checkAndNotify();
+
+        final FilesystemAlterationStatistics statistics = ((FilesystemAlterationObserverImpl)observer).getStatistics();
+        assertEquals(2, statistics.getScans());
+        assertEquals(1000, statistics.getInterval());
+        assertEquals(3, statistics.getLastEntriesVisited());
+        assertEquals(2, statistics.getLastDirectoriesListed());
+        assertEquals(Long.valueOf(1), statistics.getEvents().get("onFileCreate"));
+        assertEquals("root and dir", Long.valueOf(2), statistics.getEvents().get("onDirectoryCreate"));
+        assertEquals(1, statistics.getListenerDispatchMillis().size());
+
+        long histogram = 0;
+        for (final long count : statistics.getScanDurationHistogram()) {
+            histogram += count;
+        }
+        assertEquals(2, histogram);
+
+        fam.removeListener(listener);
+        assertEquals(0, statistics.getListenerDispatchMillis().size());
+
+        final FilesystemAlterationMonitor other = new FilesystemAlterationMonitor();
+        other.addListener(directory, new MyFilesystemAlterationListener());
+        other.setStatisticsEnabled(true);
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(other.getObjectName(directory)));
+
+        fam.setStatisticsEnabled(false);
+
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(fam.getObjectName(directory)));
+        assertNull(((FilesystemAlterationObserverImpl)observer).getStatistics());
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(other.getObjectName(directory)));
+
+        other.stop();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(other.getObjectName(directory)));
+    }
+
     public void testInterval() throws Exception {
 
         final long interval = 1000;